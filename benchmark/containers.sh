@@ -0,0 +1,85 @@
+#!/usr/bin/env bash
+#
+# Copyright (c) 2023 - DerEingerostete
+#
+# This Source Code Form is subject to the terms of the Mozilla Public
+# License, v. 2.0. If a copy of the MPL was not distributed with this
+# file, You can obtain one at https://mozilla.org/MPL/2.0/.
+#
+#
+# Compares the servlet containers on the same corpus of files.
+# Builds the server with every container profile, serves a generated corpus and
+# measures throughput with wrk and the peak memory of the server process.
+#
+# Requirements: maven, java 17, wrk, curl
+# Usage: benchmark/containers.sh [duration] [connections]
+
+set -euo pipefail
+
+DURATION="${1:-30s}"
+CONNECTIONS="${2:-64}"
+PROFILES=(tomcat undertow jetty)
+PORT=18080
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+WORK="$ROOT/benchmark/work"
+
+mkdir -p "$WORK/jars" "$WORK/server/files"
+
+# Build one jar per container. Every profile compiles against the servlet API of its container,
+# so code needing Servlet 6.0 fails the jetty build. The tests need Servlet 6.0 and run once with tomcat.
+(cd "$ROOT" && mvn -B -q -Ptomcat clean test)
+for profile in "${PROFILES[@]}"; do
+  (cd "$ROOT" && mvn -B -q -P"$profile" -DskipTests clean package)
+  cp "$ROOT"/target/static-file-server-*.jar "$WORK/jars/sfs-$profile.jar"
+done
+
+# Corpus: many small files, some medium files and a few large files
+create_files() {
+  local prefix=$1 count=$2 size_kb=$3
+  for i in $(seq 1 "$count"); do
+    local file="$WORK/server/files/$prefix-$i.bin"
+    [ -f "$file" ] || head -c "$((size_kb * 1024))" /dev/urandom > "$file"
+  done
+}
+create_files small 200 16
+create_files medium 20 4096
+create_files large 2 524288
+
+# Picks a random file of a class for every request
+write_script() {
+  local prefix=$1 count=$2
+  cat > "$WORK/$prefix.lua" <<LUA
+request = function()
+  return wrk.format("GET", "/download?fileName=$prefix-" .. math.random(1, $count) .. ".bin")
+end
+LUA
+}
+write_script small 200
+write_script medium 20
+write_script large 2
+
+RESULTS="$WORK/results.csv"
+echo "container,corpus,requests_per_second,transfer_per_second,peak_rss_kb" > "$RESULTS"
+
+for profile in "${PROFILES[@]}"; do
+  cd "$WORK/server"
+  java -Dsfs.rate-limit=2147483647 -jar "$WORK/jars/sfs-$profile.jar" --server.port=$PORT \
+    --sfs.download.max-concurrent-per-address=100000 > "$WORK/$profile.log" 2>&1 &
+  pid=$!
+  trap 'kill $pid 2>/dev/null || true' EXIT
+
+  until curl -s -o /dev/null "http://localhost:$PORT/download?fileName=small-1.bin"; do sleep 1; done
+
+  for corpus in small medium large; do
+    output=$(wrk -t4 -c"$CONNECTIONS" -d"$DURATION" -s "$WORK/$corpus.lua" "http://localhost:$PORT")
+    requests=$(echo "$output" | awk '/Requests\/sec/ {print $2}')
+    transfer=$(echo "$output" | awk '/Transfer\/sec/ {print $2}')
+    rss=$(awk '/VmHWM/ {print $2}' "/proc/$pid/status")
+    echo "$profile,$corpus,$requests,$transfer,$rss" >> "$RESULTS"
+  done
+
+  kill $pid
+  wait $pid 2>/dev/null || true
+done
+
+column -t -s, "$RESULTS"
@@ -0,0 +1,68 @@
+#!/usr/bin/env bash
+#
+# Copyright (c) 2023 - DerEingerostete
+#
+# This Source Code Form is subject to the terms of the Mozilla Public
+# License, v. 2.0. If a copy of the MPL was not distributed with this
+# file, You can obtain one at https://mozilla.org/MPL/2.0/.
+#
+#
+# Compares the startup time and memory of the plain jar, the class data sharing
+# archive and the native image. The startup time is measured until the first
+# request is answered, the memory is the resident set size at that point.
+#
+# The class data sharing archive is used in place, because its class path must not change.
+#
+# Requirements: maven, java 17, GraalVM native-image (for the native build), curl
+# Usage: benchmark/startup.sh [runs]
+
+set -euo pipefail
+
+RUNS="${1:-5}"
+PORT=18081
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+WORK="$ROOT/benchmark/work/startup"
+
+mkdir -p "$WORK/bin"
+cd "$ROOT"
+mvn -B -q -Ptomcat,appcds -DskipTests clean package
+cp target/static-file-server-*.jar "$WORK/bin/sfs.jar"
+if command -v native-image > /dev/null; then
+  mvn -B -q -Pnative,tomcat -DskipTests native:compile
+  cp target/static-file-server "$WORK/bin/sfs-native"
+fi
+
+# Prints the startup time in milliseconds and the resident set size in kilobytes
+measure() {
+  local start pid
+  start=$(date +%s%N)
+  "$@" --server.port=$PORT > "$WORK/server.log" 2>&1 &
+  pid=$!
+  until curl -s -o /dev/null "http://localhost:$PORT/download?fileName=missing"; do sleep 0.02; done
+  local elapsed=$((($(date +%s%N) - start) / 1000000))
+  local rss
+  rss=$(awk '/VmRSS/ {print $2}' "/proc/$pid/status")
+  kill $pid
+  wait $pid 2>/dev/null || true
+  echo "$elapsed $rss"
+}
+
+RESULTS="$WORK/results.csv"
+echo "mode,run,startup_ms,rss_kb" > "$RESULTS"
+mkdir -p "$WORK/server"
+cd "$WORK/server"
+for run in $(seq 1 "$RUNS"); do
+  read -r ms rss < <(measure java -jar "$WORK/bin/sfs.jar")
+  echo "jvm,$run,$ms,$rss" >> "$RESULTS"
+  read -r ms rss < <(measure sh "$ROOT/target/cds/run.sh")
+  echo "appcds,$run,$ms,$rss" >> "$RESULTS"
+  if [ -x "$WORK/bin/sfs-native" ]; then
+    read -r ms rss < <(measure "$WORK/bin/sfs-native")
+    echo "native,$run,$ms,$rss" >> "$RESULTS"
+  fi
+done
+
+# Averages per mode
+awk -F, 'NR > 1 {ms[$1] += $3; rss[$1] += $4; n[$1]++}
+  END {printf "%-8s %12s %12s\n", "mode", "startup_ms", "rss_kb";
+       for (m in n) printf "%-8s %12d %12d\n", m, ms[m] / n[m], rss[m] / n[m]}' "$RESULTS"
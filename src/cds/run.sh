@@ -0,0 +1,7 @@
+#!/usr/bin/env sh
+# Starts the server with the class data sharing archive created during the build.
+# The class path has to be identical to the one of the training run, so this directory must not be moved.
+DIR="$(cd "$(dirname "$0")" && pwd)"
+exec java -XX:SharedArchiveFile="$DIR/application.jsa" -Xshare:auto \
+  -cp "$DIR/@project.artifactId@-@project.version@-cds.jar:$DIR/lib/*" \
+  de.dereingerostete.sfs.StaticFileServerApplication "$@"
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs;
+
+import de.dereingerostete.sfs.api.v1.ExpireRequest;
+import de.dereingerostete.sfs.api.v1.ProtectRequest;
+import de.dereingerostete.sfs.api.v1.SignRequest;
+import de.dereingerostete.sfs.api.v1.UnprotectRequest;
+import de.dereingerostete.sfs.error.RestError;
+import de.dereingerostete.sfs.error.RetryAfter;
+import de.dereingerostete.sfs.upload.UploadLoginForm;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+import java.util.List;
+
+/**
+ * Hints for the ahead-of-time processing of native images.
+ * Spring only infers the bindings of declared controller types, but most responses are
+ * {@code ResponseEntity<Object>} and Lombok generates the accessors Jackson needs.
+ */
+public class NativeHints implements RuntimeHintsRegistrar {
+	//Caches generated by Caffeine for the builder configurations in use, loaded by name
+	private static final @NotNull List<String> CAFFEINE_CLASSES = List.of(
+			"com.github.benmanes.caffeine.cache.SSW", "com.github.benmanes.caffeine.cache.PSW",
+			"com.github.benmanes.caffeine.cache.SSLA", "com.github.benmanes.caffeine.cache.PSA",
+			"com.github.benmanes.caffeine.cache.SSMS", "com.github.benmanes.caffeine.cache.PSMS"
+	);
+
+	@Override
+	public void registerHints(@NotNull RuntimeHints hints, @Nullable ClassLoader classLoader) {
+		new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+				RestError.class, RetryAfter.class, ProtectRequest.class, UnprotectRequest.class,
+				SignRequest.class, ExpireRequest.class, UploadLoginForm.class);
+
+		for (String className : CAFFEINE_CLASSES) {
+			hints.reflection().registerTypeIfPresent(classLoader, className,
+					MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS);
+		}
+
+		hints.resources().registerPattern("error_messages.json");
+		//Tika reads its mime type database from the classpath
+		hints.resources().registerPattern("org/apache/tika/mime/*.xml");
+	}
+
+}
@@ -17,12 +17,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 @SpringBootApplication
+@ImportRuntimeHints(NativeHints.class)
 public class StaticFileServerApplication {
     private static final @NotNull Logger LOGGER = LoggerFactory.getLogger("StaticFileServer");
     private static @Getter RefreshingConfig tokenConfig;
@@ -47,7 +50,10 @@ public class StaticFileServerApplication {
             System.exit(1);
         }
 
-        SpringApplication.run(StaticFileServerApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(StaticFileServerApplication.class, args);
+
+        //Training runs for the class data sharing archive stop once the server is started
+        if (Boolean.getBoolean("sfs.exit-after-startup")) System.exit(SpringApplication.exit(context));
     }
 
     @NotNull
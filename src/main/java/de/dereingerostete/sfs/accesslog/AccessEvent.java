@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import lombok.Data;
+import org.jetbrains.annotations.NotNull;
+
+@Data
+public class AccessEvent {
+	private final long timestamp;
+	private final @NotNull String address;
+	private final @NotNull String method;
+	private final @NotNull String uri;
+	private final @NotNull String protocol;
+	private final int status;
+	private final long bytes;
+	private final long durationMicros;
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access log which never blocks request threads. Events are put into a ring buffer
+ * and written in batches by a background thread in a compact binary format
+ * (see {@link AccessLogFormat}). Events are dropped and counted if the buffer is full.
+ */
+public class AccessLog {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull File LOG_DIRECTORY = new File("logs");
+	private static final @NotNull String FILE_NAME = "access.bin";
+	private static final @NotNull AccessLog INSTANCE = new AccessLog();
+	private static final long MAX_FILE_SIZE = 64L * 1024 * 1024; //64MB
+	private static final int MAX_ROTATED_FILES = 10;
+	private static final int BUFFER_CAPACITY = 65536;
+	private static final int MAX_BATCH_SIZE = 4096;
+	private static final long FLUSH_INTERVAL_MILLIS = 200;
+
+	private final @NotNull RingBuffer<AccessEvent> buffer;
+	private final @NotNull AtomicLong dropped;
+	private final @NotNull File file;
+	private DataOutputStream outputStream;
+	private long fileSize;
+	private long reportedDropped;
+
+	private AccessLog() {
+		if (!LOG_DIRECTORY.exists() && !LOG_DIRECTORY.mkdir())
+			throw new IllegalStateException("Failed to create log directory");
+
+		this.buffer = new RingBuffer<>(BUFFER_CAPACITY);
+		this.dropped = new AtomicLong();
+		this.file = new File(LOG_DIRECTORY, FILE_NAME);
+
+		ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "AccessLogWriter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleWithFixedDelay(this::drain, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds an event to the log without blocking
+	 * @param event The event to log
+	 */
+	public void log(@NotNull AccessEvent event) {
+		if (!buffer.offer(event)) dropped.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of events dropped since the start because the buffer was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private void drain() {
+		try {
+			int written;
+			do {
+				written = writeBatch();
+			} while (written == MAX_BATCH_SIZE);
+
+			long droppedCount = dropped.get();
+			if (droppedCount > reportedDropped) {
+				LOGGER.warn("Dropped {} access log events because the buffer was full", droppedCount - reportedDropped);
+				reportedDropped = droppedCount;
+			}
+		} catch (IOException | RuntimeException exception) {
+			LOGGER.warn("Failed to write access log", exception);
+			closeQuietly();
+		}
+	}
+
+	private int writeBatch() throws IOException {
+		int count = 0;
+		AccessEvent event;
+		while (count < MAX_BATCH_SIZE && (event = buffer.poll()) != null) {
+			if (outputStream == null) open();
+			fileSize += AccessLogFormat.write(outputStream, event);
+			count++;
+		}
+
+		if (count == 0) return 0;
+		outputStream.flush();
+		if (fileSize >= MAX_FILE_SIZE) rotate();
+		return count;
+	}
+
+	private void open() throws IOException {
+		boolean exists = file.exists() && file.length() > 0;
+		OutputStream fileStream = new FileOutputStream(file, true);
+		outputStream = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+		fileSize = exists ? file.length() : 0;
+		if (!exists) fileSize += AccessLogFormat.writeHeader(outputStream);
+	}
+
+	private void rotate() throws IOException {
+		closeQuietly();
+		File rotated = new File(LOG_DIRECTORY, "access-" + System.currentTimeMillis() + ".bin");
+		if (!file.renameTo(rotated)) throw new IOException("Failed to rotate access log");
+
+		File[] rotatedFiles = LOG_DIRECTORY.listFiles((directory, name) -> name.startsWith("access-"));
+		if (rotatedFiles == null || rotatedFiles.length <= MAX_ROTATED_FILES) return;
+		Arrays.sort(rotatedFiles, Comparator.comparing(File::getName));
+		for (int i = 0; i < rotatedFiles.length - MAX_ROTATED_FILES; i++) {
+			if (!rotatedFiles[i].delete()) LOGGER.warn("Failed to delete old access log {}", rotatedFiles[i].getName());
+		}
+	}
+
+	private void closeQuietly() {
+		if (outputStream == null) return;
+		try {
+			outputStream.close();
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to close access log", exception);
+		}
+		outputStream = null;
+	}
+
+	@NotNull
+	public static AccessLog get() {
+		return INSTANCE;
+	}
+
+}
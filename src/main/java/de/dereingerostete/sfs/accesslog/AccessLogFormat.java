@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Binary format of the access log. A file starts with the magic "SFAL" and a version byte,
+ * followed by records of: timestamp (long), address, method, uri and protocol (modified UTF-8),
+ * status (short), bytes (long, -1 if unknown) and duration in microseconds (long).
+ */
+public class AccessLogFormat {
+	private static final int MAGIC = 0x5346414C; //SFAL
+	private static final int VERSION = 1;
+
+	public static int writeHeader(@NotNull DataOutputStream outputStream) throws IOException {
+		int start = outputStream.size();
+		outputStream.writeInt(MAGIC);
+		outputStream.writeByte(VERSION);
+		return outputStream.size() - start;
+	}
+
+	/**
+	 * Writes an event
+	 * @return The number of bytes written
+	 */
+	public static int write(@NotNull DataOutputStream outputStream, @NotNull AccessEvent event) throws IOException {
+		int start = outputStream.size();
+		outputStream.writeLong(event.getTimestamp());
+		outputStream.writeUTF(event.getAddress());
+		outputStream.writeUTF(event.getMethod());
+		outputStream.writeUTF(truncate(event.getUri()));
+		outputStream.writeUTF(event.getProtocol());
+		outputStream.writeShort(event.getStatus());
+		outputStream.writeLong(event.getBytes());
+		outputStream.writeLong(event.getDurationMicros());
+		return outputStream.size() - start;
+	}
+
+	public static void readHeader(@NotNull DataInputStream inputStream) throws IOException {
+		if (inputStream.readInt() != MAGIC) throw new IOException("Not an access log file");
+		int version = inputStream.readUnsignedByte();
+		if (version != VERSION) throw new IOException("Unsupported access log version " + version);
+	}
+
+	/**
+	 * Reads the next event
+	 * @return The event or null if the end of the file was reached
+	 */
+	@Nullable
+	public static AccessEvent read(@NotNull DataInputStream inputStream) throws IOException {
+		long timestamp;
+		try {
+			timestamp = inputStream.readLong();
+		} catch (EOFException exception) {
+			return null;
+		}
+
+		return new AccessEvent(timestamp, inputStream.readUTF(), inputStream.readUTF(), inputStream.readUTF(),
+				inputStream.readUTF(), inputStream.readShort(), inputStream.readLong(), inputStream.readLong());
+	}
+
+	/**
+	 * Modified UTF-8 strings are limited to 65535 bytes
+	 */
+	@NotNull
+	private static String truncate(@NotNull String string) {
+		return string.length() > 8192 ? string.substring(0, 8192) : string;
+	}
+
+}
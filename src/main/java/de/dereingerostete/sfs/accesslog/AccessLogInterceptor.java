@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.Set;
+
+/**
+ * Feeds every handled controller request into the {@link AccessLog}
+ */
+public class AccessLogInterceptor implements HandlerInterceptor {
+	private static final @NotNull String START_ATTRIBUTE = "sfs.accessLogStart";
+	private static final @NotNull Set<String> REDACTED_PARAMETERS = Set.of("token", "signature");
+
+	@Override
+	public boolean preHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+							 @NotNull Object handler) {
+		//The async dispatch of a streamed body passes here again, the duration starts with the request
+		if (request.getAttribute(START_ATTRIBUTE) == null) request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+								@NotNull Object handler, @Nullable Exception exception) {
+		long durationMicros = -1;
+		if (request.getAttribute(START_ATTRIBUTE) instanceof Long start) {
+			durationMicros = (System.nanoTime() - start) / 1000;
+		}
+
+		String uri = request.getRequestURI();
+		String query = request.getQueryString();
+		if (query != null) uri += "?" + redact(query);
+
+		int status = exception != null && response.getStatus() < 400 ? 500 : response.getStatus();
+		AccessEvent event = new AccessEvent(System.currentTimeMillis(), request.getRemoteAddr(), request.getMethod(),
+				uri, request.getProtocol(), status, getContentLength(response), durationMicros);
+		AccessLog.get().log(event);
+	}
+
+	private long getContentLength(@NotNull HttpServletResponse response) {
+		String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+		if (contentLength == null) return -1;
+		try {
+			return Long.parseLong(contentLength);
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Hides the values of secret query parameters
+	 */
+	@NotNull
+	private String redact(@NotNull String query) {
+		StringBuilder builder = new StringBuilder(query.length());
+		for (String parameter : query.split("&")) {
+			if (!builder.isEmpty()) builder.append('&');
+			int separator = parameter.indexOf('=');
+			String name = separator == -1 ? parameter : parameter.substring(0, separator);
+			if (separator != -1 && REDACTED_PARAMETERS.contains(name)) builder.append(name).append("=***");
+			else builder.append(parameter);
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Command line tool exporting binary access logs to the common log format.
+ * Usage: java -cp static-file-server.jar de.dereingerostete.sfs.accesslog.AccessLogReader [files...]
+ */
+public class AccessLogReader {
+	private static final @NotNull DateTimeFormatter FORMATTER = DateTimeFormatter
+			.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH)
+			.withZone(ZoneId.systemDefault());
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: AccessLogReader <access log files...>");
+			System.exit(1);
+		}
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		for (String path : args) {
+			try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+				AccessLogFormat.readHeader(inputStream);
+				AccessEvent event;
+				while ((event = AccessLogFormat.read(inputStream)) != null) {
+					writer.write(toCommonLogFormat(event));
+					writer.write('\n');
+				}
+			} catch (EOFException exception) {
+				System.err.println("Truncated record at the end of " + path);
+			}
+		}
+		writer.flush();
+	}
+
+	@NotNull
+	public static String toCommonLogFormat(@NotNull AccessEvent event) {
+		String bytes = event.getBytes() < 0 ? "-" : String.valueOf(event.getBytes());
+		return event.getAddress() + " - - [" + FORMATTER.format(Instant.ofEpochMilli(event.getTimestamp())) + "] \""
+				+ event.getMethod() + " " + event.getUri() + " " + event.getProtocol() + "\" "
+				+ event.getStatus() + " " + bytes;
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * Producers never block: if the buffer is full, {@link #offer(Object)} fails immediately.
+ * @param <T> The type of the elements
+ */
+public class RingBuffer<T> {
+	private final @NotNull AtomicReferenceArray<T> slots;
+	private final @NotNull AtomicLong tail;
+	private final @NotNull AtomicLong head;
+	private final int mask;
+
+	/**
+	 * @param capacity The capacity of the buffer, rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.tail = new AtomicLong();
+		this.head = new AtomicLong();
+		this.mask = size - 1;
+	}
+
+	public boolean offer(@NotNull T element) {
+		while (true) {
+			long currentTail = tail.get();
+			if (currentTail - head.get() >= slots.length()) return false;
+			if (tail.compareAndSet(currentTail, currentTail + 1)) {
+				slots.set((int) (currentTail & mask), element);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next element. Must only be called from the consumer thread.
+	 * @return The element or null if the buffer is empty or the next element is not published yet
+	 */
+	@Nullable
+	public T poll() {
+		long currentHead = head.get();
+		int index = (int) (currentHead & mask);
+		T element = slots.get(index);
+		if (element == null) return null;
+
+		slots.set(index, null);
+		head.lazySet(currentHead + 1);
+		return element;
+	}
+
+}
@@ -12,6 +12,7 @@ package de.dereingerostete.sfs.api.v1;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
@@ -19,7 +20,7 @@ import java.util.List;
 @AllArgsConstructor
 public class ProtectRequest implements FileRequest {
 	private final @NotNull String fileName;
-	private final @NotNull List<String> tokens;
+	private final @Nullable List<String> tokens;
 	private boolean replace;
 
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.assets;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A static asset held in memory together with its precompressed variants
+ */
+@Getter
+public class Asset {
+	private final @NotNull String path;
+	private final @NotNull String versionedPath;
+	private final @NotNull String mediaType;
+	private final @NotNull String hash;
+	private final byte[] content;
+	private final @Nullable byte[] gzipContent;
+	private final @Nullable byte[] brotliContent;
+
+	Asset(@NotNull String path, @NotNull String versionedPath, @NotNull String mediaType, @NotNull String hash,
+		  byte[] content, @Nullable byte[] gzipContent, @Nullable byte[] brotliContent) {
+		this.path = path;
+		this.versionedPath = versionedPath;
+		this.mediaType = mediaType;
+		this.hash = hash;
+		this.content = content;
+		this.gzipContent = gzipContent;
+		this.brotliContent = brotliContent;
+	}
+
+	public boolean hasVariants() {
+		return gzipContent != null || brotliContent != null;
+	}
+
+}
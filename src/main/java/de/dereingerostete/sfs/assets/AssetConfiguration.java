@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.assets;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AssetConfiguration {
+
+	@Bean
+	public FilterRegistrationBean<AssetUrlFilter> assetUrlFilter() {
+		FilterRegistrationBean<AssetUrlFilter> registration = new FilterRegistrationBean<>(new AssetUrlFilter());
+		registration.addUrlPatterns("/upload");
+		return registration;
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.assets;
+
+import de.dereingerostete.sfs.error.ErrorResponses;
+import de.dereingerostete.sfs.util.ContentCodings;
+import jakarta.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the assets of the {@link AssetPipeline} from memory. Versioned paths never change their
+ * content and are cached as immutable, plain paths have to be revalidated on every use.
+ */
+@RestController
+public class AssetController {
+	private static final @NotNull CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+	private static final @NotNull CacheControl REVALIDATE = CacheControl.noCache();
+
+	@RequestMapping(path = AssetPipeline.PATH_PREFIX + "**", method = RequestMethod.GET)
+	public ResponseEntity<Object> asset(@NotNull HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		Asset asset = AssetPipeline.get().get(path);
+		if (asset == null) return ErrorResponses.NOT_FOUND.toResponse();
+
+		byte[] content = asset.getContent();
+		String encoding = null;
+		if (asset.getBrotliContent() != null && ContentCodings.accepts(request, "br")) {
+			content = asset.getBrotliContent();
+			encoding = "br";
+		} else if (asset.getGzipContent() != null && ContentCodings.accepts(request, "gzip")) {
+			content = asset.getGzipContent();
+			encoding = "gzip";
+		}
+
+		HttpHeaders headers = new HttpHeaders();
+		if (encoding != null) headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+		if (asset.hasVariants()) headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		CacheControl cacheControl = asset.getVersionedPath().equals(path) ? IMMUTABLE : REVALIDATE;
+		String eTag = "\"" + asset.getHash() + (encoding == null ? "" : "-" + encoding) + "\"";
+		if (new ServletWebRequest(request).checkNotModified(eTag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.headers(headers)
+					.eTag(eTag)
+					.cacheControl(cacheControl)
+					.build();
+		}
+
+		return ResponseEntity.ok()
+				.headers(headers)
+				.contentType(MediaType.parseMediaType(asset.getMediaType()))
+				.contentLength(content.length)
+				.eTag(eTag)
+				.cacheControl(cacheControl)
+				.body(content);
+	}
+
+}
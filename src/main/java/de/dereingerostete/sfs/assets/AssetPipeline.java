@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.assets;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.util.FileNameValidator;
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Loads the static assets of the upload UI into memory. Every asset gets a versioned path with
+ * a hash of its content, so it can be cached forever, and a gzip variant if it is compressible.
+ * Brotli variants are used if a precompressed ".br" file is next to the asset.
+ * Links in style sheets are rewritten to the versioned paths of the referenced assets.
+ * Assets are loaded on their first use, as the class path cannot be listed in every packaging.
+ */
+public class AssetPipeline {
+	public static final @NotNull String PATH_PREFIX = "/assets/";
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull String RESOURCE_ROOT = "/static";
+	private static final @NotNull AssetPipeline INSTANCE = new AssetPipeline();
+	private static final @NotNull Pattern CSS_URL = Pattern.compile("url\\(\\s*(['\"]?)([^'\")]+)\\1\\s*\\)");
+	private static final @NotNull Set<String> COMPRESSIBLE_EXTENSIONS = Set.of("css", "js", "svg", "json", "txt", "html", "map");
+	private static final int HASH_LENGTH = 8; //Bytes of the SHA-256 hash in the versioned path
+	private static final double MAX_RATIO = 0.9;
+	private final @NotNull Map<String, Asset> assets;
+	private final @NotNull Map<String, Asset> versionedAssets;
+
+	private AssetPipeline() {
+		this.assets = new ConcurrentHashMap<>();
+		this.versionedAssets = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Gets an asset by its path or its versioned path
+	 * @param path The path of the request, starting with {@link #PATH_PREFIX}
+	 * @return The asset or null if it does not exist
+	 */
+	@Nullable
+	public Asset get(@NotNull String path) {
+		Asset asset = versionedAssets.get(path);
+		if (asset != null) return asset;
+
+		asset = load(path);
+		if (asset != null) return asset;
+
+		//The versioned path of an asset that was not loaded since the start
+		String basePath = getBasePath(path);
+		if (basePath == null) return null;
+		asset = load(basePath);
+		return asset != null && asset.getVersionedPath().equals(path) ? asset : null;
+	}
+
+	/**
+	 * Gets the versioned path of an asset
+	 * @return The versioned path or null if the path is not an asset
+	 */
+	@Nullable
+	public String getVersionedPath(@NotNull String path) {
+		Asset asset = load(path);
+		return asset == null ? null : asset.getVersionedPath();
+	}
+
+	@Nullable
+	private Asset load(@NotNull String path) {
+		Asset asset = assets.get(path);
+		if (asset != null) return asset;
+		if (!path.startsWith(PATH_PREFIX) || FileNameValidator.isInvalid(path) || path.indexOf('\\') != -1
+				|| FilenameUtils.getExtension(path).isEmpty()) return null;
+
+		try {
+			byte[] content = readResource(path);
+			if (content == null) return null;
+			asset = createAsset(path, content);
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to load asset {}", path, exception);
+			return null;
+		}
+
+		//Concurrent loads create equal assets, the first one is kept
+		Asset previous = assets.putIfAbsent(path, asset);
+		if (previous != null) return previous;
+		versionedAssets.put(asset.getVersionedPath(), asset);
+		return asset;
+	}
+
+	@NotNull
+	private Asset createAsset(@NotNull String path, byte[] content) throws IOException {
+		String extension = FilenameUtils.getExtension(path).toLowerCase(Locale.ROOT);
+		if (extension.equals("css")) content = rewriteLinks(path, content);
+
+		String hash = hash(content);
+		String versionedPath = FilenameUtils.removeExtension(path) + '.' + hash + '.' + extension;
+		String mediaType = MediaTypeFactory.getMediaType(path).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+		if (mediaType.startsWith("text/") || extension.equals("js")) mediaType += ";charset=UTF-8";
+
+		byte[] gzipContent = null;
+		if (COMPRESSIBLE_EXTENSIONS.contains(extension)) {
+			byte[] compressed = gzip(content);
+			if (compressed.length < content.length * MAX_RATIO) gzipContent = compressed;
+		}
+
+		//Brotli is not part of the JDK, so only variants compressed by the build are used.
+		//Style sheets are rewritten here, which makes their precompressed variants outdated
+		byte[] brotliContent = extension.equals("css") ? null : readResource(path + ".br");
+		return new Asset(path, versionedPath, mediaType, hash, content, gzipContent, brotliContent);
+	}
+
+	/**
+	 * Rewrites the relative links of a style sheet, e.g. to fonts, to their versioned paths
+	 */
+	private byte[] rewriteLinks(@NotNull String path, byte[] content) {
+		String css = new String(content, StandardCharsets.UTF_8);
+		String directory = path.substring(0, path.lastIndexOf('/') + 1);
+		Matcher matcher = CSS_URL.matcher(css);
+		StringBuilder builder = new StringBuilder(css.length());
+		while (matcher.find()) {
+			String link = matcher.group(2).trim();
+			String replacement = matcher.group();
+			if (!link.contains(":") && !link.startsWith("/") && !link.startsWith("#")) {
+				int suffixStart = indexOfAny(link, '?', '#');
+				String linkPath = suffixStart == -1 ? link : link.substring(0, suffixStart);
+				String target = FilenameUtils.normalize(directory + linkPath, true);
+
+				//Only the file name changes, so the link stays relative. Style sheets are not followed to avoid cycles
+				Asset asset = target == null || target.endsWith(".css") ? null : load(target);
+				if (asset != null) {
+					String versionedName = FilenameUtils.getName(asset.getVersionedPath());
+					String versionedLink = linkPath.substring(0, linkPath.length() - FilenameUtils.getName(linkPath).length())
+							+ versionedName + (suffixStart == -1 ? "" : link.substring(suffixStart));
+					replacement = "url(" + matcher.group(1) + versionedLink + matcher.group(1) + ")";
+				}
+			}
+			matcher.appendReplacement(builder, Matcher.quoteReplacement(replacement));
+		}
+		matcher.appendTail(builder);
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int indexOfAny(@NotNull String value, char first, char second) {
+		int firstIndex = value.indexOf(first);
+		int secondIndex = value.indexOf(second);
+		if (firstIndex == -1) return secondIndex;
+		return secondIndex == -1 ? firstIndex : Math.min(firstIndex, secondIndex);
+	}
+
+	/**
+	 * Gets the path of an asset from a versioned path by removing the hash before the extension
+	 */
+	@Nullable
+	private static String getBasePath(@NotNull String versionedPath) {
+		String withoutExtension = FilenameUtils.removeExtension(versionedPath);
+		int hashStart = withoutExtension.lastIndexOf('.');
+		if (hashStart == -1 || withoutExtension.length() - hashStart - 1 != HASH_LENGTH * 2) return null;
+		return withoutExtension.substring(0, hashStart) + '.' + FilenameUtils.getExtension(versionedPath);
+	}
+
+	@Nullable
+	private static byte[] readResource(@NotNull String path) throws IOException {
+		try (InputStream inputStream = AssetPipeline.class.getResourceAsStream(RESOURCE_ROOT + path)) {
+			return inputStream == null ? null : inputStream.readAllBytes();
+		}
+	}
+
+	@NotNull
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			return HexFormat.of().formatHex(digest, 0, HASH_LENGTH);
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IllegalStateException("Missing digest algorithm", exception);
+		}
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(content.length / 2);
+		try (GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			gzipStream.write(content);
+		}
+		return outputStream.toByteArray();
+	}
+
+	@NotNull
+	public static AssetPipeline get() {
+		return INSTANCE;
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.assets;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Rewrites the links to assets in rendered templates to their versioned paths.
+ * Thymeleaf passes every link expression like {@code @{/assets/css/upload.css}} through
+ * {@link HttpServletResponse#encodeURL(String)}, which is replaced here.
+ */
+public class AssetUrlFilter extends OncePerRequestFilter {
+
+	@Override
+	protected void doFilterInternal(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+									@NotNull FilterChain filterChain) throws ServletException, IOException {
+		String contextPath = request.getContextPath();
+		filterChain.doFilter(request, new HttpServletResponseWrapper(response) {
+
+			@Override
+			public String encodeURL(String url) {
+				if (url.startsWith(contextPath)) {
+					String versionedPath = AssetPipeline.get().getVersionedPath(url.substring(contextPath.length()));
+					if (versionedPath != null) url = contextPath + versionedPath;
+				}
+				return super.encodeURL(url);
+			}
+
+		});
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.bandwidth;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the egress bandwidth with hierarchical token buckets: every chunk of a download
+ * has to pass the bucket of its client address, the bucket of its class (protected or public files)
+ * and the global bucket. A rate of zero disables the respective level.
+ */
+public class BandwidthShaper {
+	private static final int MIN_CHUNK_SIZE = 8 * 1024;
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+	//Chunks are sized so that a stream at the lowest rate is paced about 20 times per second
+	private static final int CHUNKS_PER_SECOND = 20;
+	private final @Nullable TokenBucket globalBucket;
+	private final @Nullable TokenBucket protectedBucket;
+	private final @Nullable TokenBucket publicBucket;
+	private final long perAddressRate;
+	private final @NotNull Map<String, Client> clients;
+
+	/**
+	 * @param globalRate The rate of all downloads in bytes per second
+	 * @param perAddressRate The rate of all downloads of one address in bytes per second
+	 * @param protectedRate The rate of all downloads of protected files in bytes per second
+	 * @param publicRate The rate of all downloads of public files in bytes per second
+	 */
+	public BandwidthShaper(long globalRate, long perAddressRate, long protectedRate, long publicRate) {
+		this.globalBucket = createBucket(globalRate);
+		this.protectedBucket = createBucket(protectedRate);
+		this.publicBucket = createBucket(publicRate);
+		this.perAddressRate = perAddressRate;
+		this.clients = new ConcurrentHashMap<>();
+	}
+
+	@Nullable
+	private static TokenBucket createBucket(long rate) {
+		//Allow a burst of a quarter second
+		return rate <= 0 ? null : new TokenBucket(rate, Math.max(MAX_CHUNK_SIZE, rate / 4));
+	}
+
+	public boolean isEnabled() {
+		return globalBucket != null || protectedBucket != null || publicBucket != null || perAddressRate > 0;
+	}
+
+	/**
+	 * Wraps the output of a download
+	 * @param outputStream The output stream of the response
+	 * @param address The remote address of the client
+	 * @param protectedFile Whether the file requires a token or signature
+	 * @return The paced output stream, which has to be closed when the download ends
+	 */
+	@NotNull
+	public OutputStream wrap(@NotNull OutputStream outputStream, @NotNull String address, boolean protectedFile) {
+		Client client = clients.compute(address, (key, current) -> {
+			Client value = current == null ? new Client(key, createBucket(perAddressRate)) : current;
+			value.connections++;
+			return value;
+		});
+
+		List<TokenBucket> buckets = new ArrayList<>(3);
+		if (client.bucket != null) buckets.add(client.bucket);
+		TokenBucket classBucket = protectedFile ? protectedBucket : publicBucket;
+		if (classBucket != null) buckets.add(classBucket);
+		if (globalBucket != null) buckets.add(globalBucket);
+
+		long rate = buckets.stream().mapToLong(TokenBucket::getRate).min().orElse(Long.MAX_VALUE);
+		int chunkSize = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, rate / CHUNKS_PER_SECOND));
+		return new ShapedOutputStream(outputStream, client, buckets, chunkSize);
+	}
+
+	class Client {
+		private final @NotNull String address;
+		private final @Nullable TokenBucket bucket;
+		private volatile int connections; //Only modified inside of compute
+
+		private Client(@NotNull String address, @Nullable TokenBucket bucket) {
+			this.address = address;
+			this.bucket = bucket;
+		}
+
+		void release() {
+			clients.computeIfPresent(address, (key, current) -> --current.connections <= 0 ? null : current);
+		}
+
+		int getConnections() {
+			return Math.max(1, connections);
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.bandwidth;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Output stream which splits writes into paced chunks and waits for every
+ * chunk until all of its token buckets allow it to be sent
+ */
+public class ShapedOutputStream extends FilterOutputStream {
+	private final @NotNull BandwidthShaper.Client client;
+	private final @NotNull List<TokenBucket> buckets;
+	private final int chunkSize;
+	private boolean closed;
+
+	ShapedOutputStream(@NotNull OutputStream outputStream, @NotNull BandwidthShaper.Client client,
+					   @NotNull List<TokenBucket> buckets, int chunkSize) {
+		super(outputStream);
+		this.client = client;
+		this.buckets = buckets;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		pace(1);
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			//Clients with several connections send smaller chunks, so every address gets a fair share
+			int chunk = Math.min(length, Math.max(1024, chunkSize / client.getConnections()));
+			pace(chunk);
+			out.write(bytes, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	private void pace(int bytes) throws IOException {
+		long waitNanos = 0;
+		for (TokenBucket bucket : buckets) {
+			waitNanos = Math.max(waitNanos, bucket.reserve(bytes));
+		}
+
+		long deadline = System.nanoTime() + waitNanos;
+		while (waitNanos > 0) {
+			LockSupport.parkNanos(waitNanos);
+			if (Thread.interrupted()) throw new InterruptedIOException("Interrupted while pacing download");
+			waitNanos = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * Ends the download of the client, but leaves the response stream open
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		client.release();
+		out.flush();
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.bandwidth;
+
+/**
+ * Token bucket which can go into debt. Instead of waiting for tokens, a reservation takes
+ * them immediately and returns how long the caller has to wait until they would have been
+ * available. This keeps every reservation O(1) and lets callers wait without holding a lock.
+ */
+public class TokenBucket {
+	private final long bytesPerSecond;
+	private final double bytesPerNano;
+	private final double burst;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param bytesPerSecond The sustained rate
+	 * @param burst The maximum number of bytes that can be sent at once after being idle
+	 */
+	public TokenBucket(long bytesPerSecond, long burst) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.bytesPerNano = bytesPerSecond / 1e9;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public long getRate() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Takes bytes from the bucket
+	 * @param bytes The number of bytes to send
+	 * @return The nanoseconds to wait before sending them
+	 */
+	public synchronized long reserve(long bytes) {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerNano);
+		lastRefill = now;
+
+		tokens -= bytes;
+		return tokens >= 0 ? 0 : (long) (-tokens / bytesPerNano);
+	}
+
+}
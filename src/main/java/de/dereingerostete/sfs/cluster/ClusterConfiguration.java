@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Selects the {@link SharedStateStore} named in {@code sfs.cluster.store}. "none" disables clustering,
+ * "embedded" uses the in-memory store and every other name is looked up with the {@link ServiceLoader}.
+ */
+@Configuration
+public class ClusterConfiguration implements DisposableBean {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull String DISABLED = "none";
+	private final @Nullable SharedStateStore store;
+
+	public ClusterConfiguration(@Value("${sfs.cluster.store:none}") String storeName,
+								@Value("${sfs.cluster.node-id:}") String nodeId,
+								@Value("${sfs.cluster.near-cache-ttl:5s}") Duration nearCacheTtl,
+								Environment environment) throws IOException {
+		if (storeName.equals(DISABLED)) {
+			store = null;
+			return;
+		}
+
+		Map<String, String> properties = Binder.get(environment)
+				.bind("sfs.cluster.properties", Bindable.mapOf(String.class, String.class))
+				.orElse(Map.of());
+		store = createStore(storeName, properties);
+
+		String node = nodeId.isBlank() ? getHostName() : nodeId;
+		SharedState.configure(store, node, nearCacheTtl);
+		LOGGER.info("Using the {} shared state store as node {}", storeName, node);
+	}
+
+	@NotNull
+	private static SharedStateStore createStore(@NotNull String name, @NotNull Map<String, String> properties)
+			throws IOException {
+		if (name.equals(EmbeddedStateStore.NAME)) return new EmbeddedStateStore();
+		for (SharedStateStoreProvider provider : ServiceLoader.load(SharedStateStoreProvider.class)) {
+			if (provider.getName().equals(name)) return provider.create(properties);
+		}
+		throw new IllegalStateException("No shared state store named " + name + " found");
+	}
+
+	@NotNull
+	private static String getHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException exception) {
+			throw new IllegalStateException("Failed to resolve the host name, set sfs.cluster.node-id", exception);
+		}
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		if (store == null) return;
+		//Stops the counter syncs before the store they flush into is closed
+		SharedState.reset();
+		store.close();
+	}
+
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import lombok.Data;
+
+@Data
+public class Counter {
+	private final long value;
+	private final long expiresAt; //Epoch milliseconds
+
+	public boolean isExpired(long now) {
+		return now >= expiresAt;
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by all nodes without a round trip per increment. Increments are collected
+ * locally and sent to the {@link SharedStateStore} in one batch per sync interval. Reads combine
+ * the last global value with the local increments that are not sent yet, so a limit can be
+ * exceeded cluster-wide by at most the increments of the other nodes within one interval.
+ */
+public class CounterSync {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private final @NotNull SharedStateStore store;
+	private final @NotNull String namespace;
+	private final @NotNull Duration window;
+	private final @NotNull Map<String, LongAdder> pending;
+	private final @NotNull Map<String, Counter> global;
+	private final @NotNull ScheduledExecutorService service;
+	private final long intervalMillis;
+
+	public CounterSync(@NotNull SharedStateStore store, @NotNull String namespace,
+					   @NotNull Duration window, @NotNull Duration interval) {
+		this.store = store;
+		this.namespace = namespace;
+		this.window = window;
+		this.pending = new ConcurrentHashMap<>();
+		this.global = new ConcurrentHashMap<>();
+
+		this.service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "CounterSync-" + namespace);
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.intervalMillis = interval.toMillis();
+		service.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void increment(@NotNull String key) {
+		pending.computeIfAbsent(key, ignored -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Gets the estimated cluster-wide value of a counter
+	 */
+	public long get(@NotNull String key) {
+		LongAdder local = pending.get(key);
+		long value = local == null ? 0 : local.sum();
+
+		Counter counter = global.get(key);
+		if (counter != null && !counter.isExpired(System.currentTimeMillis())) value += counter.getValue();
+		return value;
+	}
+
+	/**
+	 * Gets the milliseconds until a counter is reset
+	 * @return The time left or the full window if the counter was not synced yet
+	 */
+	public long getTimeLeft(@NotNull String key) {
+		Counter counter = global.get(key);
+		long now = System.currentTimeMillis();
+		if (counter == null || counter.isExpired(now)) return window.toMillis();
+		return counter.getExpiresAt() - now;
+	}
+
+	/**
+	 * Stops the periodic sync and sends the remaining increments, so the store can be closed afterwards
+	 */
+	public void close() {
+		service.shutdown();
+		try {
+			if (!service.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS)) service.shutdownNow();
+		} catch (InterruptedException exception) {
+			service.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	private void flush() {
+		long now = System.currentTimeMillis();
+		global.values().removeIf(counter -> counter.isExpired(now));
+
+		Map<String, Long> deltas = new HashMap<>();
+		pending.forEach((key, adder) -> {
+			long delta = adder.sumThenReset();
+			if (delta > 0) deltas.put(key, delta);
+		});
+		if (deltas.isEmpty()) return;
+
+		try {
+			global.putAll(store.addAndGet(namespace, deltas, window));
+			//Drop keys idle for a whole interval, at worst a racing increment is lost
+			pending.entrySet().removeIf(entry -> !deltas.containsKey(entry.getKey()) && entry.getValue().sum() == 0);
+		} catch (IOException | RuntimeException exception) {
+			LOGGER.warn("Failed to sync {} counters with the shared state store", namespace, exception);
+			//Keep the increments for the next attempt
+			deltas.forEach((key, delta) -> pending.computeIfAbsent(key, ignored -> new LongAdder()).add(delta));
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory store for a single node. It behaves like an external store,
+ * so it can stand in for one in tests or when only one node is deployed.
+ */
+public class EmbeddedStateStore implements SharedStateStore {
+	public static final @NotNull String NAME = "embedded";
+	private final @NotNull Map<String, Entry> values;
+	private final @NotNull Map<String, Counter> counters;
+	private final @NotNull ScheduledExecutorService service;
+
+	public EmbeddedStateStore() {
+		this.values = new ConcurrentHashMap<>();
+		this.counters = new ConcurrentHashMap<>();
+		this.service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "EmbeddedStateStore");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleWithFixedDelay(this::purge, 1, 1, TimeUnit.MINUTES);
+	}
+
+	@Nullable
+	@Override
+	public String get(@NotNull String namespace, @NotNull String key) {
+		Entry entry = values.get(getKey(namespace, key));
+		return entry == null || entry.expiresAt <= System.currentTimeMillis() ? null : entry.value;
+	}
+
+	@Override
+	public void put(@NotNull String namespace, @NotNull String key, @NotNull String value, @NotNull Duration ttl) {
+		values.put(getKey(namespace, key), new Entry(value, System.currentTimeMillis() + ttl.toMillis()));
+	}
+
+	@Override
+	public void remove(@NotNull String namespace, @NotNull String key) {
+		values.remove(getKey(namespace, key));
+	}
+
+	@NotNull
+	@Override
+	public Map<String, Counter> addAndGet(@NotNull String namespace, @NotNull Map<String, Long> deltas,
+										  @NotNull Duration window) {
+		long now = System.currentTimeMillis();
+		Map<String, Counter> result = new HashMap<>();
+		deltas.forEach((key, delta) -> {
+			Counter counter = counters.compute(getKey(namespace, key), (ignored, current) -> {
+				if (current == null || current.isExpired(now)) return new Counter(delta, now + window.toMillis());
+				else return new Counter(current.getValue() + delta, current.getExpiresAt());
+			});
+			result.put(key, counter);
+		});
+		return result;
+	}
+
+	private void purge() {
+		long now = System.currentTimeMillis();
+		values.values().removeIf(entry -> entry.expiresAt <= now);
+		counters.values().removeIf(counter -> counter.isExpired(now));
+	}
+
+	@NotNull
+	private static String getKey(@NotNull String namespace, @NotNull String key) {
+		return namespace + '\0' + key;
+	}
+
+	@Override
+	public void close() {
+		service.shutdownNow();
+	}
+
+	private static class Entry {
+		private final @NotNull String value;
+		private final long expiresAt;
+
+		private Entry(@NotNull String value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Short-lived local copy of one namespace of a {@link SharedStateStore}, so hot keys do not
+ * cost a round trip per request. Changes made by other nodes become visible after the
+ * near-cache TTL at the latest. Only existing values are cached, so new values are seen immediately.
+ */
+public class NearCache {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private final @NotNull SharedStateStore store;
+	private final @NotNull String namespace;
+	private final @NotNull Cache<String, String> cache;
+
+	public NearCache(@NotNull SharedStateStore store, @NotNull String namespace, @NotNull Duration ttl) {
+		this.store = store;
+		this.namespace = namespace;
+		this.cache = Caffeine.newBuilder()
+				.expireAfterWrite(ttl)
+				.maximumSize(100_000)
+				.build();
+	}
+
+	/**
+	 * Gets a value from the near-cache or the store
+	 * @return The value or null if it does not exist or the store could not be reached
+	 */
+	@Nullable
+	public String get(@NotNull String key) {
+		String value = cache.getIfPresent(key);
+		if (value != null) return value;
+
+		try {
+			value = store.get(namespace, key);
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to read {} from the shared state store", namespace, exception);
+			return null;
+		}
+
+		if (value != null) cache.put(key, value);
+		return value;
+	}
+
+	public void put(@NotNull String key, @NotNull String value, @NotNull Duration ttl) {
+		cache.put(key, value);
+		try {
+			store.put(namespace, key, value, ttl);
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to write {} to the shared state store", namespace, exception);
+		}
+	}
+
+	public void remove(@NotNull String key) {
+		cache.invalidate(key);
+		try {
+			store.remove(namespace, key);
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to remove {} from the shared state store", namespace, exception);
+		}
+	}
+
+}
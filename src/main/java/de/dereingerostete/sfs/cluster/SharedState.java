@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entry point to the state shared between the nodes of a cluster. It is configured by
+ * {@link ClusterConfiguration} and is absent if clustering is disabled, in which case
+ * every feature keeps its state in memory as on a single node.
+ */
+public class SharedState {
+	public static final @NotNull String NODE_HEADER = "Upload-Node";
+	public static final @NotNull String NODE_COOKIE_NAME = "sfsNode";
+	private static final @NotNull Duration COUNTER_SYNC_INTERVAL = Duration.ofSeconds(1);
+	private static volatile @Nullable SharedState instance;
+
+	private final @Getter @NotNull SharedStateStore store;
+	private final @Getter @NotNull String nodeId;
+	private final @NotNull Duration nearCacheTtl;
+	private final @NotNull Map<String, NearCache> nearCaches;
+	private final @NotNull Map<String, CounterSync> counters;
+
+	SharedState(@NotNull SharedStateStore store, @NotNull String nodeId, @NotNull Duration nearCacheTtl) {
+		this.store = store;
+		this.nodeId = nodeId;
+		this.nearCacheTtl = nearCacheTtl;
+		this.nearCaches = new ConcurrentHashMap<>();
+		this.counters = new ConcurrentHashMap<>();
+	}
+
+	@NotNull
+	public NearCache getNearCache(@NotNull String namespace) {
+		return nearCaches.computeIfAbsent(namespace, ignored -> new NearCache(store, namespace, nearCacheTtl));
+	}
+
+	@NotNull
+	public CounterSync getCounters(@NotNull String namespace, @NotNull Duration window) {
+		return counters.computeIfAbsent(namespace, ignored ->
+				new CounterSync(store, namespace, window, COUNTER_SYNC_INTERVAL));
+	}
+
+	/**
+	 * Tells the client and a cookie-aware load balancer which node a request should go to
+	 * @param response The response to add the hint to
+	 * @param node The id of the node
+	 */
+	public void addStickinessHint(@NotNull HttpServletResponse response, @NotNull String node) {
+		response.setHeader(NODE_HEADER, node);
+		//Cookie.setAttribute requires Servlet 6.0, which the Jetty build lacks
+		ResponseCookie cookie = ResponseCookie.from(NODE_COOKIE_NAME, node)
+				.path("/")
+				.httpOnly(true)
+				.sameSite("Strict")
+				.build();
+		response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+	}
+
+	/**
+	 * Stops syncing the counters after sending their remaining increments. The store is not closed.
+	 */
+	void close() {
+		counters.values().forEach(CounterSync::close);
+	}
+
+	static void configure(@NotNull SharedStateStore store, @NotNull String nodeId, @NotNull Duration nearCacheTtl) {
+		configure(new SharedState(store, nodeId, nearCacheTtl));
+	}
+
+	static void configure(@NotNull SharedState state) {
+		instance = state;
+	}
+
+	static void reset() {
+		SharedState state = instance;
+		instance = null;
+		if (state != null) state.close();
+	}
+
+	/**
+	 * Gets the shared state of the cluster
+	 * @return The shared state or null if clustering is disabled
+	 */
+	@Nullable
+	public static SharedState get() {
+		return instance;
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * State shared by all nodes of a cluster. Implementations are provided through a
+ * {@link SharedStateStoreProvider} and have to be safe for concurrent use.
+ * Values and counters live in namespaces, so different features cannot collide.
+ */
+public interface SharedStateStore extends Closeable {
+
+	/**
+	 * Gets a value
+	 * @param namespace The namespace of the value
+	 * @param key The key of the value
+	 * @return The value or null if it does not exist or has expired
+	 * @throws IOException If the store could not be reached
+	 */
+	@Nullable
+	String get(@NotNull String namespace, @NotNull String key) throws IOException;
+
+	/**
+	 * Sets a value which expires after a time to live
+	 * @throws IOException If the store could not be reached
+	 */
+	void put(@NotNull String namespace, @NotNull String key, @NotNull String value, @NotNull Duration ttl) throws IOException;
+
+	/**
+	 * Removes a value
+	 * @throws IOException If the store could not be reached
+	 */
+	void remove(@NotNull String namespace, @NotNull String key) throws IOException;
+
+	/**
+	 * Adds to multiple counters in one round trip. A missing counter is created with
+	 * the given window and is removed when the window has passed.
+	 * @param namespace The namespace of the counters
+	 * @param deltas The amounts to add per key
+	 * @param window The lifetime of newly created counters
+	 * @return The values of all given counters after adding
+	 * @throws IOException If the store could not be reached
+	 */
+	@NotNull
+	Map<String, Counter> addAndGet(@NotNull String namespace, @NotNull Map<String, Long> deltas,
+								   @NotNull Duration window) throws IOException;
+
+}
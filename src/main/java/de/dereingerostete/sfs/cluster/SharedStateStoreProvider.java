@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Creates the {@link SharedStateStore} of an external system. Providers are found with the
+ * {@link java.util.ServiceLoader}, so a store can be added by putting its jar on the class path.
+ */
+public interface SharedStateStoreProvider {
+
+	/**
+	 * Gets the name which selects the provider in {@code sfs.cluster.store}
+	 */
+	@NotNull
+	String getName();
+
+	/**
+	 * Connects to the store
+	 * @param properties The properties configured under {@code sfs.cluster.properties}
+	 * @throws IOException If the store could not be reached
+	 */
+	@NotNull
+	SharedStateStore create(@NotNull Map<String, String> properties) throws IOException;
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.compression;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.controller.DownloadController;
+import de.dereingerostete.sfs.preview.ThumbnailCache;
+import de.dereingerostete.sfs.storage.TieredStorage;
+import de.dereingerostete.sfs.util.ZipArchiveWriter;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Converts files of the download directory into the block compressed format of {@link StoredFile}
+ * in the background. Files that are already compressed, images used for previews and files that
+ * do not shrink by at least a tenth are left raw.
+ */
+public class BlockCompressor {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull String TEMPORARY_PURPOSE = "compress";
+	private static final @NotNull BlockCompressor INSTANCE = new BlockCompressor();
+	private static final double MAX_RATIO = 0.9;
+	private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+
+	private final @NotNull Set<String> skipped;
+	private volatile boolean enabled;
+	private int blockSize;
+	private int level;
+	private ExecutorService executor;
+
+	private BlockCompressor() {
+		this.skipped = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Enables the compression of new uploads and compresses the existing files in the background
+	 */
+	synchronized void configure(int blockSize, int level) {
+		this.blockSize = blockSize;
+		this.level = level;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "BlockCompressor");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		this.enabled = true;
+
+		File[] files = DownloadController.DOWNLOAD_DIRECTORY.listFiles(File::isFile);
+		if (files == null) return;
+		for (File file : files) {
+			//Delete the copies of compressions that were interrupted by a shutdown
+			if (file.getName().endsWith(TEMPORARY_PURPOSE) && TieredStorage.get().isTemporary(file.getName())) {
+				if (!file.delete()) LOGGER.warn("Failed to delete {}", file.getName());
+			} else schedule(file);
+		}
+	}
+
+	/**
+	 * Schedules the compression of a file if compression is enabled and the file is worth compressing
+	 */
+	public void schedule(@NotNull File file) {
+		if (!enabled || ZipArchiveWriter.isCompressed(file) || ThumbnailCache.get().isSupported(file)
+				|| TieredStorage.get().isTemporary(file.getName()) || skipped.contains(file.getName())) return;
+
+		executor.execute(() -> {
+			try {
+				compress(file);
+			} catch (IOException | RuntimeException exception) {
+				LOGGER.warn("Failed to compress {}", file.getName(), exception);
+			}
+		});
+	}
+
+	private void compress(@NotNull File file) throws IOException {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		if (lastModified == 0 || length < blockSize) return;
+		CompressedFiles compressedFiles = CompressedFiles.get();
+		if (compressedFiles.isCompressed(file.getName(), length, lastModified)) return;
+
+		//The copy is written next to the file, so it can replace the file with an atomic rename
+		File tempFile = TieredStorage.getTemporaryFile(file, TEMPORARY_PURPOSE);
+		try {
+			long compressedLength = write(file, tempFile, length, blockSize, level);
+			if (compressedLength > length * MAX_RATIO) {
+				skipped.add(file.getName());
+				return;
+			}
+
+			//The file must not have been replaced or moved to another tier while it was compressed
+			if (!file.exists() || file.length() != length || file.lastModified() != lastModified) return;
+			if (!tempFile.setLastModified(lastModified)) throw new IOException("Failed to set the modification time");
+			compressedFiles.add(file.getName(), compressedLength, lastModified);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			LOGGER.info("Compressed {} from {} to {} bytes", file.getName(), length, compressedLength);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/**
+	 * Writes the compressed file
+	 * @return The size of the compressed file
+	 */
+	static long write(@NotNull File source, @NotNull File target, long length, int blockSize, int level)
+			throws IOException {
+		int blockCount = (int) ((length + blockSize - 1) / blockSize);
+		long[] index = new long[blockCount + 1];
+		Deflater deflater = new Deflater(level, true);
+		CRC32 crc = new CRC32();
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(source), blockSize);
+			 RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+			output.setLength(0);
+			output.seek(StoredFile.HEADER_SIZE);
+
+			byte[] block = new byte[blockSize];
+			byte[] compressed = new byte[blockSize + blockSize / 8 + 64];
+			long position = StoredFile.HEADER_SIZE;
+			for (int i = 0; i < blockCount; i++) {
+				int size = inputStream.readNBytes(block, 0, blockSize);
+				if (size != Math.min(blockSize, length - (long) i * blockSize))
+					throw new IOException("File changed while it was compressed");
+
+				index[i] = position;
+				output.write(GZIP_HEADER);
+				deflater.reset();
+				deflater.setInput(block, 0, size);
+				deflater.finish();
+				while (!deflater.finished()) {
+					int count = deflater.deflate(compressed);
+					output.write(compressed, 0, count);
+				}
+
+				crc.reset();
+				crc.update(block, 0, size);
+				output.write(littleEndian((int) crc.getValue()));
+				output.write(littleEndian(size));
+				position = output.getFilePointer();
+			}
+			index[blockCount] = position;
+
+			ByteBuffer indexBuffer = ByteBuffer.allocate(index.length * 8);
+			indexBuffer.asLongBuffer().put(index);
+			output.write(indexBuffer.array());
+
+			ByteBuffer header = ByteBuffer.allocate(StoredFile.HEADER_SIZE);
+			header.put(StoredFile.MAGIC).putInt(blockSize).putInt(blockCount).putLong(length).putLong(position);
+			output.seek(0);
+			output.write(header.array());
+			return output.length();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] littleEndian(int value) {
+		return new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)};
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@NotNull
+	public static BlockCompressor get() {
+		return INSTANCE;
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.compression;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The files that were converted by the {@link BlockCompressor}, saved to a file.
+ * <p>
+ * A file is only read as block compressed if it still has the size and modification time it had
+ * when it was converted, so the content of a file never decides its format and an upload that
+ * replaces a compressed file is always read raw. Entries of deleted files are kept, they never match
+ * another file.
+ */
+public class CompressedFiles {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull File INDEX_FILE = new File("compressed-files.json");
+	private static final @NotNull CompressedFiles INSTANCE = new CompressedFiles();
+
+	private final @NotNull Map<String, Version> files;
+
+	private CompressedFiles() {
+		this.files = new ConcurrentHashMap<>();
+		load();
+	}
+
+	/**
+	 * Checks if a file is block compressed
+	 * @param fileName The name of the file
+	 * @param size The size of the file on disk
+	 * @param lastModified The modification time of the file
+	 */
+	public boolean isCompressed(@NotNull String fileName, long size, long lastModified) {
+		Version version = files.get(fileName);
+		return version != null && version.size == size && version.lastModified == lastModified;
+	}
+
+	/**
+	 * Records a converted file before it is moved into place
+	 * @param fileName The name of the file
+	 * @param size The size of the converted file
+	 * @param lastModified The modification time of the converted file
+	 * @throws IOException If the index could not be saved, the file must not be moved into place then
+	 */
+	synchronized void add(@NotNull String fileName, long size, long lastModified) throws IOException {
+		Version previous = files.put(fileName, new Version(size, lastModified));
+		try {
+			save();
+		} catch (IOException exception) {
+			if (previous == null) files.remove(fileName);
+			else files.put(fileName, previous);
+			throw exception;
+		}
+	}
+
+	private void load() {
+		if (!INDEX_FILE.exists()) return;
+		try {
+			JSONObject rootObject = new JSONObject(FileUtils.readFileToString(INDEX_FILE, StandardCharsets.UTF_8));
+			for (String fileName : rootObject.keySet()) {
+				JSONObject fileObject = rootObject.getJSONObject(fileName);
+				files.put(fileName, new Version(fileObject.getLong("size"), fileObject.getLong("lastModified")));
+			}
+		} catch (IOException | JSONException exception) {
+			LOGGER.warn("Failed to load compressed files", exception);
+		}
+	}
+
+	private void save() throws IOException {
+		JSONObject rootObject = new JSONObject();
+		files.forEach((fileName, version) -> {
+			JSONObject fileObject = new JSONObject();
+			fileObject.put("size", version.size);
+			fileObject.put("lastModified", version.lastModified);
+			rootObject.put(fileName, fileObject);
+		});
+
+		File tempFile = new File(INDEX_FILE.getPath() + ".tmp");
+		FileUtils.write(tempFile, rootObject.toString(), StandardCharsets.UTF_8);
+		Files.move(tempFile.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@NotNull
+	public static CompressedFiles get() {
+		return INSTANCE;
+	}
+
+	private static class Version {
+		private final long size;
+		private final long lastModified;
+
+		private Version(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+}
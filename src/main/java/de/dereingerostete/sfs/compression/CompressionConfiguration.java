@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.compression;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.util.zip.Deflater;
+
+@Configuration
+public class CompressionConfiguration {
+
+	public CompressionConfiguration(@Value("${sfs.compression.enabled:false}") boolean enabled,
+									@Value("${sfs.compression.block-size:256KB}") DataSize blockSize,
+									@Value("${sfs.compression.level:6}") int level) {
+		if (!enabled) return;
+		if (blockSize.toBytes() < 4096 || blockSize.toBytes() > 16 * 1024 * 1024)
+			throw new IllegalStateException("sfs.compression.block-size must be between 4KB and 16MB");
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalStateException("sfs.compression.level must be between 1 and 9");
+		BlockCompressor.get().configure((int) blockSize.toBytes(), level);
+	}
+
+}
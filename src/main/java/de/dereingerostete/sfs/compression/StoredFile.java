@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.compression;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A file in the download directory, which is either stored raw or block compressed.
+ * <p>
+ * A block compressed file starts with a header, followed by the blocks and an index of their
+ * offsets. Every block is an independent gzip member, so the blocks together are a valid gzip
+ * stream that can be sent to clients as it is, and any range can be read by inflating only
+ * the blocks it touches.
+ * <pre>
+ * header: magic "SFSBLK01", int block size, int block count, long length, long index offset
+ * blocks: gzip members of block size bytes each, only the last one may be shorter
+ * index:  long offset of every block, followed by the end of the last block
+ * </pre>
+ * Whether a file is compressed is taken from {@link CompressedFiles} and not from its content, so a raw
+ * file that happens to start with the magic is never misread. The header is read from the opened file,
+ * so a file replaced concurrently is read consistently.
+ */
+public class StoredFile implements Closeable {
+	static final byte[] MAGIC = "SFSBLK01".getBytes(StandardCharsets.US_ASCII);
+	static final int HEADER_SIZE = 32;
+	static final int GZIP_HEADER_SIZE = 10;
+	private static final @NotNull Cache<String, long[]> INDEX_CACHE = Caffeine.newBuilder()
+			.maximumSize(1024)
+			.build();
+	private final @NotNull RandomAccessFile file;
+	private final @NotNull FileChannel channel;
+	private final boolean compressed;
+	private final long length;
+	private final int blockSize;
+	private final @Nullable long[] index;
+
+	private StoredFile(@NotNull RandomAccessFile file, boolean compressed, long length, int blockSize,
+					   @Nullable long[] index) {
+		this.file = file;
+		this.channel = file.getChannel();
+		this.compressed = compressed;
+		this.length = length;
+		this.blockSize = blockSize;
+		this.index = index;
+	}
+
+	/**
+	 * Opens a file and reads its header
+	 * @throws IOException If the file could not be read or its header is corrupt
+	 */
+	@NotNull
+	public static StoredFile open(@NotNull File source) throws IOException {
+		//The compressor keeps the modification time, so it is the same before and after a file is converted
+		long lastModified = source.lastModified();
+		RandomAccessFile file = new RandomAccessFile(source, "r");
+		try {
+			long size = file.getChannel().size();
+			boolean compressed = CompressedFiles.get().isCompressed(source.getName(), size, lastModified);
+			return open(source, file, compressed);
+		} catch (IOException | RuntimeException exception) {
+			file.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Opens a file whose format is already known
+	 * @param compressed If the file was written by the {@link BlockCompressor}
+	 * @throws IOException If the file could not be read or its header is corrupt
+	 */
+	@NotNull
+	static StoredFile open(@NotNull File source, boolean compressed) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(source, "r");
+		try {
+			return open(source, file, compressed);
+		} catch (IOException | RuntimeException exception) {
+			file.close();
+			throw exception;
+		}
+	}
+
+	@NotNull
+	private static StoredFile open(@NotNull File source, @NotNull RandomAccessFile file, boolean compressed)
+			throws IOException {
+		FileChannel channel = file.getChannel();
+		long size = channel.size();
+		if (!compressed || size < HEADER_SIZE) return new StoredFile(file, false, size, 0, null);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		readFully(channel, header, 0);
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC)) return new StoredFile(file, false, size, 0, null);
+
+		int blockSize = header.getInt();
+		int blockCount = header.getInt();
+		long length = header.getLong();
+		long indexOffset = header.getLong();
+		if (blockSize <= 0 || blockCount < 0 || indexOffset + (blockCount + 1L) * 8 != size)
+			throw new IOException("Corrupt block compressed file " + source.getName());
+
+		//The index is cached for hot files, keyed by everything that changes when the file is replaced
+		String key = source.getPath() + ':' + source.lastModified() + ':' + size;
+		long[] index = INDEX_CACHE.getIfPresent(key);
+		if (index == null) {
+			ByteBuffer buffer = ByteBuffer.allocate((blockCount + 1) * 8);
+			readFully(channel, buffer, indexOffset);
+			index = new long[blockCount + 1];
+			buffer.asLongBuffer().get(index);
+			INDEX_CACHE.put(key, index);
+		}
+		return new StoredFile(file, true, length, blockSize, index);
+	}
+
+	/**
+	 * Gets the length of the original content of a file without keeping it open
+	 * @return The original length or the length on disk if the header could not be read
+	 */
+	public static long getLength(@NotNull File source) {
+		try (StoredFile storedFile = open(source)) {
+			return storedFile.getLength();
+		} catch (IOException exception) {
+			return source.length();
+		}
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Gets the length of the original content
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Gets the length of the gzip stream of a compressed file
+	 */
+	public long getEncodedLength() {
+		if (!compressed) throw new IllegalStateException("File is not compressed");
+		long[] offsets = index();
+		return offsets[offsets.length - 1] - offsets[0];
+	}
+
+	/**
+	 * Opens a stream over the blocks of a compressed file as one gzip stream.
+	 * Closing the stream closes this file.
+	 */
+	@NotNull
+	public InputStream openEncodedStream() {
+		long[] offsets = index();
+		return new ChannelInputStream(offsets[0], getEncodedLength());
+	}
+
+	/**
+	 * Opens a stream over a range of the original content. Closing the stream closes this file.
+	 * @param offset The first byte of the range
+	 * @param count The number of bytes of the range
+	 */
+	@NotNull
+	public InputStream openStream(long offset, long count) {
+		if (offset < 0 || count < 0 || offset + count > length)
+			throw new IllegalArgumentException("Range " + offset + "+" + count + " exceeds " + length);
+		return compressed ? new BlockInputStream(offset, count) : new ChannelInputStream(offset, count);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	@NotNull
+	private long[] index() {
+		if (index == null) throw new IllegalStateException("File is not compressed");
+		return index;
+	}
+
+	private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read == -1) throw new EOFException();
+		}
+		buffer.flip();
+	}
+
+	private class ChannelInputStream extends InputStream {
+		private long position;
+		private final long end;
+
+		private ChannelInputStream(long position, long count) {
+			this.position = position;
+			this.end = position + count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (position >= end) return -1;
+			int count = (int) Math.min(length, end - position);
+			int read = channel.read(ByteBuffer.wrap(buffer, offset, count), position);
+			if (read == -1) throw new EOFException("File is shorter than expected");
+			position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			StoredFile.this.close();
+		}
+
+	}
+
+	/**
+	 * Inflates the blocks of a range one after another
+	 */
+	private class BlockInputStream extends InputStream {
+		private final @NotNull Inflater inflater;
+		private final byte[] block;
+		private byte[] compressedBlock;
+		private long position;
+		private final long end;
+		private int blockEnd;
+		private long loadedBlock;
+
+		private BlockInputStream(long position, long count) {
+			this.inflater = new Inflater(true);
+			this.block = new byte[blockSize];
+			this.compressedBlock = new byte[0];
+			this.position = position;
+			this.end = position + count;
+			this.loadedBlock = -1;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (position >= end) return -1;
+			long blockIndex = position / blockSize;
+			if (blockIndex != loadedBlock) load((int) blockIndex);
+
+			int start = (int) (position - blockIndex * blockSize);
+			int count = (int) Math.min(Math.min(length, blockEnd - start), end - position);
+			System.arraycopy(block, start, buffer, offset, count);
+			position += count;
+			return count;
+		}
+
+		private void load(int blockIndex) throws IOException {
+			long[] offsets = index();
+			int size = (int) (offsets[blockIndex + 1] - offsets[blockIndex]);
+			if (compressedBlock.length < size) compressedBlock = new byte[size];
+			ByteBuffer buffer = ByteBuffer.wrap(compressedBlock, 0, size);
+			readFully(channel, buffer, offsets[blockIndex]);
+
+			//Skips the gzip header, the trailer is not needed as the index knows the block sizes
+			inflater.reset();
+			inflater.setInput(compressedBlock, GZIP_HEADER_SIZE, size - GZIP_HEADER_SIZE);
+			int inflated = 0;
+			try {
+				while (inflated < blockSize && !inflater.finished()) {
+					int count = inflater.inflate(block, inflated, blockSize - inflated);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						throw new IOException("Truncated block " + blockIndex);
+					inflated += count;
+				}
+			} catch (DataFormatException exception) {
+				throw new IOException("Corrupt block " + blockIndex, exception);
+			}
+
+			long expected = Math.min(blockSize, length - (long) blockIndex * blockSize);
+			if (inflated != expected) throw new IOException("Block " + blockIndex + " has the wrong size");
+			blockEnd = inflated;
+			loadedBlock = blockIndex;
+		}
+
+		@Override
+		public void close() throws IOException {
+			inflater.end();
+			StoredFile.this.close();
+		}
+
+	}
+
+}
@@ -10,14 +10,27 @@
 package de.dereingerostete.sfs.controller;
 
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.api.v1.ExpireRequest;
+import de.dereingerostete.sfs.api.v1.FileRequest;
 import de.dereingerostete.sfs.api.v1.ProtectRequest;
+import de.dereingerostete.sfs.api.v1.SignRequest;
 import de.dereingerostete.sfs.api.v1.UnprotectRequest;
+import de.dereingerostete.sfs.compression.StoredFile;
+import de.dereingerostete.sfs.error.ErrorResponses;
 import de.dereingerostete.sfs.error.RestError;
+import de.dereingerostete.sfs.expiry.FileExpiry;
+import de.dereingerostete.sfs.stats.FileCounters;
+import de.dereingerostete.sfs.stats.FileStatistics;
+import de.dereingerostete.sfs.storage.TieredStorage;
 import de.dereingerostete.sfs.util.BasicAuthUtils;
 import de.dereingerostete.sfs.util.FileDetailsUtils;
+import de.dereingerostete.sfs.util.FileNameValidator;
 import de.dereingerostete.sfs.util.RefreshingConfig;
+import de.dereingerostete.sfs.util.UrlSigner;
 import jakarta.servlet.http.HttpServletRequest;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.springframework.http.MediaType;
@@ -25,17 +38,27 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.Set;
+import java.time.Duration;
+import java.util.*;
 
 @RestController
 public class APIController {
 	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
 	public static final @NotNull String PATH_PREFIX = "/api/v1/";
+	private static final int MAX_BATCH_SIZE = 10_000;
+	private static final @NotNull Set<String> SIGNING_SCOPES = Set.of(DownloadController.SCOPE_DOWNLOAD,
+			DownloadController.SCOPE_PREVIEW, UrlSigner.SCOPE_ALL);
+	private static final long DEFAULT_SIGNED_LIFETIME = Duration.ofDays(1).toSeconds();
+	private static final long MAX_SIGNED_LIFETIME = Duration.ofDays(30).toSeconds();
+	private static final @NotNull Map<String, Integer> STATS_WINDOWS = Map.of("5m", 5, "15m", 15, "1h", 60,
+			"24h", 24 * 60, "all", -1);
+	private static final int MAX_STATS_LIMIT = 100;
 
 	@RequestMapping(value = PATH_PREFIX + "protect", method = RequestMethod.POST)
 	public ResponseEntity<Object> protect(@RequestBody ProtectRequest protectRequest,
@@ -43,18 +66,9 @@ public class APIController {
 		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request, protectRequest);
 		if (authResponse != null) return authResponse;
 
-		String fileName = protectRequest.getFileName();
-		RefreshingConfig passwordConfig = StaticFileServerApplication.getTokenConfig();
-
-		Set<String> tokens = passwordConfig.getTokens(fileName);
-		if (tokens == null || protectRequest.isReplace()) passwordConfig.put(fileName, protectRequest.getTokens());
-		else {
-			tokens.addAll(protectRequest.getTokens());
-			passwordConfig.put(fileName, tokens);
-		}
-
+		if (protectRequest.getTokens() == null) return createMissingTokensResponse();
 		try {
-			passwordConfig.save();
+			StaticFileServerApplication.getTokenConfig().modify(rootObject -> applyProtect(rootObject, protectRequest));
 			return ResponseEntity.ok()
 					.contentType(MediaType.APPLICATION_JSON)
 					.build();
@@ -70,19 +84,8 @@ public class APIController {
 		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request, unprotectRequest);
 		if (authResponse != null) return authResponse;
 
-		String fileName = unprotectRequest.getFileName();
-		RefreshingConfig passwordConfig = StaticFileServerApplication.getTokenConfig();
-
-		List<String> requestTokens = unprotectRequest.getTokens();
-		Set<String> tokens = passwordConfig.getTokens(fileName);
-		if (requestTokens == null) passwordConfig.remove(fileName);
-		else if (tokens != null) {
-			requestTokens.forEach(tokens::remove);
-			passwordConfig.put(fileName, tokens);
-		}
-
 		try {
-			passwordConfig.save();
+			StaticFileServerApplication.getTokenConfig().modify(rootObject -> applyUnprotect(rootObject, unprotectRequest));
 			return ResponseEntity.ok()
 					.contentType(MediaType.APPLICATION_JSON)
 					.build();
@@ -92,12 +95,281 @@ public class APIController {
 		}
 	}
 
+	/**
+	 * Sets the time to live of a file in seconds from now, or removes it if no ttl is given
+	 */
+	@RequestMapping(value = PATH_PREFIX + "expire", method = RequestMethod.POST)
+	public ResponseEntity<Object> expire(@RequestBody ExpireRequest expireRequest,
+										 @NotNull HttpServletRequest request) {
+		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request);
+		if (authResponse != null) return authResponse;
+
+		//An expiry of a missing file would apply to a later upload with the same name
+		String fileName = expireRequest.getFileName();
+		if (FileNameValidator.isInvalid(fileName) || !DownloadController.existsFile(fileName)
+				|| FileExpiry.get().isExpired(fileName)) return ErrorResponses.NOT_FOUND.toResponse();
+		Long ttl = expireRequest.getTtl();
+		if (ttl == null) {
+			FileExpiry.get().removeExpiry(fileName);
+			return ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.build();
+		} else if (ttl <= 0 || ttl > FileExpiry.MAX_TTL_SECONDS) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("ttl must be between 1 and " + FileExpiry.MAX_TTL_SECONDS + " seconds"));
+
+		long expires = System.currentTimeMillis() + ttl * 1000;
+		FileExpiry.get().setExpiry(fileName, expires);
+
+		JSONObject responseObject = new JSONObject();
+		responseObject.put("expires", expires / 1000);
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(responseObject.toString(4));
+	}
+
+	@RequestMapping(value = PATH_PREFIX + "protect/batch", method = RequestMethod.POST)
+	public ResponseEntity<Object> protectBatch(@RequestBody List<ProtectRequest> protectRequests,
+											   @NotNull HttpServletRequest request) {
+		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request);
+		if (authResponse != null) return authResponse;
+
+		JSONArray results = new JSONArray();
+		ResponseEntity<Object> validationResponse = validateBatch(protectRequests, results);
+		if (validationResponse != null) return validationResponse;
+
+		try {
+			StaticFileServerApplication.getTokenConfig().modify(rootObject ->
+					protectRequests.forEach(protectRequest -> applyProtect(rootObject, protectRequest)));
+			return createBatchResponse(200, true, results);
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to save password config", exception);
+			return ResponseEntity.internalServerError().body(RestError.internalServerError("Failed to protect files"));
+		}
+	}
+
+	@RequestMapping(value = PATH_PREFIX + "unprotect/batch", method = RequestMethod.POST)
+	public ResponseEntity<Object> unprotectBatch(@RequestBody List<UnprotectRequest> unprotectRequests,
+												 @NotNull HttpServletRequest request) {
+		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request);
+		if (authResponse != null) return authResponse;
+
+		JSONArray results = new JSONArray();
+		ResponseEntity<Object> validationResponse = validateBatch(unprotectRequests, results);
+		if (validationResponse != null) return validationResponse;
+
+		try {
+			StaticFileServerApplication.getTokenConfig().modify(rootObject ->
+					unprotectRequests.forEach(unprotectRequest -> applyUnprotect(rootObject, unprotectRequest)));
+			return createBatchResponse(200, true, results);
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to save password config", exception);
+			return ResponseEntity.internalServerError().body(RestError.internalServerError("Failed to unprotect files"));
+		}
+	}
+
+	private static void applyProtect(@NotNull JSONObject rootObject, @NotNull ProtectRequest protectRequest) {
+		String fileName = protectRequest.getFileName();
+		Set<String> tokens = RefreshingConfig.getTokens(rootObject, fileName);
+		if (tokens == null || protectRequest.isReplace()) rootObject.put(fileName, protectRequest.getTokens());
+		else {
+			tokens.addAll(protectRequest.getTokens());
+			rootObject.put(fileName, tokens);
+		}
+	}
+
+	private static void applyUnprotect(@NotNull JSONObject rootObject, @NotNull UnprotectRequest unprotectRequest) {
+		String fileName = unprotectRequest.getFileName();
+		List<String> requestTokens = unprotectRequest.getTokens();
+		Set<String> tokens = RefreshingConfig.getTokens(rootObject, fileName);
+		if (requestTokens == null) rootObject.remove(fileName);
+		else if (tokens != null) {
+			requestTokens.forEach(tokens::remove);
+			rootObject.put(fileName, tokens);
+		}
+	}
+
+	@NotNull
+	private static ResponseEntity<Object> createMissingTokensResponse() {
+		return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("No tokens given"));
+	}
+
+	/**
+	 * Checks that all target files of a batch exist and protect entries have tokens,
+	 * listing the download directory only once
+	 * @param fileRequests The entries of the batch
+	 * @param results The array the status of each entry is added to
+	 * @return A response if the batch must not be applied or null if all entries are valid
+	 */
+	@Nullable
+	private ResponseEntity<Object> validateBatch(@Nullable List<? extends FileRequest> fileRequests,
+												 @NotNull JSONArray results) {
+		if (fileRequests == null || fileRequests.isEmpty()) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("The batch contains no entries"));
+		else if (fileRequests.size() > MAX_BATCH_SIZE) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("A batch can contain at most " + MAX_BATCH_SIZE + " entries"));
+
+		File[] files = TieredStorage.get().listFiles();
+		if (files == null) {
+			LOGGER.warn("Could not list files for batch api request");
+			return ResponseEntity.internalServerError()
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(RestError.internalServerError("Could not list files"));
+		}
+
+		Set<String> existingFiles = new HashSet<>();
+		for (File file : files) existingFiles.add(file.getName());
+		boolean valid = true;
+		for (FileRequest fileRequest : fileRequests) {
+			String fileName = fileRequest.getFileName();
+			JSONObject result = new JSONObject();
+			result.put("fileName", fileName == null ? JSONObject.NULL : fileName);
+			if (fileName == null || !existingFiles.contains(fileName)) {
+				result.put("status", 400);
+				result.put("message", "The target file does not exists");
+				valid = false;
+			} else if (fileRequest instanceof ProtectRequest protectRequest && protectRequest.getTokens() == null) {
+				result.put("status", 400);
+				result.put("message", "No tokens given");
+				valid = false;
+			} else result.put("status", 200);
+			results.put(result);
+		}
+		if (valid) return null;
+
+		//The batch is applied atomically, so valid entries are not applied either
+		for (int i = 0; i < results.length(); i++) {
+			JSONObject result = results.getJSONObject(i);
+			if (result.getInt("status") != 200) continue;
+			result.put("status", 424);
+			result.put("message", "Not applied because another entry is invalid");
+		}
+		return createBatchResponse(400, false, results);
+	}
+
+	@NotNull
+	private ResponseEntity<Object> createBatchResponse(int status, boolean applied, @NotNull JSONArray results) {
+		JSONObject responseObject = new JSONObject();
+		responseObject.put("applied", applied);
+		responseObject.put("results", results);
+		return ResponseEntity.status(status)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(responseObject.toString(4));
+	}
+
+	/**
+	 * Issues a signed URL which grants access to a file until it expires, without any token
+	 */
+	@RequestMapping(value = PATH_PREFIX + "sign", method = RequestMethod.POST)
+	public ResponseEntity<Object> sign(@RequestBody SignRequest signRequest, @NotNull HttpServletRequest request) {
+		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request, signRequest);
+		if (authResponse != null) return authResponse;
+
+		String scope = signRequest.getScope() == null ? DownloadController.SCOPE_DOWNLOAD : signRequest.getScope();
+		if (!SIGNING_SCOPES.contains(scope)) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Scope must be one of " + SIGNING_SCOPES));
+
+		String recipient = signRequest.getRecipient();
+		if (recipient != null && (recipient.contains("\n") || recipient.length() > 256)) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Invalid recipient"));
+
+		long expiresIn = signRequest.getExpiresIn() == null ? DEFAULT_SIGNED_LIFETIME : signRequest.getExpiresIn();
+		if (expiresIn <= 0 || expiresIn > MAX_SIGNED_LIFETIME) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("expiresIn must be between 1 and " + MAX_SIGNED_LIFETIME + " seconds"));
+
+		String fileName = signRequest.getFileName();
+		long expires = System.currentTimeMillis() / 1000 + expiresIn;
+		String signature = UrlSigner.get().sign(fileName, expires, scope, recipient);
+
+		String path = scope.equals(DownloadController.SCOPE_PREVIEW) ? "/preview" : "/download";
+		UriComponentsBuilder builder = UriComponentsBuilder.fromPath(path)
+				.queryParam("fileName", fileName)
+				.queryParam("expires", expires)
+				.queryParam("scope", scope)
+				.queryParam("signature", signature);
+		if (recipient != null) builder.queryParam("recipient", recipient);
+
+		JSONObject responseObject = new JSONObject();
+		responseObject.put("url", builder.encode().toUriString());
+		responseObject.put("expires", expires);
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(responseObject.toString(4));
+	}
+
+	/**
+	 * Lists the hottest files of a window. Windows other than "all" are estimates of a heavy hitters sketch.
+	 * The hot set size is the total size of the listed files and can be used to size caches.
+	 */
+	@RequestMapping(value = PATH_PREFIX + "stats", method = RequestMethod.POST)
+	public ResponseEntity<Object> stats(@RequestParam(defaultValue = "1h") String window,
+										@RequestParam(defaultValue = "requests") String by,
+										@RequestParam(defaultValue = "10") int limit,
+										@NotNull HttpServletRequest request) {
+		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request);
+		if (authResponse != null) return authResponse;
+
+		Integer minutes = STATS_WINDOWS.get(window);
+		if (minutes == null) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Window must be one of " + STATS_WINDOWS.keySet()));
+		else if (!by.equals("requests") && !by.equals("bytes")) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Ranking must be either requests or bytes"));
+		else if (limit <= 0 || limit > MAX_STATS_LIMIT) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Limit must be between 1 and " + MAX_STATS_LIMIT));
+
+		FileStatistics statistics = FileStatistics.get();
+		boolean byBytes = by.equals("bytes");
+		List<FileStatistics.Entry> entries = minutes == -1 ? statistics.getTopAllTime(byBytes, limit)
+				: statistics.getTop(minutes, byBytes, limit);
+
+		long hotSetSize = 0;
+		JSONArray filesArray = new JSONArray();
+		for (FileStatistics.Entry entry : entries) {
+			File file = TieredStorage.get().locate(entry.getFileName());
+			long size = file.length();
+			hotSetSize += size;
+
+			JSONObject fileJson = new JSONObject();
+			fileJson.put("fileName", entry.getFileName());
+			fileJson.put("requests", entry.getRequests());
+			fileJson.put("bytes", entry.getBytes());
+			fileJson.put("size", size);
+
+			FileCounters counters = statistics.getCounters(entry.getFileName());
+			if (counters != null) {
+				fileJson.put("notModifiedTotal", counters.getNotModified().sum());
+				fileJson.put("partialTotal", counters.getPartial().sum());
+			}
+			filesArray.put(fileJson);
+		}
+
+		JSONObject responseObject = new JSONObject();
+		responseObject.put("window", window);
+		responseObject.put("by", by);
+		responseObject.put("estimated", minutes != -1);
+		responseObject.put("hotSetSize", hotSetSize);
+		responseObject.put("files", filesArray);
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(responseObject.toString(4));
+	}
+
 	@RequestMapping(value = PATH_PREFIX + "list", method = RequestMethod.POST)
 	public ResponseEntity<Object> unprotect(@NotNull HttpServletRequest request) {
 		ResponseEntity<Object> authResponse = BasicAuthUtils.handleAuthorizedRequest(request);
 		if (authResponse != null) return authResponse;
 
-		File[] files = DownloadController.DOWNLOAD_DIRECTORY.listFiles();
+		File[] files = TieredStorage.get().listFiles();
 		if (files == null) {
 			LOGGER.warn("Could not list files for api request");
 			return ResponseEntity.internalServerError()
@@ -113,8 +385,11 @@ public class APIController {
 			JSONObject fileJson = new JSONObject();
 			fileJson.put("creation", FileDetailsUtils.getFileCreationDate(file));
 			fileJson.put("formattedSize", FileDetailsUtils.getFormattedFileSize(file));
-			fileJson.put("size", file.length());
+			fileJson.put("size", StoredFile.getLength(file));
+			fileJson.put("storedSize", file.length());
 			fileJson.put("requires-token", keySet.contains(fileName));
+			Long expires = FileExpiry.get().getExpiry(fileName);
+			if (expires != null) fileJson.put("expires", expires / 1000);
 			responseObject.put(fileName, fileJson);
 		}
 
@@ -10,67 +10,144 @@
 package de.dereingerostete.sfs.controller;
 
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.bandwidth.BandwidthShaper;
+import de.dereingerostete.sfs.compression.StoredFile;
+import de.dereingerostete.sfs.edge.EdgeCache;
+import de.dereingerostete.sfs.edge.EdgeFetch;
+import de.dereingerostete.sfs.edge.EvictionPolicy;
+import de.dereingerostete.sfs.error.ErrorResponses;
 import de.dereingerostete.sfs.error.RestError;
+import de.dereingerostete.sfs.expiry.FileExpiry;
+import de.dereingerostete.sfs.jfr.DownloadEventInterceptor;
+import de.dereingerostete.sfs.logging.LogSampler;
+import de.dereingerostete.sfs.preview.ThumbnailCache;
+import de.dereingerostete.sfs.storage.TieredStorage;
+import de.dereingerostete.sfs.util.ContentCodings;
+import de.dereingerostete.sfs.util.FileNameValidator;
+import de.dereingerostete.sfs.util.KnownFilesFilter;
 import de.dereingerostete.sfs.util.RateLimiter;
 import de.dereingerostete.sfs.util.RefreshingConfig;
+import de.dereingerostete.sfs.util.UrlSigner;
+import de.dereingerostete.sfs.util.ZipArchiveWriter;
 import jakarta.servlet.http.HttpServletRequest;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.tika.Tika;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.StandardCharsets;
-import java.util.Objects;
-import java.util.Set;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 public class DownloadController {
     public static final @NotNull File DOWNLOAD_DIRECTORY = new File("files");
+    public static final @NotNull KnownFilesFilter KNOWN_FILES;
+    public static final @NotNull String SCOPE_DOWNLOAD = "download";
+    public static final @NotNull String SCOPE_PREVIEW = "preview";
+    private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+    private static final @NotNull String SIGNED_EXPIRES_ATTRIBUTE = "sfs.signedExpires";
+    private static final long MAX_SIGNED_CACHE_AGE = TimeUnit.DAYS.toSeconds(1);
+    private static final int MAX_ARCHIVE_FILES = 1000;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    static final long[] UNSATISFIABLE_RANGE = new long[0];
     private final @NotNull RefreshingConfig passwordConfig = StaticFileServerApplication.getTokenConfig();
     private final @NotNull Tika tika = new Tika();
-    private final CharsetEncoder charsetEncoder;
+    private final @NotNull BandwidthShaper bandwidthShaper;
+    private final @Nullable EdgeCache edgeCache;
 
-    public DownloadController() {
+    static {
         if (!DOWNLOAD_DIRECTORY.exists() && !DOWNLOAD_DIRECTORY.mkdir())
             throw new IllegalStateException("Failed to create directory");
-        charsetEncoder = StandardCharsets.ISO_8859_1.newEncoder();
+        KNOWN_FILES = new KnownFilesFilter(DOWNLOAD_DIRECTORY);
+    }
+
+    public DownloadController(@Value("${sfs.bandwidth.global:0}") DataSize globalRate,
+                              @Value("${sfs.bandwidth.per-address:0}") DataSize perAddressRate,
+                              @Value("${sfs.bandwidth.protected:0}") DataSize protectedRate,
+                              @Value("${sfs.bandwidth.public:0}") DataSize publicRate,
+                              @Value("${sfs.edge.origin:}") String origin,
+                              @Value("${sfs.edge.max-size:10GB}") DataSize edgeMaxSize,
+                              @Value("${sfs.edge.revalidate-after:1m}") Duration edgeRevalidateAfter,
+                              @Value("${sfs.edge.eviction:lru}") String edgeEviction) {
+        this.bandwidthShaper = new BandwidthShaper(globalRate.toBytes(), perAddressRate.toBytes(),
+                protectedRate.toBytes(), publicRate.toBytes());
+        this.edgeCache = origin.isBlank() ? null : new EdgeCache(origin, edgeMaxSize.toBytes(),
+                edgeRevalidateAfter, EvictionPolicy.parse(edgeEviction));
     }
 
     @SuppressWarnings("unchecked")
     @RequestMapping(path = "/preview", method = RequestMethod.GET)
     public ResponseEntity<Object> preview(@RequestParam(required = false) @Nullable String fileName,
 										   @RequestParam(required = false) @Nullable String token,
+                                           @RequestParam(required = false) @Nullable Integer width,
                                            @NotNull HttpServletRequest request) throws IOException {
-        Object response = handleRequest(fileName, token, request);
+        if (width != null && !ThumbnailCache.WIDTHS.contains(width)) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(RestError.badRequest("Width must be one of " + ThumbnailCache.WIDTHS));
+        }
+
+        Object response = handleRequest(fileName, token, request, SCOPE_PREVIEW);
         if (response instanceof ResponseEntity<?>) return (ResponseEntity<Object>) response;
+        if (response instanceof EdgeFetch fetch) {
+            request.setAttribute(DownloadEventInterceptor.ORIGIN_FETCH_ATTRIBUTE, true);
+            response = fetch.awaitFile();
+        }
         if (!(response instanceof File file)) throw new IllegalStateException(response.getClass().getName());
 
         fileName = file.getName();
-        String mime = tika.detect(file);
+        if (width != null) {
+            //Falls back to the original while the thumbnail is not generated yet
+            File thumbnail = ThumbnailCache.get().get(file, width);
+            if (thumbnail != null) file = thumbnail;
+        }
+
+        //The content is detected on the original bytes, as the file may be block compressed
+        StoredFile storedFile = StoredFile.open(file);
+        InputStream inputStream = new BufferedInputStream(storedFile.openStream(0, storedFile.getLength()));
+        String mime;
+        try {
+            mime = tika.detect(inputStream, fileName);
+        } catch (IOException | RuntimeException exception) {
+            inputStream.close();
+            throw exception;
+        }
+
         if (mime == null) {
+            inputStream.close();
             String extension = FilenameUtils.getExtension(fileName).toLowerCase();
             return ResponseEntity.badRequest().body(RestError.unsupportedExtension(extension));
         }
 
         MediaType mediaType = MediaType.parseMediaType(mime);
-        InputStream inputStream = FileUtils.openInputStream(file);
         InputStreamResource resource = new InputStreamResource(inputStream);
         return ResponseEntity.ok()
-                .contentLength(file.length())
+                .contentLength(storedFile.getLength())
                 .contentType(mediaType)
+                .cacheControl(getCacheControl(request))
                 .header(HttpHeaders.CONTENT_DISPOSITION, "filename=" + fileName)
                 .body(resource);
     }
@@ -80,72 +157,379 @@ public class DownloadController {
     public ResponseEntity<Object> download(@RequestParam(required = false) @Nullable String fileName,
 										   @RequestParam(required = false) @Nullable String token,
                                            @NotNull HttpServletRequest request) throws IOException {
-        Object response = handleRequest(fileName, token, request);
+        Object response = handleRequest(fileName, token, request, SCOPE_DOWNLOAD);
         if (response instanceof ResponseEntity<?>) return (ResponseEntity<Object>) response;
-        if (!(response instanceof File file)) throw new IllegalStateException(response.getClass().getName());
 
         HttpHeaders header = new HttpHeaders();
         header.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + fileName);
 
-        InputStream inputStream = FileUtils.openInputStream(file);
-        InputStreamResource resource = new InputStreamResource(inputStream);
-        return ResponseEntity.ok()
-                .headers(header)
-                .contentLength(file.length())
+        if (response instanceof EdgeFetch fetch) {
+            //Streams the file while it is fetched from the origin
+            request.setAttribute(DownloadEventInterceptor.ORIGIN_FETCH_ATTRIBUTE, true);
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .headers(header)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .cacheControl(getCacheControl(request));
+            if (fetch.getLength() >= 0) builder.contentLength(fetch.getLength());
+            return builder.body(createStreamingBody(fetch::openStream, isProtected(fetch.getFile()), request));
+        }
+        if (!(response instanceof File file)) throw new IllegalStateException(response.getClass().getName());
+
+        StoredFile storedFile = StoredFile.open(file);
+        try {
+            ResponseEntity<Object> fileResponse = createFileResponse(file, storedFile, header, request);
+            if (!fileResponse.hasBody()) storedFile.close();
+            return fileResponse;
+        } catch (IOException | RuntimeException exception) {
+            storedFile.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Serves a file completely, as a single byte range or, if it is block compressed and
+     * the client accepts it, as the gzip stream stored on disk
+     */
+    @NotNull
+    private ResponseEntity<Object> createFileResponse(@NotNull File file, @NotNull StoredFile storedFile,
+                                                      @NotNull HttpHeaders header,
+                                                      @NotNull HttpServletRequest request) throws IOException {
+        //Validators let clients and edge nodes revalidate their copies. They describe the original
+        //content, the compressor keeps the modification time, so they survive the compression
+        long length = storedFile.getLength();
+        long lastModified = file.lastModified();
+        String range = request.getHeader(HttpHeaders.RANGE);
+        boolean encoded = storedFile.isCompressed() && range == null && ContentCodings.accepts(request, "gzip");
+        String eTag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + (encoded ? "-gz\"" : "\"");
+
+        header.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (storedFile.isCompressed()) header.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (new ServletWebRequest(request).checkNotModified(eTag, lastModified)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .headers(header)
+                    .eTag(eTag)
+                    .lastModified(lastModified)
+                    .cacheControl(getCacheControl(request))
+                    .build();
+        }
+
+        long[] byteRange = range == null || !matchesIfRange(request, eTag, lastModified) ? null : parseRange(range, length);
+        if (byteRange == UNSATISFIABLE_RANGE) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .headers(header)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder builder;
+        InputStream inputStream;
+        long contentLength;
+        if (encoded) {
+            builder = ResponseEntity.ok().header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            inputStream = storedFile.openEncodedStream();
+            contentLength = storedFile.getEncodedLength();
+        } else if (byteRange != null) {
+            contentLength = byteRange[1] - byteRange[0] + 1;
+            builder = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + length);
+            inputStream = storedFile.openStream(byteRange[0], contentLength);
+        } else {
+            builder = ResponseEntity.ok();
+            inputStream = storedFile.openStream(0, length);
+            contentLength = length;
+        }
+
+        //Spring answers range requests with a 200 response for stream resources itself and fails,
+        //so only files whose range was ignored are streamed, served ranges are written like whole files
+        Object body;
+        if (bandwidthShaper.isEnabled() || (range != null && byteRange == null)) {
+            body = createStreamingBody(() -> inputStream, isProtected(file), request);
+        } else body = new InputStreamResource(inputStream);
+
+        return builder.headers(header)
+                .contentLength(contentLength)
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+                .cacheControl(getCacheControl(request))
+                .eTag(eTag)
+                .lastModified(lastModified)
+                .body(body);
+    }
+
+    /**
+     * Parses a range header with a single byte range. Multiple ranges are not supported
+     * and answered with the whole file, as the standard allows.
+     * @return The first and last byte of the range, {@link #UNSATISFIABLE_RANGE} or null if the header should be ignored
+     */
+    @Nullable
+    static long[] parseRange(@NotNull String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) return null;
+        String spec = range.substring(6).trim();
+        int separator = spec.indexOf('-');
+        if (separator == -1) return null;
+
+        try {
+            long start;
+            long end = length - 1;
+            if (separator == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength <= 0 || length == 0) return UNSATISFIABLE_RANGE;
+                start = Math.max(0, length - suffixLength);
+            } else {
+                start = Long.parseLong(spec.substring(0, separator));
+                if (separator < spec.length() - 1) {
+                    long last = Long.parseLong(spec.substring(separator + 1));
+                    if (last < start) return null;
+                    end = Math.min(last, end);
+                }
+                if (start >= length) return UNSATISFIABLE_RANGE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the range of a request still applies, which is the case
+     * if it has no If-Range header or the header matches the current file
+     */
+    static boolean matchesIfRange(@NotNull HttpServletRequest request, @NotNull String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) return ifRange.equals(eTag);
+
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException exception) {
+            return false;
+        }
+    }
+
+    @NotNull
+    private StreamingResponseBody createStreamingBody(@NotNull InputStreamSource source, boolean protectedFile,
+                                                      @NotNull HttpServletRequest request) {
+        if (!bandwidthShaper.isEnabled()) return outputStream -> {
+            try (InputStream inputStream = source.getInputStream()) {
+                IOUtils.copyLarge(inputStream, outputStream, new byte[TRANSFER_BUFFER_SIZE]);
+            }
+        };
+
+        String address = request.getRemoteAddr();
+        return outputStream -> {
+            try (InputStream inputStream = source.getInputStream();
+                 OutputStream shapedStream = bandwidthShaper.wrap(outputStream, address, protectedFile)) {
+                IOUtils.copyLarge(inputStream, shapedStream, new byte[TRANSFER_BUFFER_SIZE]);
+            }
+        };
+    }
+
+    /**
+     * Streams multiple files as one ZIP archive. Every file is validated and token checked
+     * before anything is written, but the rate limiter only counts the archive as one request.
+     */
+    @RequestMapping(path = "/archive", method = RequestMethod.GET)
+    public ResponseEntity<Object> archive(@RequestParam(required = false) @Nullable List<String> fileName,
+                                          @RequestParam(required = false) @Nullable List<String> token,
+                                          @NotNull HttpServletRequest request) {
+        ResponseEntity<Object> limitResponse = handleRateLimit(request);
+        if (limitResponse != null) return limitResponse;
+        if (fileName == null || fileName.isEmpty()) return ErrorResponses.MISSING_FILE_PARAMETER.toResponse();
+
+        Set<String> fileNames = new LinkedHashSet<>(fileName);
+        if (fileNames.size() > MAX_ARCHIVE_FILES) return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(RestError.badRequest("An archive can contain at most " + MAX_ARCHIVE_FILES + " files"));
+
+        Collection<String> passwords = token == null ? List.of() : token;
+        List<File> files = new ArrayList<>(fileNames.size());
+        for (String name : fileNames) {
+            Object response = resolveFile(name, passwords, false);
+            if (response instanceof EdgeFetch fetch) {
+                request.setAttribute(DownloadEventInterceptor.ORIGIN_FETCH_ATTRIBUTE, true);
+                try {
+                    response = fetch.awaitFile();
+                } catch (IOException exception) {
+                    return ErrorResponses.ORIGIN_UNAVAILABLE.toResponse();
+                }
+            }
+            if (response instanceof File file) files.add(file);
+            else return castResponse(response);
+        }
+
+        StreamingResponseBody body;
+        if (bandwidthShaper.isEnabled()) {
+            String address = request.getRemoteAddr();
+            boolean protectedFiles = files.stream().anyMatch(this::isProtected);
+            body = outputStream -> {
+                try (OutputStream shapedStream = bandwidthShaper.wrap(outputStream, address, protectedFiles)) {
+                    ZipArchiveWriter.write(files, shapedStream);
+                }
+            };
+        } else body = outputStream -> ZipArchiveWriter.write(files, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=archive.zip")
+                .body(body);
     }
 
     @NotNull
     protected Object handleRequest(@Nullable String fileName, @Nullable String password,
-								   @NotNull HttpServletRequest request) {
+								   @NotNull HttpServletRequest request, @NotNull String scope) {
+        ResponseEntity<Object> limitResponse = handleRateLimit(request);
+        if (limitResponse != null) return limitResponse;
+
+        String signature = request.getParameter("signature");
+        if (signature == null) return resolveFile(fileName, password == null ? List.of() : List.of(password), false);
+
+        ResponseEntity<Object> signatureResponse = verifySignature(fileName, signature, scope, request);
+        if (signatureResponse != null) return signatureResponse;
+        return resolveFile(fileName, List.of(), true);
+    }
+
+    /**
+     * Verifies the signature of a signed URL, which replaces the token check
+     * @return A response if the signature is invalid or expired, otherwise null
+     */
+    @Nullable
+    protected ResponseEntity<Object> verifySignature(@Nullable String fileName, @NotNull String signature,
+                                                     @NotNull String scope, @NotNull HttpServletRequest request) {
+        if (fileName == null) return ErrorResponses.MISSING_FILE_PARAMETER.toResponse();
+        String signedScope = request.getParameter("scope");
+        String recipient = request.getParameter("recipient");
+        long expires;
+        try {
+            expires = Long.parseLong(request.getParameter("expires"));
+        } catch (NumberFormatException exception) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(RestError.badRequest("Invalid expires parameter"));
+        }
+
+        if (signedScope == null || !(signedScope.equals(scope) || signedScope.equals(UrlSigner.SCOPE_ALL))
+                || !UrlSigner.get().verify(fileName, expires, signedScope, recipient, signature)) {
+            return ErrorResponses.INVALID_SIGNATURE.toResponse();
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        if (expires <= now) return ErrorResponses.EXPIRED_SIGNATURE.toResponse();
+
+        request.setAttribute(SIGNED_EXPIRES_ATTRIBUTE, expires);
+        return null;
+    }
+
+    /**
+     * Lets shared caches store responses to signed URLs until the URL expires
+     */
+    @NotNull
+    protected CacheControl getCacheControl(@NotNull HttpServletRequest request) {
+        if (!(request.getAttribute(SIGNED_EXPIRES_ATTRIBUTE) instanceof Long expires)) return CacheControl.empty();
+        long maxAge = Math.min(expires - System.currentTimeMillis() / 1000, MAX_SIGNED_CACHE_AGE);
+        return CacheControl.maxAge(Math.max(0, maxAge), TimeUnit.SECONDS).cachePublic();
+    }
+
+    @Nullable
+    protected ResponseEntity<Object> handleRateLimit(@NotNull HttpServletRequest request) {
         String address = request.getRemoteAddr();
         RateLimiter limiter = RateLimiter.get();
         if (limiter.cannotAccess(address)) {
             long timeLeft = limiter.getTimeLeft(address);
             return limiter.createResponse(timeLeft);
-        }
+        } else return null;
+    }
 
-        if (fileName == null) return ResponseEntity.badRequest().body(RestError.missingFileParameter());
-        else if (isInvalid(fileName)) {
-            return ResponseEntity.status(403)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(RestError.forbidden()); //Prevent directory traversal
-        }
+    /**
+     * Validates the name of a requested file and checks its tokens
+     * @param fileName The name of the requested file
+     * @param passwords The tokens supplied by the client, any of which may match
+     * @param signed Whether the request has a verified signature, which skips the token check
+     * @return The file, a running {@link EdgeFetch} in edge mode or a response entity with the error
+     */
+    @NotNull
+    protected Object resolveFile(@Nullable String fileName, @NotNull Collection<String> passwords, boolean signed) {
+        if (fileName == null) return ErrorResponses.MISSING_FILE_PARAMETER.toResponse();
+        else if (isInvalid(fileName)) return ErrorResponses.FORBIDDEN.toResponse(); //Prevent directory traversal
 
         //No filename was entered
-        if (fileName.isBlank()) {
-            return ResponseEntity.badRequest()
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(RestError.missingFileParameter());
-        }
+        if (fileName.isBlank()) return ErrorResponses.MISSING_FILE_PARAMETER.toResponse();
 
         File file = new File(DOWNLOAD_DIRECTORY, Objects.requireNonNull(fileName));
-        if (isInvalidDirectory(file)) return ResponseEntity.status(403)
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(RestError.forbidden()); //Prevent directory traversal
-        if (!file.exists()) return ResponseEntity.status(404).body(RestError.notFoundError());
+        if (isInvalidDirectory(file)) return ErrorResponses.FORBIDDEN.toResponse(); //Prevent directory traversal
+        //Files uploaded to an edge node are served like on any node, all other names come from the origin
+        TieredStorage storage = TieredStorage.get();
+        if (edgeCache != null && !(KNOWN_FILES.mightExist(fileName) && storage.exists(fileName)))
+            return resolveEdgeFile(fileName, passwords, signed);
 
-		Set<String> tokens = passwordConfig.getTokens(file.getName());
-		if (tokens == null) return file;
-		else if (password == null) return ResponseEntity.status(401)
-				.contentType(MediaType.APPLICATION_JSON)
-				.body(RestError.unauthorized("No token was specified"));
+        //Names that were never seen in the download directory cannot exist
+        if (!KNOWN_FILES.mightExist(fileName)) return createNotFoundResponse(fileName);
+        //Expired files are rejected right away, even if the reaper did not delete them yet
+        if (FileExpiry.get().isExpired(fileName)) return createNotFoundResponse(fileName);
+        if (!storage.exists(fileName)) return createNotFoundResponse(fileName);
 
-		if (tokens.contains(password)) return file;
-		else return ResponseEntity.status(401)
-				.contentType(MediaType.APPLICATION_JSON)
-				.body(RestError.unauthorized("The specified token is invalid"));
+        ResponseEntity<Object> tokenResponse = checkTokens(fileName, passwords, signed);
+        if (tokenResponse != null) return tokenResponse;
+
+        storage.recordAccess(fileName);
+        return storage.locate(fileName);
     }
 
-    protected boolean isInvalid(@NotNull String string) {
-        if (!charsetEncoder.canEncode(string)) return true;
-        else if (string.matches("[^a-zA-Z0-9_.-]")) return true;
-        else if (string.contains("..")) return true;
-        for (byte b : string.getBytes(StandardCharsets.US_ASCII)) {
-            if (b < 32 || b == 127) return true;
+    /**
+     * Resolves a file through the edge cache. Tokens are checked first,
+     * so unauthorized requests cannot make the node fetch files from the origin.
+     */
+    @NotNull
+    private Object resolveEdgeFile(@NotNull String fileName, @NotNull Collection<String> passwords, boolean signed) {
+        ResponseEntity<Object> tokenResponse = checkTokens(fileName, passwords, signed);
+        if (tokenResponse != null) return tokenResponse;
+
+        try {
+            Object resolved = Objects.requireNonNull(edgeCache).resolve(fileName);
+            return resolved == null ? createNotFoundResponse(fileName) : resolved;
+        } catch (IOException exception) {
+            return ErrorResponses.ORIGIN_UNAVAILABLE.toResponse();
         }
-        return false;
+    }
+
+    @NotNull
+    private ResponseEntity<Object> createNotFoundResponse(@NotNull String fileName) {
+        LogSampler.NOT_FOUND.info(LOGGER, "Requested file '{}' does not exist", fileName);
+        return ErrorResponses.NOT_FOUND.toResponse();
+    }
+
+    /**
+     * Checks the tokens of a file
+     * @return A response if access is denied, otherwise null
+     */
+    @Nullable
+    private ResponseEntity<Object> checkTokens(@NotNull String fileName, @NotNull Collection<String> passwords,
+                                               boolean signed) {
+        if (signed) return null;
+
+		Set<String> tokens = passwordConfig.getTokens(fileName);
+		if (tokens == null) return null;
+		else if (passwords.isEmpty()) return ErrorResponses.NO_TOKEN.toResponse();
+
+		for (String password : passwords) {
+			if (tokens.contains(password)) return null;
+		}
+		return ErrorResponses.INVALID_TOKEN.toResponse();
+    }
+
+    /**
+     * Checks whether a file belongs to the protected bandwidth class
+     */
+    protected boolean isProtected(@NotNull File file) {
+        return passwordConfig.getTokens(file.getName()) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static ResponseEntity<Object> castResponse(@NotNull Object response) {
+        if (response instanceof ResponseEntity<?>) return (ResponseEntity<Object>) response;
+        else throw new IllegalStateException(response.getClass().getName());
+    }
+
+    protected boolean isInvalid(@NotNull String string) {
+        return FileNameValidator.isInvalid(string);
     }
 
     protected boolean isInvalidDirectory(@NotNull File file) {
@@ -153,7 +537,7 @@ public class DownloadController {
     }
 
     public static boolean existsFile(@NotNull String fileName) {
-        return new File(DOWNLOAD_DIRECTORY, fileName).exists();
+        return KNOWN_FILES.mightExist(fileName) && TieredStorage.get().exists(fileName);
     }
 
 }
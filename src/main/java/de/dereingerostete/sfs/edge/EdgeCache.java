@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.edge;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.controller.DownloadController;
+import de.dereingerostete.sfs.util.UrlSigner;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.springframework.http.HttpHeaders;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of an origin StaticFileServer. The cached files are kept in a directory of their own,
+ * so files uploaded to this node are never revalidated or evicted. Misses are fetched once no matter
+ * how many clients wait, cached files are revalidated with the validators of the origin and the total size
+ * is bounded. The origin is requested with signed URLs, so it has to use the same url-signing.key.
+ */
+public class EdgeCache {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull File CACHE_DIRECTORY = new File("edge-cache");
+	private static final @NotNull Duration BODY_IDLE_TIMEOUT = Duration.ofSeconds(30);
+	private static final long SIGNATURE_VALIDITY_SECONDS = 60;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final @NotNull File fileDirectory;
+	private final @NotNull File partialDirectory;
+	private final long bodyIdleMillis;
+	private final @NotNull String origin;
+	private final long maxSize;
+	private final long revalidateMillis;
+	private final @NotNull EvictionPolicy policy;
+	private final @NotNull HttpClient client;
+	private final @NotNull ExecutorService executor;
+	private final @NotNull ScheduledExecutorService watchdog;
+	private final @NotNull Map<String, Entry> entries;
+	private final @NotNull Map<String, EdgeFetch> fetches;
+	private long usedSize;
+
+	public EdgeCache(@NotNull String origin, long maxSize, @NotNull Duration revalidateAfter,
+					 @NotNull EvictionPolicy policy) {
+		this(origin, maxSize, revalidateAfter, policy, CACHE_DIRECTORY, BODY_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param directory The directory holding the cached and the partially fetched files
+	 * @param bodyIdleTimeout The time the origin may pause while sending a body before the fetch fails
+	 */
+	EdgeCache(@NotNull String origin, long maxSize, @NotNull Duration revalidateAfter, @NotNull EvictionPolicy policy,
+			  @NotNull File directory, @NotNull Duration bodyIdleTimeout) {
+		this.fileDirectory = new File(directory, "files");
+		this.partialDirectory = new File(directory, "partial");
+		if (!fileDirectory.isDirectory() && !fileDirectory.mkdirs()
+				|| !partialDirectory.isDirectory() && !partialDirectory.mkdirs())
+			throw new IllegalStateException("Failed to create edge cache directory");
+
+		this.bodyIdleMillis = bodyIdleTimeout.toMillis();
+		this.origin = origin.endsWith("/") ? origin.substring(0, origin.length() - 1) : origin;
+		this.maxSize = maxSize;
+		this.revalidateMillis = revalidateAfter.toMillis();
+		this.policy = policy;
+		this.client = HttpClient.newBuilder()
+				.connectTimeout(Duration.ofSeconds(10))
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.build();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "EdgeFetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "EdgeWatchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.entries = new ConcurrentHashMap<>();
+		this.fetches = new ConcurrentHashMap<>();
+
+		//Left over from fetches that were interrupted by a shutdown
+		File[] partialFiles = partialDirectory.listFiles();
+		if (partialFiles != null) for (File file : partialFiles) {
+			if (!file.delete()) LOGGER.warn("Failed to delete partial file {}", file.getName());
+		}
+
+		//Files cached before a restart are kept, but revalidated on their first request
+		File[] files = fileDirectory.listFiles(File::isFile);
+		if (files != null) for (File file : files) {
+			entries.put(file.getName(), new Entry(file.length(), 0, file.lastModified()));
+			usedSize += file.length();
+		}
+		evict();
+	}
+
+	/**
+	 * Resolves a file from the cache or the origin
+	 * @param fileName The validated name of the file
+	 * @return The cached file, a running {@link EdgeFetch} or null if the origin does not have the file
+	 * @throws IOException If the origin could not be reached and no copy is cached
+	 */
+	@Nullable
+	public Object resolve(@NotNull String fileName) throws IOException {
+		File file = new File(fileDirectory, fileName);
+		Entry entry = entries.get(fileName);
+		if (entry != null) {
+			entry.recordAccess();
+			if (System.currentTimeMillis() - entry.validatedAt < revalidateMillis) return file;
+		}
+
+		EdgeFetch fetch = fetches.computeIfAbsent(fileName, name -> start(name, file, entry));
+		EdgeFetch.Result result;
+		try {
+			result = fetch.awaitResult();
+		} catch (IOException exception) {
+			if (entry == null) throw exception;
+			LOGGER.warn("Serving possibly stale {}, the origin could not be reached", fileName);
+			return file;
+		}
+
+		return switch (result) {
+			case NOT_MODIFIED -> file;
+			case NOT_FOUND -> null;
+			case MODIFIED -> fetch;
+		};
+	}
+
+	@NotNull
+	private EdgeFetch start(@NotNull String fileName, @NotNull File file, @Nullable Entry entry) {
+		EdgeFetch fetch = new EdgeFetch(fileName, file, new File(partialDirectory, fileName));
+		executor.execute(() -> {
+			try {
+				run(fetch, entry);
+			} catch (IOException exception) {
+				LOGGER.warn("Failed to fetch {} from the origin", fileName, exception);
+				fetch.onFailure(exception);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				fetch.onFailure(new IOException("Interrupted while fetching from the origin", exception));
+			} finally {
+				fetches.remove(fileName, fetch);
+			}
+		});
+		return fetch;
+	}
+
+	private void run(@NotNull EdgeFetch fetch, @Nullable Entry entry) throws IOException, InterruptedException {
+		String fileName = fetch.getFileName();
+		HttpRequest.Builder builder = HttpRequest.newBuilder(createOriginUri(fileName))
+				.timeout(Duration.ofSeconds(30))
+				.GET();
+		if (entry != null) {
+			if (entry.eTag != null) builder.header(HttpHeaders.IF_NONE_MATCH, entry.eTag);
+			builder.header(HttpHeaders.IF_MODIFIED_SINCE, formatDate(entry.lastModified));
+		}
+
+		HttpResponse<InputStream> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+		int status = response.statusCode();
+		try (InputStream inputStream = response.body()) {
+			if (status == 304 && entry != null) {
+				entry.validatedAt = System.currentTimeMillis();
+				fetch.onResponse(EdgeFetch.Result.NOT_MODIFIED, entry.size);
+				return;
+			} else if (status == 404) {
+				remove(fileName);
+				fetch.onResponse(EdgeFetch.Result.NOT_FOUND, -1);
+				return;
+			} else if (status != 200) {
+				String hint = status == 401 ? ", check that the origin uses the same url-signing.key" : "";
+				throw new IOException("Origin responded with status " + status + hint);
+			}
+
+			long length = response.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1);
+			File partialFile = new File(partialDirectory, fileName);
+			long size;
+			try (OutputStream outputStream = new FileOutputStream(partialFile)) {
+				//Waiting requests open the partial file once they are released, so it has to exist first
+				fetch.onResponse(EdgeFetch.Result.MODIFIED, length);
+				size = transfer(inputStream, outputStream, fetch);
+			}
+			if (length >= 0 && size != length) throw new IOException("Origin closed the connection early");
+
+			long lastModified = response.headers().firstValue(HttpHeaders.LAST_MODIFIED)
+					.map(EdgeCache::parseDate).orElse(0L);
+			fetch.onComplete(lastModified);
+
+			String eTag = response.headers().firstValue(HttpHeaders.ETAG).orElse(null);
+			add(fileName, new Entry(size, System.currentTimeMillis(), fetch.getFile().lastModified(), eTag));
+		}
+	}
+
+	/**
+	 * Copies the body of the origin into the partial file. The header timeout of the request does not cover
+	 * the body, so a watchdog closes the stream once the origin sent nothing for the idle timeout,
+	 * which ends a blocked read.
+	 * @return The number of bytes copied
+	 */
+	private long transfer(@NotNull InputStream inputStream, @NotNull OutputStream outputStream,
+						  @NotNull EdgeFetch fetch) throws IOException {
+		AtomicLong lastData = new AtomicLong(System.currentTimeMillis());
+		AtomicBoolean timedOut = new AtomicBoolean();
+		long checkMillis = Math.max(1, bodyIdleMillis / 4);
+		ScheduledFuture<?> idleCheck = watchdog.scheduleWithFixedDelay(() -> {
+			if (System.currentTimeMillis() - lastData.get() < bodyIdleMillis || timedOut.getAndSet(true)) return;
+			try {
+				inputStream.close();
+			} catch (IOException exception) {
+				LOGGER.debug("Failed to close the stalled body of {}", fetch.getFileName(), exception);
+			}
+		}, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+
+		long size = 0;
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				lastData.set(System.currentTimeMillis());
+				outputStream.write(buffer, 0, read);
+				size += read;
+				fetch.onData(read);
+			}
+		} catch (IOException exception) {
+			if (!timedOut.get()) throw exception;
+		} finally {
+			idleCheck.cancel(false);
+		}
+
+		//A closed stream may also end like a complete body
+		if (timedOut.get()) throw new IOException("Origin sent no data for " + bodyIdleMillis + "ms");
+		return size;
+	}
+
+	@NotNull
+	private URI createOriginUri(@NotNull String fileName) {
+		long expires = System.currentTimeMillis() / 1000 + SIGNATURE_VALIDITY_SECONDS;
+		String scope = DownloadController.SCOPE_DOWNLOAD;
+		String signature = UrlSigner.get().sign(fileName, expires, scope, null);
+		return URI.create(origin + "/download?fileName=" + URLEncoder.encode(fileName, StandardCharsets.UTF_8)
+				+ "&expires=" + expires + "&scope=" + scope + "&signature=" + signature);
+	}
+
+	private synchronized void add(@NotNull String fileName, @NotNull Entry entry) {
+		//Counts the request that caused the fetch, so LFU does not evict new files right away
+		entry.recordAccess();
+		Entry previous = entries.put(fileName, entry);
+		usedSize += entry.size - (previous == null ? 0 : previous.size);
+		evict();
+	}
+
+	private synchronized void remove(@NotNull String fileName) {
+		Entry entry = entries.remove(fileName);
+		if (entry == null) return;
+
+		usedSize -= entry.size;
+		File file = new File(fileDirectory, fileName);
+		if (file.exists() && !file.delete()) LOGGER.warn("Failed to delete {} from the edge cache", fileName);
+	}
+
+	/**
+	 * Removes files until the cache fits into its maximum size. Files that are being read stay
+	 * readable for their current clients, as the file system only frees them once they are closed.
+	 */
+	private synchronized void evict() {
+		while (usedSize > maxSize && !entries.isEmpty()) {
+			String victim = null;
+			Entry victimEntry = null;
+			for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+				Entry entry = candidate.getValue();
+				if (victimEntry == null || isBetterVictim(entry, victimEntry)) {
+					victim = candidate.getKey();
+					victimEntry = entry;
+				}
+			}
+			remove(victim);
+		}
+	}
+
+	private boolean isBetterVictim(@NotNull Entry entry, @NotNull Entry current) {
+		if (policy == EvictionPolicy.LFU) {
+			long hits = entry.hits.sum();
+			long currentHits = current.hits.sum();
+			if (hits != currentHits) return hits < currentHits;
+		}
+		return entry.lastAccess < current.lastAccess;
+	}
+
+	@NotNull
+	private static String formatDate(long millis) {
+		ZonedDateTime time = Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC);
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(time);
+	}
+
+	private static long parseDate(@NotNull String value) {
+		try {
+			return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException exception) {
+			return 0;
+		}
+	}
+
+	private static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final @Nullable String eTag;
+		private final @NotNull LongAdder hits;
+		private volatile long validatedAt;
+		private volatile long lastAccess;
+
+		private Entry(long size, long validatedAt, long lastModified) {
+			this(size, validatedAt, lastModified, null);
+		}
+
+		private Entry(long size, long validatedAt, long lastModified, @Nullable String eTag) {
+			this.size = size;
+			this.validatedAt = validatedAt;
+			this.lastModified = lastModified;
+			this.eTag = eTag;
+			this.hits = new LongAdder();
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		private void recordAccess() {
+			hits.increment();
+			lastAccess = System.currentTimeMillis();
+		}
+
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.edge;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running fetch of one file from the origin. The body is written to a partial file which
+ * any number of requests can read while it grows, so every client is served by a single fetch.
+ * Once the body is complete the partial file is moved into the download directory.
+ */
+public class EdgeFetch {
+	private static final long HEADER_TIMEOUT_SECONDS = 60;
+	private static final long POLL_MILLIS = 1000;
+	private final @Getter @NotNull String fileName;
+	private final @Getter @NotNull File file;
+	private final @NotNull File partialFile;
+	private final @NotNull CountDownLatch responseLatch;
+	private volatile @Nullable Result result;
+	private volatile @Nullable IOException failure;
+	private volatile @Getter long length;
+	private long written;
+	private boolean complete;
+
+	EdgeFetch(@NotNull String fileName, @NotNull File file, @NotNull File partialFile) {
+		this.fileName = fileName;
+		this.file = file;
+		this.partialFile = partialFile;
+		this.responseLatch = new CountDownLatch(1);
+		this.length = -1;
+	}
+
+	/**
+	 * Waits until the origin answered
+	 * @return The result of the fetch
+	 * @throws IOException If the origin could not be reached or answered with an error
+	 */
+	@NotNull
+	public Result awaitResult() throws IOException {
+		try {
+			if (!responseLatch.await(HEADER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+				throw new IOException("Timed out waiting for the origin");
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the origin", exception);
+		}
+
+		IOException exception = failure;
+		if (exception != null) throw exception;
+		return result;
+	}
+
+	/**
+	 * Waits until the whole file is fetched, for consumers that cannot read a growing file
+	 * @return The file in the download directory
+	 * @throws IOException If the fetch failed
+	 */
+	@NotNull
+	public synchronized File awaitFile() throws IOException {
+		while (!complete) {
+			IOException exception = failure;
+			if (exception != null) throw exception;
+			waitForData();
+		}
+		return file;
+	}
+
+	/**
+	 * Opens a stream over the file that blocks at the end of the fetched data until more arrives
+	 */
+	@NotNull
+	public synchronized InputStream openStream() throws IOException {
+		IOException exception = failure;
+		if (exception != null) throw exception;
+		return new TailingInputStream(new RandomAccessFile(complete ? file : partialFile, "r"));
+	}
+
+	void onResponse(@NotNull Result result, long length) {
+		this.result = result;
+		this.length = length;
+		responseLatch.countDown();
+	}
+
+	synchronized void onData(int count) {
+		written += count;
+		notifyAll();
+	}
+
+	/**
+	 * Moves the partial file into place. Readers keep their open files, so they are not interrupted.
+	 */
+	synchronized void onComplete(long lastModified) throws IOException {
+		if (lastModified > 0 && !partialFile.setLastModified(lastModified))
+			throw new IOException("Failed to set the modification time of " + fileName);
+
+		try {
+			Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException exception) {
+			Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		complete = true;
+		notifyAll();
+	}
+
+	synchronized void onFailure(@NotNull IOException exception) {
+		failure = exception;
+		responseLatch.countDown();
+		notifyAll();
+		if (partialFile.exists()) partialFile.delete();
+	}
+
+	private void waitForData() throws IOException {
+		try {
+			wait(POLL_MILLIS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the origin", exception);
+		}
+	}
+
+	public enum Result {
+		MODIFIED,
+		NOT_MODIFIED,
+		NOT_FOUND
+	}
+
+	private class TailingInputStream extends InputStream {
+		private final @NotNull RandomAccessFile input;
+		private long position;
+
+		private TailingInputStream(@NotNull RandomAccessFile input) {
+			this.input = input;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) return 0;
+			long available;
+			synchronized (EdgeFetch.this) {
+				while ((available = written - position) <= 0 && !complete) {
+					IOException exception = failure;
+					if (exception != null) throw exception;
+					waitForData();
+				}
+				if (complete) available = Math.max(available, input.length() - position);
+			}
+			if (available <= 0) return -1;
+
+			int read = input.read(buffer, offset, (int) Math.min(length, available));
+			if (read > 0) position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+
+	}
+
+}
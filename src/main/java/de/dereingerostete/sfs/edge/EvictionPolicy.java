@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.edge;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+public enum EvictionPolicy {
+	/**
+	 * Evicts the file that was not requested for the longest time
+	 */
+	LRU,
+	/**
+	 * Evicts the file with the fewest requests, ties are broken by the last request
+	 */
+	LFU;
+
+	@NotNull
+	public static EvictionPolicy parse(@NotNull String name) {
+		try {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException exception) {
+			throw new IllegalStateException("Unknown eviction policy " + name + ", expected lru or lfu", exception);
+		}
+	}
+
+}
@@ -11,6 +11,7 @@ package de.dereingerostete.sfs.error;
 
 import jakarta.servlet.RequestDispatcher;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONObject;
@@ -26,40 +27,52 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 @Controller
 @RestControllerAdvice
 public class DefaultErrorHandler implements ErrorController {
-    protected final @NotNull JSONObject errorObject;
+    protected final @NotNull Map<Integer, PrerenderedError> errors;
 
+    /**
+     * Renders every error of {@code error_messages.json} once, so error pages need no lookups or serialization
+     */
     public DefaultErrorHandler() {
         try {
             InputStream inputStream = getClass().getClassLoader().getResourceAsStream("error_messages.json");
             if (inputStream == null) throw new IllegalStateException("Error message json not found");
             String content = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-            errorObject = new JSONObject(content);
+            JSONObject errorObject = new JSONObject(content);
+
+            Map<Integer, PrerenderedError> errors = new HashMap<>();
+            for (String code : errorObject.keySet()) {
+                JSONObject messageObject = errorObject.optJSONObject(code);
+                if (messageObject == null) continue;
+
+                String error = messageObject.optString("error", null);
+                String message = messageObject.optString("message", null);
+                if (message == null || error == null) continue;
+
+                int status = Integer.parseInt(code);
+                errors.put(status, PrerenderedError.of(new RestError(status, error, message)));
+            }
+            this.errors = Map.copyOf(errors);
         } catch (IOException exception) {
             throw new IllegalStateException(exception);
         }
     }
 
     @RequestMapping(value = "/error", produces = MediaType.APPLICATION_JSON_VALUE)
-    public RestError handleError(@NotNull HttpServletRequest request) {
+    public ResponseEntity<Object> handleError(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) {
         Object status = request.getAttribute(RequestDispatcher.ERROR_STATUS_CODE);
         if (!(status instanceof Integer statusInteger)) {
-            return RestError.unknownError();
-        }
-
-        String code = String.valueOf(status);
-        JSONObject messageObject = errorObject.optJSONObject(code);
-        if (messageObject == null) {
-            return RestError.unknownError();
+            return ErrorResponses.UNKNOWN.toResponse(response.getStatus());
         }
 
-        String error = messageObject.optString("error", null);
-        String message = messageObject.optString("message", null);
-        if (message == null || error == null) return RestError.unknownError();
-        else return new RestError(statusInteger, error, message);
+        PrerenderedError error = errors.get(statusInteger);
+        if (error == null) return ErrorResponses.UNKNOWN.toResponse(statusInteger);
+        else return error.toResponse();
     }
 
 	@ExceptionHandler(HttpMediaTypeNotSupportedException.class)
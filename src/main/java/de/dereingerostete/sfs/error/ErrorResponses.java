@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.error;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Pre-rendered errors of the rejection paths that are hit the most during floods
+ */
+public class ErrorResponses {
+	public static final @NotNull PrerenderedError FORBIDDEN = PrerenderedError.of(RestError.forbidden());
+	public static final @NotNull PrerenderedError NOT_FOUND = PrerenderedError.of(RestError.notFoundError());
+	public static final @NotNull PrerenderedError MISSING_FILE_PARAMETER = PrerenderedError.of(RestError.missingFileParameter());
+	public static final @NotNull PrerenderedError NO_TOKEN = PrerenderedError.of(RestError.unauthorized("No token was specified"));
+	public static final @NotNull PrerenderedError INVALID_TOKEN = PrerenderedError.of(RestError.unauthorized("The specified token is invalid"));
+	public static final @NotNull PrerenderedError INVALID_SIGNATURE = PrerenderedError.of(RestError.unauthorized("The specified signature is invalid"));
+	public static final @NotNull PrerenderedError EXPIRED_SIGNATURE = PrerenderedError.of(RestError.unauthorized("The signed URL has expired"));
+	public static final @NotNull PrerenderedError UNKNOWN = PrerenderedError.of(RestError.unknownError());
+	public static final @NotNull PrerenderedError TOO_MANY_REQUESTS = PrerenderedError.tooManyRequests();
+	public static final @NotNull PrerenderedError ORIGIN_UNAVAILABLE = PrerenderedError.of(new RestError(502, "Bad Gateway", "The origin server could not be reached"));
+
+	//Errors of the basic authentication of the API
+	public static final @NotNull PrerenderedError NO_AUTHENTICATION = createAuthenticationError("No authentication was specified");
+	public static final @NotNull PrerenderedError INVALID_AUTHENTICATION = createAuthenticationError("Invalid authentication");
+	public static final @NotNull PrerenderedError INVALID_CREDENTIALS = createAuthenticationError("Invalid Username or Password");
+
+	@NotNull
+	private static PrerenderedError createAuthenticationError(@NotNull String message) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"API V1\", charset=\"UTF-8\"");
+		return PrerenderedError.of(RestError.unauthorized(message), headers);
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.error;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link RestError} serialized ahead of time. Only the timestamp (and the seconds of a
+ * Retry-After error) are written per request. Bodies are cached for the current millisecond,
+ * so a flood of rejections shares one immutable array instead of serializing every error.
+ */
+public class PrerenderedError {
+	private static final byte[] PREFIX = "{\"timestamp\":".getBytes(StandardCharsets.US_ASCII);
+	private static final int TIMESTAMP_DIGITS = 13; //Enough until the year 2286
+	private static final int MAX_CACHED_RETRY_AFTER = 3600;
+	private final @Nullable HttpStatusCode status; //Null for errors without a valid status, see toResponse(int)
+	private final byte[] middle;
+	private final @Nullable byte[] tail;
+	private final @NotNull HttpHeaders headers;
+	private final @Nullable AtomicReferenceArray<HttpHeaders> retryAfterHeaders;
+	private volatile @Nullable Rendered cached;
+
+	private PrerenderedError(int status, byte[] middle, @Nullable byte[] tail, @NotNull HttpHeaders extraHeaders) {
+		this.status = status >= 100 && status <= 999 ? HttpStatusCode.valueOf(status) : null;
+		this.middle = middle;
+		this.tail = tail;
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.putAll(extraHeaders);
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		if (tail == null) headers.setContentLength(PREFIX.length + TIMESTAMP_DIGITS + middle.length);
+		this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+		this.retryAfterHeaders = tail == null ? null : new AtomicReferenceArray<>(MAX_CACHED_RETRY_AFTER + 1);
+	}
+
+	/**
+	 * Renders a constant error
+	 * @param error The error without additional information
+	 */
+	@NotNull
+	public static PrerenderedError of(@NotNull RestError error) {
+		return of(error, new HttpHeaders());
+	}
+
+	/**
+	 * Renders a constant error with additional headers
+	 * @param error The error without additional information
+	 * @param headers The headers to send with the error
+	 */
+	@NotNull
+	public static PrerenderedError of(@NotNull RestError error, @NotNull HttpHeaders headers) {
+		String json = renderFields(error) + ",\"additionalInformation\":[]}";
+		return new PrerenderedError(error.getStatus(), json.getBytes(StandardCharsets.UTF_8), null, headers);
+	}
+
+	/**
+	 * Renders a 429 error whose Retry-After seconds are filled in per response
+	 */
+	@NotNull
+	public static PrerenderedError tooManyRequests() {
+		RestError error = RestError.tooManyRequests(0);
+		String middle = renderFields(error) + ",\"additionalInformation\":[{\"name\":\"Retry-After\",\"seconds\":";
+		return new PrerenderedError(error.getStatus(), middle.getBytes(StandardCharsets.UTF_8),
+				"}]}".getBytes(StandardCharsets.US_ASCII), new HttpHeaders());
+	}
+
+	/**
+	 * Writes the fields in the order Jackson serializes a {@link RestError}
+	 */
+	@NotNull
+	private static String renderFields(@NotNull RestError error) {
+		return ",\"status\":" + error.getStatus()
+				+ ",\"error\":" + JSONObject.quote(error.getError())
+				+ ",\"message\":" + JSONObject.quote(error.getMessage());
+	}
+
+	/**
+	 * Creates the response of a constant error
+	 */
+	@NotNull
+	public ResponseEntity<Object> toResponse() {
+		if (status == null) throw new IllegalStateException("Error has no valid status");
+		return new ResponseEntity<>(render(), headers, status);
+	}
+
+	/**
+	 * Creates the response of a constant error with a different status code.
+	 * Used by the error page, where the status of the failed request has to be kept.
+	 */
+	@NotNull
+	public ResponseEntity<Object> toResponse(int status) {
+		return new ResponseEntity<>(render(), headers, HttpStatusCode.valueOf(status));
+	}
+
+	/**
+	 * Creates the response of a Retry-After error
+	 * @param retryAfter The seconds until the client may retry
+	 */
+	@NotNull
+	public ResponseEntity<Object> toResponse(long retryAfter) {
+		if (tail == null || retryAfterHeaders == null) throw new IllegalStateException("Error has no Retry-After");
+		if (status == null) throw new IllegalStateException("Error has no valid status");
+		retryAfter = Math.max(0, retryAfter);
+
+		long timestamp = System.currentTimeMillis();
+		byte[] body = new byte[PREFIX.length + digits(timestamp) + middle.length + digits(retryAfter) + tail.length];
+		int position = copy(PREFIX, body, 0);
+		position = writeLong(timestamp, body, position);
+		position = copy(middle, body, position);
+		position = writeLong(retryAfter, body, position);
+		copy(tail, body, position);
+		return new ResponseEntity<>(body, getRetryAfterHeaders(retryAfter), status);
+	}
+
+	@NotNull
+	private HttpHeaders getRetryAfterHeaders(long retryAfter) {
+		HttpHeaders cachedHeaders = retryAfter <= MAX_CACHED_RETRY_AFTER && retryAfterHeaders != null
+				? retryAfterHeaders.get((int) retryAfter) : null;
+		if (cachedHeaders != null) return cachedHeaders;
+
+		HttpHeaders newHeaders = new HttpHeaders();
+		newHeaders.putAll(headers);
+		newHeaders.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+		newHeaders = HttpHeaders.readOnlyHttpHeaders(newHeaders);
+		if (retryAfter <= MAX_CACHED_RETRY_AFTER && retryAfterHeaders != null) {
+			retryAfterHeaders.set((int) retryAfter, newHeaders);
+		}
+		return newHeaders;
+	}
+
+	private byte[] render() {
+		long timestamp = System.currentTimeMillis();
+		Rendered rendered = cached;
+		if (rendered != null && rendered.timestamp == timestamp) return rendered.body;
+
+		byte[] body = new byte[PREFIX.length + digits(timestamp) + middle.length];
+		int position = copy(PREFIX, body, 0);
+		position = writeLong(timestamp, body, position);
+		copy(middle, body, position);
+		cached = new Rendered(timestamp, body);
+		return body;
+	}
+
+	private static int copy(byte[] source, byte[] target, int position) {
+		System.arraycopy(source, 0, target, position, source.length);
+		return position + source.length;
+	}
+
+	private static int digits(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+	/**
+	 * Writes a non-negative number as ASCII digits
+	 * @return The position after the number
+	 */
+	private static int writeLong(long value, byte[] target, int position) {
+		int end = position + digits(value);
+		int index = end;
+		do {
+			target[--index] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		return end;
+	}
+
+	private static class Rendered {
+		private final long timestamp;
+		private final byte[] body;
+
+		private Rendered(long timestamp, byte[] body) {
+			this.timestamp = timestamp;
+			this.body = body;
+		}
+
+	}
+
+}
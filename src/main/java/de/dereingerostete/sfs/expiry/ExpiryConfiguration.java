@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.expiry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ExpiryConfiguration {
+
+	public ExpiryConfiguration(@Value("${sfs.expiry.reap-rate:100}") int reapRate) {
+		if (reapRate <= 0) throw new IllegalStateException("sfs.expiry.reap-rate must be positive");
+		FileExpiry.get().setReapRate(reapRate);
+	}
+
+}
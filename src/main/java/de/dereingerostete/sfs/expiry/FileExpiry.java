@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.expiry;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.preview.ThumbnailCache;
+import de.dereingerostete.sfs.storage.TieredStorage;
+import de.dereingerostete.sfs.util.RefreshingConfig;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expiry times of files. Requests for an expired file are rejected right away, while the file
+ * itself is deleted later by a reaper that removes at most a configured number of files per
+ * second, so a mass expiry does not flood the download volume with deletions.
+ * Expiry times are kept in a {@link TimingWheel} and saved to a file whenever they change.
+ */
+public class FileExpiry {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull File EXPIRY_FILE = new File("expirations.json");
+	public static final long MAX_TTL_SECONDS = TimeUnit.DAYS.toSeconds(3650);
+	private static final @NotNull FileExpiry INSTANCE = new FileExpiry();
+	private static final long TICK_MILLIS = 1000;
+	private static final long SAVE_INTERVAL_SECONDS = 60;
+
+	private final @NotNull Map<String, Long> expirations;
+	private final @NotNull TimingWheel wheel;
+	private final @NotNull Queue<String> expired;
+	private volatile int reapRate;
+	private volatile boolean modified;
+
+	private FileExpiry() {
+		this.expirations = new ConcurrentHashMap<>();
+		this.wheel = new TimingWheel(TICK_MILLIS, System.currentTimeMillis());
+		this.expired = new ConcurrentLinkedQueue<>();
+		this.reapRate = 100;
+		load();
+
+		ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "FileExpiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+		//Changes are saved right away, this only retries saves that failed
+		service.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::save, "FileExpirySave"));
+	}
+
+	/**
+	 * Sets the maximum number of expired files deleted per second
+	 */
+	void setReapRate(int reapRate) {
+		this.reapRate = reapRate;
+	}
+
+	/**
+	 * Sets the time a file expires at, replacing a previous expiry
+	 * @param fileName The name of the file
+	 * @param expiresAt The expiry as epoch milliseconds
+	 */
+	public void setExpiry(@NotNull String fileName, long expiresAt) {
+		if (schedule(fileName, expiresAt)) save();
+	}
+
+	/**
+	 * Removes the expiry of a file, so it is kept until it is deleted by hand
+	 */
+	public void removeExpiry(@NotNull String fileName) {
+		//The timer stays in the wheel and is ignored when it fires
+		if (expirations.remove(fileName) == null) return;
+		modified = true;
+		save();
+	}
+
+	/**
+	 * Schedules the expiry without saving it
+	 * @return Whether the expiry of the file changed
+	 */
+	private boolean schedule(@NotNull String fileName, long expiresAt) {
+		if (expiresAt <= 0) throw new IllegalArgumentException("Invalid expiry " + expiresAt);
+		Long previous = expirations.put(fileName, expiresAt);
+		if (previous != null && previous == expiresAt) return false;
+
+		synchronized (wheel) {
+			wheel.schedule(fileName, expiresAt);
+		}
+		modified = true;
+		return true;
+	}
+
+	/**
+	 * Gets the time a file expires at
+	 * @return The expiry as epoch milliseconds or null if the file does not expire
+	 */
+	@Nullable
+	public Long getExpiry(@NotNull String fileName) {
+		return expirations.get(fileName);
+	}
+
+	public boolean isExpired(@NotNull String fileName) {
+		Long expiresAt = expirations.get(fileName);
+		return expiresAt != null && expiresAt <= System.currentTimeMillis();
+	}
+
+	private void tick() {
+		try {
+			synchronized (wheel) {
+				wheel.advance(System.currentTimeMillis(), (fileName, deadline) -> {
+					//Ignore timers that were replaced or removed
+					if (deadline.equals(expirations.get(fileName))) expired.add(fileName);
+				});
+			}
+			reap();
+		} catch (RuntimeException exception) {
+			LOGGER.warn("Failed to reap expired files", exception);
+		}
+	}
+
+	/**
+	 * Deletes up to the reap rate of expired files, the others are left for the next tick
+	 */
+	private void reap() {
+		RefreshingConfig tokenConfig = StaticFileServerApplication.getTokenConfig();
+		TieredStorage storage = TieredStorage.get();
+		int limit = reapRate;
+		List<String> expiredNames = new ArrayList<>();
+		String fileName;
+		for (int i = 0; i < limit && (fileName = expired.poll()) != null; i++) {
+			//The expiry may have been extended after the timer fired
+			if (!isExpired(fileName)) continue;
+
+			File file = storage.locate(fileName);
+			if (!storage.deleteFile(fileName)) {
+				LOGGER.warn("Failed to delete expired file {}", fileName);
+				continue;
+			}
+
+			ThumbnailCache.get().invalidate(file);
+			if (tokenConfig.getTokens(fileName) != null) expiredNames.add(fileName);
+			expirations.remove(fileName);
+			modified = true;
+			LOGGER.info("Deleted expired file {}", fileName);
+		}
+
+		save();
+		if (expiredNames.isEmpty()) return;
+		try {
+			//One save for the whole batch, through modify so concurrent changes of the config are kept
+			tokenConfig.modify(root -> expiredNames.forEach(root::remove));
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to save password config after deleting expired files", exception);
+		}
+	}
+
+	private void load() {
+		if (!EXPIRY_FILE.exists()) return;
+		try {
+			JSONObject rootObject = new JSONObject(FileUtils.readFileToString(EXPIRY_FILE, StandardCharsets.UTF_8));
+			for (String fileName : rootObject.keySet()) schedule(fileName, rootObject.getLong(fileName));
+			modified = false;
+		} catch (IOException | JSONException exception) {
+			LOGGER.warn("Failed to load file expirations", exception);
+		}
+	}
+
+	private synchronized void save() {
+		if (!modified) return;
+		try {
+			modified = false;
+			JSONObject rootObject = new JSONObject(expirations);
+			File tempFile = new File(EXPIRY_FILE.getPath() + ".tmp");
+			FileUtils.write(tempFile, rootObject.toString(), StandardCharsets.UTF_8);
+			Files.move(tempFile.toPath(), EXPIRY_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException exception) {
+			modified = true;
+			LOGGER.warn("Failed to save file expirations", exception);
+		}
+	}
+
+	@NotNull
+	public static FileExpiry get() {
+		return INSTANCE;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.expiry;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Hierarchical timing wheel with four levels of 64 slots. Scheduling is O(1) and every timer is
+ * moved to a lower level at most three times before it fires. With a tick of one second the levels
+ * cover about 194 days, later timers wait in an overflow list. Timers cannot be cancelled, so the
+ * owner has to check whether a fired timer is still current. Not thread-safe.
+ */
+public class TimingWheel {
+	private static final int LEVELS = 4;
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private final long tickMillis;
+	private final @NotNull List<List<Timer>> slots;
+	private @NotNull List<Timer> overflow;
+	private long currentTick;
+	private int size;
+
+	public TimingWheel(long tickMillis, long nowMillis) {
+		this.tickMillis = tickMillis;
+		this.slots = new ArrayList<>(LEVELS * SLOTS);
+		for (int i = 0; i < LEVELS * SLOTS; i++) slots.add(new ArrayList<>());
+		this.overflow = new ArrayList<>();
+		this.currentTick = nowMillis / tickMillis;
+	}
+
+	/**
+	 * Schedules a timer
+	 * @param key The key passed to the consumer when the timer fires
+	 * @param deadlineMillis The time to fire at as epoch milliseconds
+	 */
+	public void schedule(@NotNull String key, long deadlineMillis) {
+		//Round up, so a timer never fires before its deadline
+		long tick = (deadlineMillis + tickMillis - 1) / tickMillis;
+		add(new Timer(key, deadlineMillis, Math.max(tick, currentTick + 1)));
+		size++;
+	}
+
+	private void add(@NotNull Timer timer) {
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = level * SLOT_BITS;
+			if ((timer.tick >>> shift) - (currentTick >>> shift) < SLOTS) {
+				slots.get(level * SLOTS + (int) ((timer.tick >>> shift) & SLOT_MASK)).add(timer);
+				return;
+			}
+		}
+		overflow.add(timer);
+	}
+
+	/**
+	 * Advances the wheel and fires every timer whose deadline has passed
+	 * @param nowMillis The current time as epoch milliseconds
+	 * @param consumer Receives the key and deadline of every fired timer
+	 */
+	public void advance(long nowMillis, @NotNull BiConsumer<String, Long> consumer) {
+		long targetTick = nowMillis / tickMillis;
+		while (currentTick < targetTick) {
+			currentTick++;
+
+			//Move the timers of higher levels down once their slot is reached, highest level first
+			for (int level = LEVELS - 1; level > 0; level--) {
+				int shift = level * SLOT_BITS;
+				if ((currentTick & ((1L << shift) - 1)) != 0) continue;
+				if (level == LEVELS - 1) cascadeOverflow();
+
+				List<Timer> slot = slots.get(level * SLOTS + (int) ((currentTick >>> shift) & SLOT_MASK));
+				List<Timer> timers = new ArrayList<>(slot);
+				slot.clear();
+				timers.forEach(this::add);
+			}
+
+			List<Timer> slot = slots.get((int) (currentTick & SLOT_MASK));
+			for (Timer timer : slot) consumer.accept(timer.key, timer.deadline);
+			size -= slot.size();
+			slot.clear();
+		}
+	}
+
+	private void cascadeOverflow() {
+		List<Timer> timers = overflow;
+		overflow = new ArrayList<>();
+		timers.forEach(this::add);
+	}
+
+	/**
+	 * Gets the number of scheduled timers, including those that are no longer current
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static class Timer {
+		private final @NotNull String key;
+		private final long deadline;
+		private final long tick;
+
+		private Timer(@NotNull String key, long deadline, long tick) {
+			this.key = key;
+			this.deadline = deadline;
+			this.tick = tick;
+		}
+
+	}
+
+}
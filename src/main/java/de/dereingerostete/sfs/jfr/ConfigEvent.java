@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import jdk.jfr.*;
+
+@Name("de.dereingerostete.sfs.Config")
+@Label("Config Operation")
+@Category({"Static File Server", "Config"})
+@Description("A config file read from or written to disk")
+@StackTrace(false)
+public class ConfigEvent extends Event {
+	@Label("Config")
+	public String config;
+
+	@Label("Operation")
+	@Description("Either refresh or save")
+	public String operation;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import jdk.jfr.*;
+
+@Name("de.dereingerostete.sfs.Download")
+@Label("Download")
+@Category({"Static File Server", "Download"})
+@Description("A request for a file, from the start of its handling until the last byte was written")
+@StackTrace(false)
+public class DownloadEvent extends Event {
+	@Label("Endpoint")
+	public String endpoint;
+
+	@Label("File Name")
+	public String fileName;
+
+	@Label("Status")
+	public int status;
+
+	@Label("Bytes")
+	@DataAmount
+	@Description("The content length of the response, -1 if it was streamed without one")
+	public long bytes;
+
+	@Label("Range")
+	@Description("Whether only a range of the file was sent")
+	public boolean range;
+
+	@Label("Cache Hit")
+	@Description("Whether the file was stored locally, false if it was fetched from the origin in edge mode")
+	public boolean cacheHit;
+
+	@Label("Content Encoding")
+	public String contentEncoding;
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Records a {@link DownloadEvent} for every file request. Streamed bodies are written after the
+ * handler returned, so the event ends when the request completes, possibly on another thread.
+ */
+public class DownloadEventInterceptor implements HandlerInterceptor {
+	public static final @NotNull String ORIGIN_FETCH_ATTRIBUTE = "sfs.originFetch";
+	private static final @NotNull String EVENT_ATTRIBUTE = "sfs.downloadEvent";
+
+	@Override
+	public boolean preHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+							 @NotNull Object handler) {
+		//The async dispatch of a streamed body passes here again, the event started with the request
+		if (request.getAttribute(EVENT_ATTRIBUTE) != null) return true;
+
+		DownloadEvent event = new DownloadEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			request.setAttribute(EVENT_ATTRIBUTE, event);
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+								@NotNull Object handler, @Nullable Exception exception) {
+		if (!(request.getAttribute(EVENT_ATTRIBUTE) instanceof DownloadEvent event)) return;
+		event.end();
+		if (!event.shouldCommit()) return;
+
+		event.endpoint = request.getRequestURI();
+		event.fileName = request.getParameter("fileName");
+		event.status = exception != null && response.getStatus() < 400 ? 500 : response.getStatus();
+		event.bytes = getContentLength(response);
+		event.range = response.getStatus() == 206;
+		event.cacheHit = request.getAttribute(ORIGIN_FETCH_ATTRIBUTE) == null;
+		event.contentEncoding = response.getHeader(HttpHeaders.CONTENT_ENCODING);
+		event.commit();
+	}
+
+	private long getContentLength(@NotNull HttpServletResponse response) {
+		String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+		if (contentLength == null) return -1;
+		try {
+			return Long.parseLong(contentLength);
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+}
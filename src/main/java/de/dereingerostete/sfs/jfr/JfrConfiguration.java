@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class JfrConfiguration implements WebMvcConfigurer {
+
+	@Override
+	public void addInterceptors(@NotNull InterceptorRegistry registry) {
+		registry.addInterceptor(new DownloadEventInterceptor()).addPathPatterns("/download", "/preview", "/archive");
+	}
+
+}
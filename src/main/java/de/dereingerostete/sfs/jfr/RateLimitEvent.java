@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import jdk.jfr.*;
+
+@Name("de.dereingerostete.sfs.RateLimit")
+@Label("Rate Limit Rejection")
+@Category({"Static File Server", "Rate Limit"})
+@Description("A request rejected because its address exceeded the rate limit")
+@StackTrace(false)
+public class RateLimitEvent extends Event {
+	@Label("Address")
+	public String address;
+
+	@Label("Requests")
+	@Description("The requests of the address in the current window")
+	public long requests;
+
+	@Label("Shared")
+	@Description("Whether the counters are shared with the other nodes of the cluster")
+	public boolean shared;
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import jdk.jfr.*;
+
+@Name("de.dereingerostete.sfs.UploadChunk")
+@Label("Upload Chunk")
+@Category({"Static File Server", "Upload"})
+@Description("A chunk of a chunked upload written to the temporary directory")
+@StackTrace(false)
+public class UploadChunkEvent extends Event {
+	@Label("Upload Id")
+	public String uploadId;
+
+	@Label("Offset")
+	@DataAmount
+	public long offset;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+}
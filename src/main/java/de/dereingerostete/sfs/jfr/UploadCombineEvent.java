@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.jfr;
+
+import jdk.jfr.*;
+
+@Name("de.dereingerostete.sfs.UploadCombine")
+@Label("Upload Combine")
+@Category({"Static File Server", "Upload"})
+@Description("The chunks of a finished upload combined into one file")
+@StackTrace(false)
+public class UploadCombineEvent extends Event {
+	@Label("Upload Id")
+	public String uploadId;
+
+	@Label("File Name")
+	public String fileName;
+
+	@Label("Chunks")
+	public int chunks;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+}
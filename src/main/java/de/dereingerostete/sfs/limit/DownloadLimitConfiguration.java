@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.limit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Configuration
+public class DownloadLimitConfiguration {
+
+	@Bean
+	public FilterRegistrationBean<DownloadLimitFilter> downloadLimitFilter(
+			@Value("${sfs.download.max-concurrent-per-address:16}") int maxConcurrent,
+			@Value("${sfs.download.min-throughput:1KB}") DataSize minThroughput,
+			@Value("${sfs.download.throughput-window:30s}") Duration throughputWindow) {
+		DownloadLimitFilter filter = new DownloadLimitFilter(maxConcurrent, minThroughput.toBytes(),
+				throughputWindow.toSeconds());
+		FilterRegistrationBean<DownloadLimitFilter> registration = new FilterRegistrationBean<>(filter);
+		registration.addUrlPatterns("/download", "/preview", "/archive");
+		return registration;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.limit;
+
+import de.dereingerostete.sfs.util.ConcurrencyLimiter;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Limits the number of downloads a remote address can have open at once and aborts
+ * downloads of clients that read slower than the minimum throughput. The permit of a
+ * download is released when the response completes, fails or times out.
+ */
+public class DownloadLimitFilter extends OncePerRequestFilter {
+	private static final long RETRY_AFTER_SECONDS = 5;
+	private final @NotNull ConcurrencyLimiter limiter;
+	private final long minBytesPerSecond;
+	private final long windowSeconds;
+
+	/**
+	 * @param maxConcurrent The maximum number of open downloads per address
+	 * @param minBytesPerSecond The minimum throughput of a download or 0 to disable the check
+	 * @param windowSeconds The time over which the throughput is measured
+	 */
+	public DownloadLimitFilter(int maxConcurrent, long minBytesPerSecond, long windowSeconds) {
+		this.limiter = new ConcurrencyLimiter(maxConcurrent);
+		this.minBytesPerSecond = minBytesPerSecond;
+		this.windowSeconds = windowSeconds;
+	}
+
+	@Override
+	protected void doFilterInternal(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+									@NotNull FilterChain filterChain) throws ServletException, IOException {
+		String address = request.getRemoteAddr();
+		ConcurrencyLimiter.Permit permit = limiter.tryAcquire(address);
+		if (permit == null) {
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+			response.sendError(429);
+			return;
+		}
+
+		HttpServletResponse guardedResponse = minBytesPerSecond <= 0 ? response : new GuardedResponse(response, address);
+		try {
+			filterChain.doFilter(request, guardedResponse);
+		} finally {
+			if (request.isAsyncStarted()) request.getAsyncContext().addListener(new ReleaseListener(permit));
+			else permit.release();
+		}
+	}
+
+	private class GuardedResponse extends HttpServletResponseWrapper {
+		private final @NotNull String address;
+		private ServletOutputStream outputStream;
+
+		private GuardedResponse(@NotNull HttpServletResponse response, @NotNull String address) {
+			super(response);
+			this.address = address;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				outputStream = new ThroughputGuardOutputStream(super.getOutputStream(), address,
+						minBytesPerSecond, windowSeconds);
+			}
+			return outputStream;
+		}
+
+	}
+
+	private static class ReleaseListener implements AsyncListener {
+		private final @NotNull ConcurrencyLimiter.Permit permit;
+
+		private ReleaseListener(@NotNull ConcurrencyLimiter.Permit permit) {
+			this.permit = permit;
+		}
+
+		@Override
+		public void onComplete(@NotNull AsyncEvent event) {
+			permit.release();
+		}
+
+		@Override
+		public void onTimeout(@NotNull AsyncEvent event) {
+			permit.release();
+		}
+
+		@Override
+		public void onError(@NotNull AsyncEvent event) {
+			permit.release();
+		}
+
+		@Override
+		public void onStartAsync(@NotNull AsyncEvent event) {
+			//Keep listening if the request is processed asynchronously again
+			event.getAsyncContext().addListener(this);
+		}
+
+	}
+
+}
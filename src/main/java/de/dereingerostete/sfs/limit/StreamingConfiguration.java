@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.limit;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Runs streamed responses on a bounded pool instead of the shared application task executor,
+ * whose queue is unbounded. When every streaming thread is busy, a response is streamed on the
+ * request thread, like a download that is not streamed.
+ */
+@Configuration
+public class StreamingConfiguration implements WebMvcConfigurer, DisposableBean {
+	private final @NotNull ThreadPoolTaskExecutor executor;
+
+	public StreamingConfiguration(@Value("${sfs.download.max-streams:200}") int maxStreams) {
+		if (maxStreams < 1) throw new IllegalStateException("sfs.download.max-streams must be at least 1");
+		this.executor = new ThreadPoolTaskExecutor();
+		executor.setThreadNamePrefix("stream-");
+		executor.setCorePoolSize(maxStreams);
+		executor.setMaxPoolSize(maxStreams);
+		executor.setQueueCapacity(0);
+		executor.setAllowCoreThreadTimeOut(true);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.initialize();
+	}
+
+	@Override
+	public void configureAsyncSupport(@NotNull AsyncSupportConfigurer configurer) {
+		configurer.setTaskExecutor(executor);
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.limit;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Response stream which aborts the response if the client reads slower than a minimum throughput.
+ * Writes are split into slices, so a slow client is checked after every slice instead of once
+ * per large buffer. Clients which stop reading entirely are ended by the write timeout of the container.
+ */
+public class ThroughputGuardOutputStream extends ServletOutputStream {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final int SLICE_SIZE = 16 * 1024;
+	private final @NotNull ServletOutputStream outputStream;
+	private final @NotNull String address;
+	private final long minBytesPerSecond;
+	private final long windowNanos;
+	private long windowStart;
+	private long windowBytes;
+	private boolean aborted;
+
+	/**
+	 * @param outputStream The stream of the response
+	 * @param address The remote address of the client
+	 * @param minBytesPerSecond The minimum throughput
+	 * @param windowSeconds The time over which the throughput is measured
+	 */
+	public ThroughputGuardOutputStream(@NotNull ServletOutputStream outputStream, @NotNull String address,
+									   long minBytesPerSecond, long windowSeconds) {
+		this.outputStream = outputStream;
+		this.address = address;
+		this.minBytesPerSecond = minBytesPerSecond;
+		this.windowNanos = windowSeconds * 1_000_000_000L;
+		this.windowStart = System.nanoTime();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (aborted) throw new SlowClientException("Download was aborted");
+		outputStream.write(b);
+		count(1);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (aborted) throw new SlowClientException("Download was aborted");
+		while (length > 0) {
+			int slice = Math.min(length, SLICE_SIZE);
+			outputStream.write(bytes, offset, slice);
+			count(slice);
+			offset += slice;
+			length -= slice;
+		}
+	}
+
+	private void count(int bytes) throws IOException {
+		windowBytes += bytes;
+		long now = System.nanoTime();
+		if (now - windowStart < windowNanos) return;
+
+		long elapsedNanos = now - windowStart;
+		double bytesPerSecond = windowBytes / (elapsedNanos / 1e9);
+		if (bytesPerSecond < minBytesPerSecond) {
+			aborted = true;
+			LOGGER.info("Aborted download of slow client {} after it read {} bytes in {}ms",
+					address, windowBytes, elapsedNanos / 1_000_000);
+			throw new SlowClientException("Client is reading too slowly");
+		}
+		windowStart = now;
+		windowBytes = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		outputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		outputStream.close();
+	}
+
+	@Override
+	public boolean isReady() {
+		return outputStream.isReady();
+	}
+
+	@Override
+	public void setWriteListener(@NotNull WriteListener writeListener) {
+		outputStream.setWriteListener(writeListener);
+	}
+
+	public static class SlowClientException extends IOException {
+
+		public SlowClientException(@NotNull String message) {
+			super(message);
+		}
+
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.logging;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often a frequent event is logged, so floods of failed requests cannot fill the log.
+ * At most a configured number of events are logged per second, the others are only counted
+ * and reported with the next logged event.
+ */
+public class LogSampler {
+	public static final @NotNull LogSampler AUTH_FAILURES = new LogSampler();
+	public static final @NotNull LogSampler NOT_FOUND = new LogSampler();
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private final @NotNull AtomicLong windowStart;
+	private final @NotNull AtomicInteger count;
+	private final @NotNull AtomicLong suppressed;
+	private volatile int limit;
+
+	private LogSampler() {
+		this.windowStart = new AtomicLong(System.nanoTime() - WINDOW_NANOS);
+		this.count = new AtomicInteger();
+		this.suppressed = new AtomicLong();
+		this.limit = 10;
+	}
+
+	/**
+	 * Sets the maximum number of events logged per second
+	 * @param limit The limit, 0 disables logging the events
+	 */
+	public void setLimit(int limit) {
+		if (limit < 0) throw new IllegalArgumentException("Limit cannot be negative");
+		this.limit = limit;
+	}
+
+	public void info(@NotNull Logger logger, @NotNull String format, @Nullable Object argument) {
+		if (!logger.isInfoEnabled() || !sample()) return;
+		long suppressedCount = suppressed.getAndSet(0);
+		if (suppressedCount == 0) logger.info(format, argument);
+		else logger.info(format + " ({} similar events suppressed)", argument, suppressedCount);
+	}
+
+	public void info(@NotNull Logger logger, @NotNull String format, @Nullable Object first, @Nullable Object second) {
+		if (!logger.isInfoEnabled() || !sample()) return;
+		long suppressedCount = suppressed.getAndSet(0);
+		if (suppressedCount == 0) logger.info(format, first, second);
+		else logger.info(format + " ({} similar events suppressed)", first, second, suppressedCount);
+	}
+
+	/**
+	 * Checks whether the next event is within the limit of the current window
+	 * @return True if it should be logged, otherwise it is counted as suppressed
+	 */
+	private boolean sample() {
+		int currentLimit = limit;
+		if (currentLimit == 0) return false;
+
+		long now = System.nanoTime();
+		long start = windowStart.get();
+		if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) count.set(0);
+		if (count.incrementAndGet() <= currentLimit) return true;
+
+		suppressed.incrementAndGet();
+		return false;
+	}
+
+}
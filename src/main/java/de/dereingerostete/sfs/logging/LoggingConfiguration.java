@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.logging;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the sampling of frequent log events. The asynchronous appenders
+ * are set up in logback-spring.xml, which reads the queue size from the same section.
+ */
+@Configuration
+public class LoggingConfiguration {
+
+	public LoggingConfiguration(@Value("${sfs.logging.sample.auth-failures:10}") int authFailures,
+								@Value("${sfs.logging.sample.not-found:10}") int notFound) {
+		if (authFailures < 0 || notFound < 0)
+			throw new IllegalStateException("sfs.logging.sample limits cannot be negative");
+		LogSampler.AUTH_FAILURES.setLimit(authFailures);
+		LogSampler.NOT_FOUND.setLimit(notFound);
+	}
+
+}
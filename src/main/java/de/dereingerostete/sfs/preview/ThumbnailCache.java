@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.preview;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * On-disk cache of downscaled image previews. Thumbnails are generated in the background
+ * on a bounded worker pool, and the least recently used ones are evicted once the cache
+ * exceeds its maximum size.
+ */
+public class ThumbnailCache {
+	public static final @NotNull List<Integer> WIDTHS = List.of(160, 320, 640);
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull Set<String> SUPPORTED_EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+	private static final @NotNull File CACHE_DIRECTORY = new File("thumbnails");
+	private static final @NotNull ThumbnailCache INSTANCE = new ThumbnailCache();
+	private static final long MAX_CACHE_SIZE = 512L * 1024 * 1024; //512MB
+	private static final long MAX_PIXELS = 50_000_000;
+	private static final int QUEUE_SIZE = 256;
+
+	private final @NotNull ThreadPoolExecutor executor;
+	private final @NotNull Map<File, Long> entrySizes;
+	private final @NotNull Set<String> pending;
+	private final @NotNull Cache<String, Integer> sourceWidths;
+	private long cacheSize;
+
+	private ThumbnailCache() {
+		if (!CACHE_DIRECTORY.exists() && !CACHE_DIRECTORY.mkdir())
+			throw new IllegalStateException("Failed to create thumbnail directory");
+
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(QUEUE_SIZE));
+		entrySizes = new LinkedHashMap<>(16, 0.75F, true);
+		pending = ConcurrentHashMap.newKeySet();
+		sourceWidths = Caffeine.newBuilder().maximumSize(10_000).build();
+
+		File[] files = CACHE_DIRECTORY.listFiles();
+		if (files == null) return;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			//Left over from an interrupted generation
+			if (file.getName().endsWith(".tmp")) {
+				if (!file.delete()) LOGGER.warn("Failed to delete temporary thumbnail {}", file.getName());
+				continue;
+			}
+
+			entrySizes.put(file, file.length());
+			cacheSize += file.length();
+		}
+	}
+
+	/**
+	 * Gets the thumbnail of a file with the given width
+	 * @param source The original file
+	 * @param width One of the supported {@link #WIDTHS}
+	 * @return The thumbnail or null if the original should be served instead. A missing thumbnail gets scheduled.
+	 */
+	@Nullable
+	public File get(@NotNull File source, int width) {
+		if (!isSupported(source)) return null;
+		Integer sourceWidth = sourceWidths.getIfPresent(getSourceKey(source));
+		if (sourceWidth != null && width >= sourceWidth) return null;
+
+		File thumbnail = getThumbnailFile(source, width);
+		synchronized (this) {
+			//Looking up the entry marks it as recently used
+			if (entrySizes.get(thumbnail) != null && thumbnail.lastModified() >= source.lastModified()) {
+				return thumbnail;
+			}
+		}
+
+		schedule(source);
+		return null;
+	}
+
+	/**
+	 * Schedules the generation of all thumbnail sizes of a file.
+	 * Does nothing if the file is not an image or the worker queue is full.
+	 * @param source The original file
+	 */
+	public void schedule(@NotNull File source) {
+		if (!isSupported(source)) return;
+		String key = getSourceKey(source);
+		Integer sourceWidth = sourceWidths.getIfPresent(key);
+		if ((sourceWidth != null && sourceWidth == 0) || !pending.add(source.getName())) return;
+
+		try {
+			executor.execute(() -> {
+				try {
+					generate(source);
+				} catch (IOException | RuntimeException exception) {
+					LOGGER.warn("Failed to generate thumbnails for {}", source.getName(), exception);
+					sourceWidths.put(key, 0);
+				} finally {
+					pending.remove(source.getName());
+				}
+			});
+		} catch (RejectedExecutionException exception) {
+			pending.remove(source.getName());
+		}
+	}
+
+	private void generate(@NotNull File source) throws IOException {
+		String key = getSourceKey(source);
+		BufferedImage image = readImage(source);
+		if (image == null) {
+			sourceWidths.put(key, 0);
+			return;
+		}
+
+		String format = getFormat(source);
+		for (int width : WIDTHS) {
+			if (width >= image.getWidth()) continue;
+			int height = Math.max(1, (int) Math.round(image.getHeight() * (width / (double) image.getWidth())));
+
+			int type = format.equals("jpg") ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+			BufferedImage scaled = new BufferedImage(width, height, type);
+			Graphics2D graphics = scaled.createGraphics();
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(image, 0, 0, width, height, null);
+			graphics.dispose();
+
+			File thumbnail = getThumbnailFile(source, width);
+			File tempFile = new File(CACHE_DIRECTORY, thumbnail.getName() + ".tmp");
+			if (!ImageIO.write(scaled, format, tempFile)) throw new IOException("No writer for format " + format);
+			Files.move(tempFile.toPath(), thumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			add(thumbnail);
+		}
+		sourceWidths.put(key, image.getWidth());
+	}
+
+	/**
+	 * Reads an image if its dimensions are within the decoding limit
+	 * @return The image or null if the file is not a readable image or too large
+	 */
+	@Nullable
+	private BufferedImage readImage(@NotNull File source) throws IOException {
+		try (ImageInputStream inputStream = ImageIO.createImageInputStream(source)) {
+			if (inputStream == null) return null;
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+			if (!readers.hasNext()) return null;
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(inputStream, true, true);
+				long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+				if (pixels > MAX_PIXELS) {
+					LOGGER.info("Skipping thumbnails for {}: Image is too large", source.getName());
+					return null;
+				}
+				return reader.read(0);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private synchronized void add(@NotNull File thumbnail) {
+		long length = thumbnail.length();
+		Long previous = entrySizes.put(thumbnail, length);
+		cacheSize += length - (previous == null ? 0 : previous);
+		evict();
+	}
+
+	/**
+	 * Removes all thumbnails of a file, for example after it was deleted
+	 * @param source The original file
+	 */
+	public synchronized void invalidate(@NotNull File source) {
+		for (int width : WIDTHS) {
+			File thumbnail = getThumbnailFile(source, width);
+			Long length = entrySizes.remove(thumbnail);
+			if (length == null) continue;
+			cacheSize -= length;
+			if (!thumbnail.delete()) LOGGER.warn("Failed to delete thumbnail {}", thumbnail.getName());
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<File, Long>> iterator = entrySizes.entrySet().iterator();
+		while (cacheSize > MAX_CACHE_SIZE && iterator.hasNext()) {
+			Map.Entry<File, Long> entry = iterator.next();
+			File file = entry.getKey();
+			long length = entry.getValue();
+			iterator.remove();
+			cacheSize -= length;
+			if (!file.delete()) LOGGER.warn("Failed to evict thumbnail {}", file.getName());
+		}
+	}
+
+	public boolean isSupported(@NotNull File source) {
+		String extension = FilenameUtils.getExtension(source.getName()).toLowerCase(Locale.ROOT);
+		return SUPPORTED_EXTENSIONS.contains(extension);
+	}
+
+	@NotNull
+	private File getThumbnailFile(@NotNull File source, int width) {
+		return new File(CACHE_DIRECTORY, width + "-" + source.getName() + "." + getFormat(source));
+	}
+
+	@NotNull
+	private String getFormat(@NotNull File source) {
+		String extension = FilenameUtils.getExtension(source.getName()).toLowerCase(Locale.ROOT);
+		return extension.equals("jpg") || extension.equals("jpeg") ? "jpg" : "png";
+	}
+
+	@NotNull
+	private String getSourceKey(@NotNull File source) {
+		return source.getName() + ":" + source.lastModified();
+	}
+
+	@NotNull
+	public static ThumbnailCache get() {
+		return INSTANCE;
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.startup;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Probes for load balancers. The server is live as soon as it accepts connections,
+ * but only ready for full traffic once the warm-up has finished without a required task failing.
+ */
+@RestController
+public class HealthController {
+	private final @NotNull ApplicationAvailability availability;
+	private final @NotNull WarmUp warmUp;
+
+	public HealthController(@NotNull ApplicationAvailability availability, @NotNull WarmUp warmUp) {
+		this.availability = availability;
+		this.warmUp = warmUp;
+	}
+
+	@RequestMapping(path = "/health/live", method = RequestMethod.GET)
+	public ResponseEntity<Object> live() {
+		boolean live = availability.getLivenessState() == LivenessState.CORRECT;
+		JSONObject responseObject = new JSONObject();
+		responseObject.put("status", live ? "UP" : "DOWN");
+		return ResponseEntity.status(live ? 200 : 503)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(responseObject.toString());
+	}
+
+	@RequestMapping(path = "/health/ready", method = RequestMethod.GET)
+	public ResponseEntity<Object> ready() {
+		boolean accepting = availability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC;
+		boolean warm = warmUp.isFinished();
+		List<String> failed = warmUp.getFailedRequiredTasks();
+
+		Map<String, WarmUp.State> states = warmUp.getStates();
+		long done = states.values().stream().filter(state -> state == WarmUp.State.DONE
+				|| state == WarmUp.State.FAILED).count();
+
+		JSONObject responseObject = new JSONObject();
+		String status = !accepting ? "REFUSING_TRAFFIC" : !failed.isEmpty() ? "FAILED" : warm ? "READY" : "WARMING_UP";
+		responseObject.put("status", status);
+		responseObject.put("progress", done + "/" + states.size());
+		responseObject.put("tasks", states);
+		if (!failed.isEmpty()) responseObject.put("failed", failed);
+		return ResponseEntity.status(accepting && warm && failed.isEmpty() ? 200 : 503)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(responseObject.toString());
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.startup;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.controller.DownloadController;
+import de.dereingerostete.sfs.expiry.FileExpiry;
+import de.dereingerostete.sfs.preview.ThumbnailCache;
+import de.dereingerostete.sfs.stats.FileStatistics;
+import de.dereingerostete.sfs.util.UrlSigner;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Builds indexes and primes caches in the background once the server accepts connections.
+ * Until a task is done, requests use the slow path of the respective component,
+ * for example the token config is read on the first access and the known files filter lets every name pass.
+ * Failed required tasks are retried with a growing delay, a malformed config stops the server as before.
+ */
+@Component
+public class WarmUp implements ApplicationListener<ApplicationReadyEvent> {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+	private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+	private final @NotNull Map<String, Runnable> tasks = new LinkedHashMap<>();
+	private final @NotNull Map<String, State> states = new LinkedHashMap<>();
+	private final @NotNull Set<String> required = new HashSet<>();
+	private final @NotNull Map<String, Throwable> failures = new HashMap<>();
+
+	public WarmUp() {
+		//Requests cannot be served if a required task fails, the others only lose their fast path
+		addTask("token-config", true, () -> StaticFileServerApplication.getTokenConfig().getRootObject());
+		addTask("user-config", true, () -> StaticFileServerApplication.getUserConfig().getRootObject());
+		addTask("known-files", false, DownloadController.KNOWN_FILES::rebuild);
+		addTask("url-signer", true, UrlSigner::get);
+		addTask("statistics", false, FileStatistics::get);
+		addTask("thumbnails", false, ThumbnailCache::get);
+		addTask("expiry", false, FileExpiry::get);
+	}
+
+	private void addTask(@NotNull String name, boolean required, @NotNull Runnable task) {
+		tasks.put(name, task);
+		states.put(name, State.PENDING);
+		if (required) this.required.add(name);
+	}
+
+	@Override
+	public void onApplicationEvent(@NotNull ApplicationReadyEvent event) {
+		ConfigurableApplicationContext context = event.getApplicationContext();
+		Thread thread = new Thread(() -> run(context), "WarmUp");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void run(@NotNull ConfigurableApplicationContext context) {
+		long start = System.currentTimeMillis();
+		List<String> failed = new ArrayList<>();
+		tasks.forEach((name, task) -> {
+			if (!runTask(name, task)) failed.add(name);
+		});
+		LOGGER.info("Warm-up finished in {}ms", System.currentTimeMillis() - start);
+
+		//A broken config cannot fix itself, the server refuses to start as it did before the warm-up existed
+		for (String name : failed) {
+			if (required.contains(name) && isMalformedConfig(name)) {
+				LOGGER.error("Stopping the server, because warm-up task {} found a malformed config", name);
+				System.exit(SpringApplication.exit(context, () -> 1));
+			}
+		}
+
+		//The component keeps using its slow path, which may work again later, for example once a disk is back
+		failed.retainAll(required);
+		long delay = INITIAL_RETRY_DELAY_MILLIS;
+		while (!failed.isEmpty()) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			failed.removeIf(name -> runTask(name, tasks.get(name)));
+			delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+		}
+	}
+
+	/**
+	 * Runs a task and records its state
+	 * @return Whether the task succeeded
+	 */
+	private boolean runTask(@NotNull String name, @NotNull Runnable task) {
+		setState(name, State.RUNNING);
+		try {
+			task.run();
+			setState(name, State.DONE);
+			return true;
+		} catch (RuntimeException | ExceptionInInitializerError exception) {
+			LOGGER.warn("Warm-up task {} failed", name, exception);
+			failures.put(name, exception);
+			setState(name, State.FAILED);
+			return false;
+		}
+	}
+
+	private boolean isMalformedConfig(@NotNull String name) {
+		Throwable cause = failures.get(name);
+		while (cause != null) {
+			if (cause instanceof JSONException) return true;
+			cause = cause.getCause();
+		}
+		return false;
+	}
+
+	private synchronized void setState(@NotNull String name, @NotNull State state) {
+		states.put(name, state);
+	}
+
+	/**
+	 * Gets the state of every task in the order they are run
+	 */
+	@NotNull
+	public synchronized Map<String, State> getStates() {
+		return new LinkedHashMap<>(states);
+	}
+
+	/**
+	 * Checks whether every task has ended, failed tasks included
+	 */
+	public synchronized boolean isFinished() {
+		return states.values().stream().allMatch(state -> state == State.DONE || state == State.FAILED);
+	}
+
+	/**
+	 * Gets the names of the failed tasks without which requests cannot be served
+	 */
+	@NotNull
+	public synchronized List<String> getFailedRequiredTasks() {
+		List<String> failed = new ArrayList<>();
+		states.forEach((name, state) -> {
+			if (state == State.FAILED && required.contains(name)) failed.add(name);
+		});
+		return failed;
+	}
+
+	public enum State {
+		PENDING,
+		RUNNING,
+		DONE,
+		FAILED
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.stats;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Download counters of a single file. {@link LongAdder}s are striped internally,
+ * so concurrent downloads of the same file do not contend on one counter.
+ */
+@Getter
+public class FileCounters {
+	private final @NotNull LongAdder requests = new LongAdder();
+	private final @NotNull LongAdder bytes = new LongAdder();
+	private final @NotNull LongAdder notModified = new LongAdder();
+	private final @NotNull LongAdder partial = new LongAdder();
+
+	//Values at the end of the last window bucket, only accessed by the statistics thread
+	long lastRequests;
+	long lastBytes;
+
+}
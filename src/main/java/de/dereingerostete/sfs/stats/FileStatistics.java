@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.stats;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.storage.TieredStorage;
+import lombok.Data;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-file download statistics. Request threads only increment striped counters;
+ * a background thread folds the per-minute deltas into heavy hitters sketches,
+ * which answer top-N queries over sliding windows with bounded memory.
+ * The all-time counters are persisted periodically.
+ */
+public class FileStatistics {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull File STATISTICS_FILE = new File("statistics.json");
+	private static final @NotNull FileStatistics INSTANCE = new FileStatistics();
+	private static final int SKETCH_CAPACITY = 256;
+	private static final int MINUTE_BUCKETS = 60;
+	private static final int HOUR_BUCKETS = 24;
+	private static final long SAVE_INTERVAL_MINUTES = 5;
+
+	private final @NotNull Map<String, FileCounters> counters;
+	private final @NotNull Deque<Bucket> minuteBuckets;
+	private final @NotNull Deque<Bucket> hourBuckets;
+	private @NotNull Bucket currentHour;
+	private int minutesInHour;
+
+	private FileStatistics() {
+		this.counters = new ConcurrentHashMap<>();
+		this.minuteBuckets = new ArrayDeque<>();
+		this.hourBuckets = new ArrayDeque<>();
+		this.currentHour = new Bucket();
+		load();
+
+		ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "FileStatistics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.MINUTES);
+		service.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::save, "FileStatisticsSave"));
+	}
+
+	/**
+	 * Records a served request of a file
+	 * @param fileName The name of the file
+	 * @param status The status code of the response
+	 * @param bytes The number of bytes sent or -1 if unknown
+	 */
+	public void record(@NotNull String fileName, int status, long bytes) {
+		FileCounters fileCounters = counters.computeIfAbsent(fileName, ignored -> new FileCounters());
+		fileCounters.getRequests().increment();
+		if (bytes > 0) fileCounters.getBytes().add(bytes);
+		if (status == 304) fileCounters.getNotModified().increment();
+		else if (status == 206) fileCounters.getPartial().increment();
+	}
+
+	@Nullable
+	public FileCounters getCounters(@NotNull String fileName) {
+		return counters.get(fileName);
+	}
+
+	/**
+	 * Gets the estimated top files of a window
+	 * @param minutes The length of the window in minutes, up to one day
+	 * @param byBytes Whether to rank by bytes instead of requests
+	 * @param limit The maximum number of files
+	 * @return The files with their estimated requests and bytes, ordered by the ranking
+	 */
+	@NotNull
+	public synchronized List<Entry> getTop(int minutes, boolean byBytes, int limit) {
+		Map<String, Long> requests = new HashMap<>();
+		Map<String, Long> bytes = new HashMap<>();
+		if (minutes <= MINUTE_BUCKETS) {
+			Iterator<Bucket> iterator = minuteBuckets.descendingIterator();
+			for (int i = 0; i < minutes && iterator.hasNext(); i++) iterator.next().addTo(requests, bytes);
+		} else {
+			currentHour.addTo(requests, bytes);
+			Iterator<Bucket> iterator = hourBuckets.descendingIterator();
+			int hours = (minutes + 59) / 60;
+			for (int i = 1; i < hours && iterator.hasNext(); i++) iterator.next().addTo(requests, bytes);
+		}
+
+		Map<String, Long> ranking = byBytes ? bytes : requests;
+		return ranking.entrySet().stream()
+				.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+				.limit(limit)
+				.map(entry -> new Entry(entry.getKey(), requests.getOrDefault(entry.getKey(), 0L),
+						bytes.getOrDefault(entry.getKey(), 0L)))
+				.toList();
+	}
+
+	/**
+	 * Gets the top files since the statistics were created, using the exact counters
+	 */
+	@NotNull
+	public List<Entry> getTopAllTime(boolean byBytes, int limit) {
+		Comparator<Entry> comparator = Comparator.comparingLong(byBytes ? Entry::getBytes : Entry::getRequests);
+		return counters.entrySet().stream()
+				.map(entry -> new Entry(entry.getKey(), entry.getValue().getRequests().sum(),
+						entry.getValue().getBytes().sum()))
+				.sorted(comparator.reversed())
+				.limit(limit)
+				.toList();
+	}
+
+	private synchronized void tick() {
+		try {
+			Bucket bucket = new Bucket();
+			counters.forEach((fileName, fileCounters) -> {
+				long requests = fileCounters.getRequests().sum();
+				long bytes = fileCounters.getBytes().sum();
+				bucket.requests.add(fileName, requests - fileCounters.lastRequests);
+				bucket.bytes.add(fileName, bytes - fileCounters.lastBytes);
+				fileCounters.lastRequests = requests;
+				fileCounters.lastBytes = bytes;
+			});
+
+			minuteBuckets.addLast(bucket);
+			if (minuteBuckets.size() > MINUTE_BUCKETS) minuteBuckets.removeFirst();
+			bucket.mergeInto(currentHour);
+
+			if (++minutesInHour >= 60) {
+				hourBuckets.addLast(currentHour);
+				if (hourBuckets.size() > HOUR_BUCKETS) hourBuckets.removeFirst();
+				currentHour = new Bucket();
+				minutesInHour = 0;
+			}
+		} catch (RuntimeException exception) {
+			LOGGER.warn("Failed to update file statistics", exception);
+		}
+	}
+
+	private void load() {
+		if (!STATISTICS_FILE.exists()) return;
+		try {
+			JSONObject rootObject = new JSONObject(FileUtils.readFileToString(STATISTICS_FILE, StandardCharsets.UTF_8));
+			for (String fileName : rootObject.keySet()) {
+				JSONObject fileObject = rootObject.getJSONObject(fileName);
+				FileCounters fileCounters = new FileCounters();
+				fileCounters.getRequests().add(fileObject.optLong("requests"));
+				fileCounters.getBytes().add(fileObject.optLong("bytes"));
+				fileCounters.getNotModified().add(fileObject.optLong("notModified"));
+				fileCounters.getPartial().add(fileObject.optLong("partial"));
+				fileCounters.lastRequests = fileCounters.getRequests().sum();
+				fileCounters.lastBytes = fileCounters.getBytes().sum();
+				counters.put(fileName, fileCounters);
+			}
+		} catch (IOException | JSONException exception) {
+			LOGGER.warn("Failed to load file statistics", exception);
+		}
+	}
+
+	private void save() {
+		try {
+			JSONObject rootObject = new JSONObject();
+			Iterator<Map.Entry<String, FileCounters>> iterator = counters.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, FileCounters> entry = iterator.next();
+				String fileName = entry.getKey();
+				//Forget deleted files
+				if (!TieredStorage.get().exists(fileName)) {
+					iterator.remove();
+					continue;
+				}
+
+				FileCounters fileCounters = entry.getValue();
+				JSONObject fileObject = new JSONObject();
+				fileObject.put("requests", fileCounters.getRequests().sum());
+				fileObject.put("bytes", fileCounters.getBytes().sum());
+				fileObject.put("notModified", fileCounters.getNotModified().sum());
+				fileObject.put("partial", fileCounters.getPartial().sum());
+				rootObject.put(fileName, fileObject);
+			}
+
+			File tempFile = new File(STATISTICS_FILE.getPath() + ".tmp");
+			FileUtils.write(tempFile, rootObject.toString(), StandardCharsets.UTF_8);
+			Files.move(tempFile.toPath(), STATISTICS_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException exception) {
+			LOGGER.warn("Failed to save file statistics", exception);
+		}
+	}
+
+	@NotNull
+	public static FileStatistics get() {
+		return INSTANCE;
+	}
+
+	@Data
+	public static class Entry {
+		private final @NotNull String fileName;
+		private final long requests;
+		private final long bytes;
+	}
+
+	private static class Bucket {
+		private final @NotNull SpaceSavingSketch requests = new SpaceSavingSketch(SKETCH_CAPACITY);
+		private final @NotNull SpaceSavingSketch bytes = new SpaceSavingSketch(SKETCH_CAPACITY);
+
+		private void addTo(@NotNull Map<String, Long> requestCounts, @NotNull Map<String, Long> byteCounts) {
+			requests.addTo(requestCounts);
+			bytes.addTo(byteCounts);
+		}
+
+		private void mergeInto(@NotNull Bucket target) {
+			Map<String, Long> requestCounts = new HashMap<>();
+			Map<String, Long> byteCounts = new HashMap<>();
+			addTo(requestCounts, byteCounts);
+			requestCounts.forEach(target.requests::add);
+			byteCounts.forEach(target.bytes::add);
+		}
+
+	}
+
+}
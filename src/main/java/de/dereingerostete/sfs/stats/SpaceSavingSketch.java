@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Space-Saving heavy hitters sketch. Keeps at most a fixed number of keys; when a new key
+ * arrives while the sketch is full, it replaces the key with the smallest count and inherits
+ * that count. Every key whose real count exceeds total / capacity is guaranteed to be kept.
+ * Not thread-safe.
+ */
+public class SpaceSavingSketch {
+	private final int capacity;
+	private final @NotNull Map<String, Long> counts;
+	private final @NotNull TreeMap<Long, Set<String>> keysByCount;
+
+	public SpaceSavingSketch(int capacity) {
+		this.capacity = capacity;
+		this.counts = new HashMap<>();
+		this.keysByCount = new TreeMap<>();
+	}
+
+	public void add(@NotNull String key, long weight) {
+		if (weight <= 0) return;
+		Long count = counts.get(key);
+		if (count == null && counts.size() >= capacity) {
+			//Replace the key with the smallest count
+			Map.Entry<Long, Set<String>> smallest = keysByCount.firstEntry();
+			String evicted = smallest.getValue().iterator().next();
+			removeIndex(evicted, smallest.getKey());
+			counts.remove(evicted);
+			count = smallest.getKey();
+		} else if (count != null) removeIndex(key, count);
+
+		long newCount = (count == null ? 0 : count) + weight;
+		counts.put(key, newCount);
+		keysByCount.computeIfAbsent(newCount, ignored -> new HashSet<>()).add(key);
+	}
+
+	private void removeIndex(@NotNull String key, long count) {
+		Set<String> keys = keysByCount.get(count);
+		keys.remove(key);
+		if (keys.isEmpty()) keysByCount.remove(count);
+	}
+
+	/**
+	 * Adds all estimated counts of this sketch to a map
+	 */
+	public void addTo(@NotNull Map<String, Long> target) {
+		counts.forEach((key, count) -> target.merge(key, count, Long::sum));
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.stats;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Counts every successfully served file in the {@link FileStatistics}
+ */
+public class StatisticsInterceptor implements HandlerInterceptor {
+
+	@Override
+	public void afterCompletion(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response,
+								@NotNull Object handler, @Nullable Exception exception) {
+		int status = response.getStatus();
+		if (exception != null || (status != 200 && status != 206 && status != 304)) return;
+
+		String fileName = request.getParameter("fileName");
+		if (fileName == null) return;
+		FileStatistics.get().record(fileName, status, getContentLength(response));
+	}
+
+	private long getContentLength(@NotNull HttpServletResponse response) {
+		String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+		if (contentLength == null) return -1;
+		try {
+			return Long.parseLong(contentLength);
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.time.Duration;
+
+@Configuration
+public class StorageConfiguration {
+
+	public StorageConfiguration(@Value("${sfs.storage.cold-directory:}") String coldDirectory,
+								@Value("${sfs.storage.fast-max-size:0}") DataSize fastMaxSize,
+								@Value("${sfs.storage.demote-after:7d}") Duration demoteAfter,
+								@Value("${sfs.storage.promote-threshold:8}") double promoteThreshold,
+								@Value("${sfs.storage.move-interval:10m}") Duration moveInterval,
+								@Value("${sfs.storage.max-moves-per-run:50}") int maxMovesPerRun) {
+		if (coldDirectory.isBlank()) return;
+		TieredStorage.get().configure(new File(coldDirectory), fastMaxSize.toBytes(), demoteAfter.toMillis(),
+				promoteThreshold, moveInterval.toMillis(), maxMovesPerRun);
+	}
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.storage;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.controller.DownloadController;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits the files between a fast tier, the download directory, and an optional capacity tier.
+ * Uploads land in the fast tier. A background mover promotes frequently requested files and
+ * demotes files that were idle for too long or do not fit into the fast tier anymore.
+ * The tier of every file is kept in memory, so a lookup never probes both directories.
+ * A move copies the file, renames it into place and then switches the location, while
+ * the old copy is kept for a grace period so requests that already resolved it can finish.
+ */
+public class TieredStorage {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final @NotNull TieredStorage INSTANCE = new TieredStorage();
+	//Names containing ".." can neither be uploaded nor requested, so copies never clash with user files
+	private static final @NotNull String TEMPORARY_PREFIX = ".";
+	private static final @NotNull String TEMPORARY_SEPARATOR = "..";
+	private static final long DELETE_GRACE_SECONDS = 60;
+
+	private final @NotNull Set<String> coldFiles;
+	private final @NotNull Set<String> moving;
+	private final @NotNull Map<String, Access> accesses;
+	private volatile @Nullable File coldDirectory;
+	private @Nullable ScheduledExecutorService service;
+	private long fastMaxSize;
+	private long demoteAfterMillis;
+	private double promoteThreshold;
+	private int maxMovesPerRun;
+
+	private TieredStorage() {
+		this.coldFiles = ConcurrentHashMap.newKeySet();
+		this.moving = ConcurrentHashMap.newKeySet();
+		this.accesses = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Enables the capacity tier and starts the mover
+	 * @param coldDirectory The directory of the capacity tier
+	 * @param fastMaxSize The size above which the fast tier is shrunk, 0 for no limit
+	 * @param demoteAfterMillis The idle time after which a file is demoted
+	 * @param promoteThreshold The decayed number of requests that promotes a file
+	 * @param intervalMillis The time between two runs of the mover
+	 * @param maxMovesPerRun The maximum number of files moved in one run
+	 */
+	synchronized void configure(@NotNull File coldDirectory, long fastMaxSize, long demoteAfterMillis,
+								double promoteThreshold, long intervalMillis, int maxMovesPerRun) {
+		if (!coldDirectory.exists() && !coldDirectory.mkdirs())
+			throw new IllegalStateException("Failed to create capacity tier directory");
+
+		this.fastMaxSize = fastMaxSize;
+		this.demoteAfterMillis = demoteAfterMillis;
+		this.promoteThreshold = promoteThreshold;
+		this.maxMovesPerRun = maxMovesPerRun;
+		recover(coldDirectory);
+		this.coldDirectory = coldDirectory;
+		DownloadController.KNOWN_FILES.addDirectory(coldDirectory);
+
+		service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "TieredStorageMover");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleWithFixedDelay(this::move, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Builds the location map and cleans up moves that were interrupted by a shutdown
+	 */
+	private void recover(@NotNull File coldDirectory) {
+		deleteTemporaryFiles(DownloadController.DOWNLOAD_DIRECTORY);
+		deleteTemporaryFiles(coldDirectory);
+
+		String[] fileNames = coldDirectory.list();
+		if (fileNames == null) throw new IllegalStateException("Failed to list capacity tier directory");
+		for (String fileName : fileNames) {
+			//Both copies are complete, as a copy is only renamed into place once it is written
+			File fastFile = new File(DownloadController.DOWNLOAD_DIRECTORY, fileName);
+			if (fastFile.exists()) delete(new File(coldDirectory, fileName));
+			else coldFiles.add(fileName);
+		}
+		LOGGER.info("Found {} files in the capacity tier", coldFiles.size());
+	}
+
+	/**
+	 * Gets the location of a file in O(1)
+	 * @param fileName The validated name of the file
+	 * @return The file in the tier it is currently stored in, which does not have to exist
+	 */
+	@NotNull
+	public File locate(@NotNull String fileName) {
+		File cold = coldDirectory;
+		if (cold != null && coldFiles.contains(fileName)) return new File(cold, fileName);
+		return new File(DownloadController.DOWNLOAD_DIRECTORY, fileName);
+	}
+
+	public boolean exists(@NotNull String fileName) {
+		return !isTemporary(fileName) && locate(fileName).exists();
+	}
+
+	/**
+	 * Deletes a file from the tier it is stored in, so it is no longer listed
+	 * @param fileName The validated name of the file
+	 * @return False if the file exists but could not be deleted
+	 */
+	public boolean deleteFile(@NotNull String fileName) {
+		File file = locate(fileName);
+		if (file.exists() && !file.delete()) return false;
+		coldFiles.remove(fileName);
+		accesses.remove(fileName);
+		return true;
+	}
+
+	/**
+	 * Checks whether a name belongs to a copy that is still being written, for example by a move
+	 */
+	public boolean isTemporary(@NotNull String fileName) {
+		return fileName.startsWith(TEMPORARY_PREFIX) && fileName.contains(TEMPORARY_SEPARATOR);
+	}
+
+	/**
+	 * Gets a hidden file next to the target, which can be renamed over the target atomically
+	 * @param target The file the temporary file replaces
+	 * @param purpose The process writing the file, so different processes never share a file
+	 * @return The temporary file
+	 */
+	@NotNull
+	public static File getTemporaryFile(@NotNull File target, @NotNull String purpose) {
+		return new File(target.getParentFile(), TEMPORARY_PREFIX + target.getName() + TEMPORARY_SEPARATOR + purpose);
+	}
+
+	/**
+	 * Lists the files of all tiers
+	 * @return The files or null if a tier could not be listed
+	 */
+	@Nullable
+	public File[] listFiles() {
+		File[] fastFiles = DownloadController.DOWNLOAD_DIRECTORY.listFiles();
+		if (fastFiles == null) return null;
+
+		File cold = coldDirectory;
+		List<File> files = new ArrayList<>(fastFiles.length + coldFiles.size());
+		for (File file : fastFiles) {
+			//Skip the old copies of demoted files which are kept for the grace period
+			if (!isTemporary(file.getName()) && (cold == null || !coldFiles.contains(file.getName()))) files.add(file);
+		}
+		if (cold != null) for (String fileName : coldFiles) files.add(new File(cold, fileName));
+		return files.toArray(new File[0]);
+	}
+
+	/**
+	 * Records a request of a file for the decisions of the mover
+	 */
+	public void recordAccess(@NotNull String fileName) {
+		if (coldDirectory == null) return;
+		Access access = accesses.computeIfAbsent(fileName, ignored -> new Access());
+		access.hits.increment();
+		access.lastAccess = System.currentTimeMillis();
+	}
+
+	private void move() {
+		try {
+			File cold = Objects.requireNonNull(coldDirectory);
+			int moves = promote(cold);
+			demote(cold, moves);
+		} catch (IOException | RuntimeException exception) {
+			LOGGER.warn("Failed to move files between the storage tiers", exception);
+		}
+	}
+
+	/**
+	 * Promotes the files with the highest scores. The score decays by half every run,
+	 * so it reflects both the frequency and the recency of requests.
+	 * @return The number of promoted files
+	 */
+	private int promote(@NotNull File cold) throws IOException {
+		long now = System.currentTimeMillis();
+		List<Map.Entry<String, Access>> candidates = new ArrayList<>();
+		Iterator<Map.Entry<String, Access>> iterator = accesses.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Access> entry = iterator.next();
+			Access access = entry.getValue();
+			access.score = access.score / 2 + access.hits.sumThenReset();
+			//The last access is kept until the file is idle long enough to be demoted
+			if (access.score < 0.5 && now - access.lastAccess >= demoteAfterMillis) iterator.remove();
+			else if (access.score >= promoteThreshold && coldFiles.contains(entry.getKey())) candidates.add(entry);
+		}
+
+		candidates.sort(Comparator.comparingDouble(entry -> -entry.getValue().score));
+		int moves = 0;
+		for (Map.Entry<String, Access> candidate : candidates) {
+			if (moves >= maxMovesPerRun) break;
+			String fileName = candidate.getKey();
+			if (!moving.add(fileName)) continue;
+
+			File source = new File(cold, fileName);
+			File target = new File(DownloadController.DOWNLOAD_DIRECTORY, fileName);
+			if (!copy(source, target)) {
+				moving.remove(fileName);
+				continue;
+			}
+
+			coldFiles.remove(fileName);
+			deleteLater(source, fileName);
+			moves++;
+			LOGGER.info("Promoted {} to the fast tier", fileName);
+		}
+		return moves;
+	}
+
+	/**
+	 * Demotes idle files and, if the fast tier is too large, the files that were requested the longest time ago
+	 */
+	private void demote(@NotNull File cold, int moves) throws IOException {
+		File[] fastFiles = DownloadController.DOWNLOAD_DIRECTORY.listFiles(File::isFile);
+		if (fastFiles == null) throw new IOException("Failed to list the fast tier");
+
+		long now = System.currentTimeMillis();
+		long fastSize = 0;
+		List<File> candidates = new ArrayList<>();
+		Map<File, Long> lastAccesses = new HashMap<>();
+		for (File file : fastFiles) {
+			String fileName = file.getName();
+			if (isTemporary(fileName) || coldFiles.contains(fileName) || moving.contains(fileName)) continue;
+
+			Access access = accesses.get(fileName);
+			long lastAccess = access == null ? file.lastModified() : Math.max(access.lastAccess, file.lastModified());
+			lastAccesses.put(file, lastAccess);
+			candidates.add(file);
+			fastSize += file.length();
+		}
+		candidates.sort(Comparator.comparingLong(lastAccesses::get));
+
+		for (File file : candidates) {
+			if (moves >= maxMovesPerRun) break;
+			boolean idle = now - lastAccesses.get(file) >= demoteAfterMillis;
+			boolean oversized = fastMaxSize > 0 && fastSize > fastMaxSize;
+			if (!idle && !oversized) break;
+
+			String fileName = file.getName();
+			if (!moving.add(fileName)) continue;
+
+			long length = file.length();
+			if (!copy(file, new File(cold, fileName))) {
+				moving.remove(fileName);
+				continue;
+			}
+
+			coldFiles.add(fileName);
+			deleteLater(file, fileName);
+			fastSize -= length;
+			moves++;
+			LOGGER.info("Demoted {} to the capacity tier", fileName);
+		}
+	}
+
+	/**
+	 * Copies a file next to its target and renames it into place
+	 * @return False if the source changed or vanished during the copy
+	 */
+	private boolean copy(@NotNull File source, @NotNull File target) throws IOException {
+		long length = source.length();
+		long lastModified = source.lastModified();
+		if (lastModified == 0) return false;
+
+		Path temporary = getTemporaryFile(target, "tiering").toPath();
+		try {
+			Files.copy(source.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			if (source.length() != length || source.lastModified() != lastModified) {
+				Files.deleteIfExists(temporary);
+				return false;
+			}
+
+			try {
+				Files.move(temporary, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException exception) {
+				Files.move(temporary, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} catch (IOException exception) {
+			Files.deleteIfExists(temporary);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Deletes the old copy of a moved file once requests that resolved it before the switch are done.
+	 * The file is not moved again until then.
+	 */
+	private void deleteLater(@NotNull File file, @NotNull String fileName) {
+		Objects.requireNonNull(service).schedule(() -> {
+			delete(file);
+			moving.remove(fileName);
+		}, DELETE_GRACE_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private void deleteTemporaryFiles(@NotNull File directory) {
+		File[] files = directory.listFiles((parent, name) -> isTemporary(name));
+		if (files != null) for (File file : files) delete(file);
+	}
+
+	private static void delete(@NotNull File file) {
+		if (file.exists() && !file.delete()) LOGGER.warn("Failed to delete {}", file.getPath());
+	}
+
+	@NotNull
+	public static TieredStorage get() {
+		return INSTANCE;
+	}
+
+	private static class Access {
+		private final @NotNull LongAdder hits = new LongAdder();
+		private volatile long lastAccess;
+		private double score; //Only used by the mover
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.upload;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Measures the throughput of a chunked upload and recommends the chunk size and the number of
+ * chunks sent in parallel. The chunk size aims at a fixed duration per request, so the pause between
+ * two chunks is small compared to the transfer. The parallelism is found by hill climbing: another
+ * stream is added while it raises the throughput, otherwise it is removed again and the result is kept
+ * until the throughput changes considerably, e.g. because the network of the client changed.
+ */
+public class ChunkAdvisor {
+	public static final @NotNull String CHUNK_SIZE_HEADER = "Upload-Chunk-Size";
+	public static final @NotNull String PARALLELISM_HEADER = "Upload-Parallelism";
+	private static final long MIN_CHUNK_SIZE = 1024 * 1024; //1MB
+	private static final long TARGET_CHUNK_MILLIS = 5000;
+	private static final long MIN_WINDOW_MILLIS = 2000;
+	private static final double MIN_GAIN = 1.1;
+	private static final double MAX_DEVIATION = 0.25;
+	private final long maxChunkSize;
+	private long chunkSize;
+	private int parallelism;
+
+	private long windowStart;
+	private long windowBytes;
+	private int windowChunks;
+	private double rate; //Smoothed bytes per millisecond
+	private double rateBeforeIncrease; //0 if the last change was not an increase
+	private double settledRate; //0 while searching the best parallelism
+
+	public ChunkAdvisor(long initialChunkSize, long maxChunkSize) {
+		this.maxChunkSize = Math.max(MIN_CHUNK_SIZE, maxChunkSize);
+		this.chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(initialChunkSize, this.maxChunkSize));
+		this.parallelism = 1;
+		this.windowStart = -1;
+	}
+
+	/**
+	 * Records a stored chunk
+	 * @param bytes The size of the chunk
+	 * @param now The current time in milliseconds
+	 * @param maxParallelism The largest parallelism the server currently allows
+	 */
+	public synchronized void record(long bytes, long now, int maxParallelism) {
+		//The first chunk only starts the measurement, as the time it was sent is unknown
+		if (windowStart == -1) {
+			windowStart = now;
+			return;
+		}
+
+		//A window waits for a chunk of every stream the client was allowed to send
+		maxParallelism = Math.max(1, maxParallelism);
+		windowBytes += bytes;
+		windowChunks++;
+		long elapsed = now - windowStart;
+		if (elapsed < MIN_WINDOW_MILLIS || windowChunks < Math.min(parallelism, maxParallelism)) return;
+
+		double windowRate = (double) windowBytes / elapsed;
+		rate = rate == 0 ? windowRate : (rate + windowRate) / 2;
+		windowStart = now;
+		windowBytes = 0;
+		windowChunks = 0;
+
+		adjustParallelism(windowRate, maxParallelism);
+		long size = (long) (rate / parallelism * TARGET_CHUNK_MILLIS);
+		size -= size % MIN_CHUNK_SIZE;
+		chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(size, maxChunkSize));
+	}
+
+	private void adjustParallelism(double windowRate, int maxParallelism) {
+		if (parallelism > maxParallelism) {
+			parallelism = maxParallelism;
+			rateBeforeIncrease = 0;
+			return;
+		}
+
+		if (settledRate > 0) {
+			if (Math.abs(windowRate - settledRate) <= settledRate * MAX_DEVIATION) return;
+			settledRate = 0;
+		}
+
+		if (rateBeforeIncrease > 0 && windowRate < rateBeforeIncrease * MIN_GAIN) {
+			//The last stream did not help, so the server or the path is the bottleneck
+			parallelism--;
+			settledRate = rateBeforeIncrease;
+			rateBeforeIncrease = 0;
+		} else if (parallelism < maxParallelism) {
+			rateBeforeIncrease = windowRate;
+			parallelism++;
+		} else {
+			settledRate = windowRate;
+			rateBeforeIncrease = 0;
+		}
+	}
+
+	public synchronized long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Gets the recommended number of chunks sent in parallel
+	 * @param maxParallelism The largest parallelism the server currently allows
+	 */
+	public synchronized int getParallelism(int maxParallelism) {
+		return Math.max(1, Math.min(parallelism, maxParallelism));
+	}
+
+}
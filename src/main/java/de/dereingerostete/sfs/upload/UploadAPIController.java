@@ -12,22 +12,29 @@ package de.dereingerostete.sfs.upload;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.cluster.SharedState;
 import de.dereingerostete.sfs.controller.DownloadController;
 import de.dereingerostete.sfs.error.RestError;
+import de.dereingerostete.sfs.expiry.FileExpiry;
+import de.dereingerostete.sfs.storage.TieredStorage;
 import de.dereingerostete.sfs.util.FileDetailsUtils;
+import de.dereingerostete.sfs.util.MultipartStreamParser;
 import de.dereingerostete.sfs.util.RateLimiter;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.util.unit.DataSize;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.time.Duration;
 
 @RestController
@@ -35,53 +42,133 @@ public class UploadAPIController {
 	private static final @NotNull UploadAuthenticator AUTHENTICATOR = UploadUIController.getAuthenticator();
 	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
 	private static final @NotNull String PATH_PREFIX = "/api/filepond/";
+	private static final @NotNull String OWNER_NAMESPACE = "upload-owner";
+	private static final @NotNull Duration UPLOAD_EXPIRY = Duration.ofHours(2);
 	private final @NotNull Cache<String, UploadProcess> uploadsMap;
+	private final @NotNull UploadAdmission admission;
+	private final long initialChunkSize;
+	private final long maxChunkSize;
+	private final int maxParallelChunks;
 
-	public UploadAPIController() {
+	public UploadAPIController(@Value("${sfs.upload.max-sessions:64}") int maxSessions,
+							   @Value("${sfs.upload.max-sessions-per-user:8}") int maxSessionsPerUser,
+							   @Value("${sfs.upload.max-bytes-per-user:100GB}") DataSize maxBytesPerUser,
+							   @Value("${sfs.upload.min-free-space:1GB}") DataSize minFreeSpace,
+							   @Value("${sfs.upload.initial-chunk-size:8MB}") DataSize initialChunkSize,
+							   @Value("${sfs.upload.max-chunk-size:64MB}") DataSize maxChunkSize,
+							   @Value("${sfs.upload.max-parallel-chunks:4}") int maxParallelChunks) throws IOException {
+		this.admission = new UploadAdmission(UploadProcess.getTempRoot(), UploadProcess.getStagingDirectory(),
+				DownloadController.DOWNLOAD_DIRECTORY, maxSessions, maxSessionsPerUser, maxBytesPerUser.toBytes(), minFreeSpace.toBytes());
+		this.initialChunkSize = initialChunkSize.toBytes();
+		this.maxChunkSize = maxChunkSize.toBytes();
+		this.maxParallelChunks = Math.max(1, maxParallelChunks);
 		this.uploadsMap = Caffeine.newBuilder()
-				.expireAfterAccess(Duration.ofHours(2))
+				.expireAfterAccess(UPLOAD_EXPIRY)
 				.removalListener((key, value, cause) -> {
 					if (value instanceof UploadProcess process) process.close();
 				}).build();
 	}
 
+	/**
+	 * Starts an upload. The multipart body is parsed while it arrives, so a whole file sent in
+	 * the "filepond" part is written to disk exactly once without being spooled by the container.
+	 * A body without a file part starts a chunked upload instead.
+	 */
 	@RequestMapping(value = PATH_PREFIX + "process",
 			method = RequestMethod.POST,
 			consumes = MediaType.MULTIPART_FORM_DATA_VALUE
 	)
 	public ResponseEntity<Object> upload(@NotNull HttpServletRequest request,
-										 @NotNull HttpServletResponse response,
-										 @RequestParam(value = "filepond", required = false)
-										 @Nullable MultipartFile multipartFile) {
+										 @NotNull HttpServletResponse response) {
 		ResponseEntity<Object> authResponse = handleRequest(request, response);
 		if (authResponse != null) return authResponse;
 
+		String username = AUTHENTICATOR.getUsername(request);
+		if (username == null) return AUTHENTICATOR.createUnauthorizedError("Unauthorized");
+
+		String uploadLength = request.getHeader("Upload-Length");
+		if (uploadLength != null && parseLength(uploadLength) < 0) return createInvalidLengthResponse("Upload-Length");
+
+		long ttl = parseTtl(request.getHeader("Upload-TTL"));
+		if (ttl < 0) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Upload-TTL must be between 1 and " + FileExpiry.MAX_TTL_SECONDS + " seconds"));
+
+		UploadChecksum fileChecksum;
+		try {
+			fileChecksum = UploadChecksum.parse(request.getHeader(UploadChecksum.FILE_HEADER));
+		} catch (IllegalArgumentException exception) {
+			return createInvalidChecksumResponse(exception);
+		}
+
+		String boundary = MultipartStreamParser.getBoundary(request.getContentType());
+		if (boundary == null) return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Missing multipart boundary"));
+
+		UploadAdmission.Reservation reservation = null;
 		try {
-			if (multipartFile != null) {
-				String fileName = multipartFile.getOriginalFilename();
+			MultipartStreamParser parser = new MultipartStreamParser(request.getInputStream(), boundary);
+			MultipartStreamParser.Part part;
+			while ((part = parser.next()) != null) {
+				if (!part.isFile() || !"filepond".equals(part.getName())) continue;
+
+				String fileName = part.getFileName();
 				if (fileName == null || FileDetailsUtils.isIllegalFile(fileName)) return createIllegalFileResponse();
 				else if (isAlreadyUploaded(fileName)) return createFileExistsResponse();
-				LOGGER.info("Uploading whole file: " + fileName);
+
+				long contentLength = request.getContentLengthLong();
+				if (contentLength < 0) return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED)
+						.contentType(MediaType.APPLICATION_JSON)
+						.body(new RestError(411, "Length Required", "Missing Content-Length header"));
+
+				reservation = admission.admit(username);
+				reservation.reserveStreamed(contentLength);
+				LOGGER.info("Uploading whole file: {}", fileName);
 
 				UploadProcess process = new UploadProcess();
+				process.setReservation(reservation);
+				process.setTtl(ttl);
+				process.setFileChecksum(fileChecksum);
 				process.setResultFile(new File(DownloadController.DOWNLOAD_DIRECTORY, fileName));
-				process.handleSingle(multipartFile);
+				try {
+					process.handleStream(part.getInputStream());
+				} catch (FileAlreadyExistsException exception) {
+					return createFileExistsResponse();
+				} catch (UploadChecksum.MismatchException exception) {
+					reservation.release();
+					return exception.createResponse();
+				}
 
 				String id = process.getId();
 				uploadsMap.put(id, process);
-				return ResponseEntity.ok()
-						.contentType(MediaType.TEXT_PLAIN)
-						.body(id);
-			} else {
-				UploadProcess process = new UploadProcess();
-				String id = process.getId();
-				uploadsMap.put(id, process);
-				LOGGER.info("Started chunked Upload with id " + id);
+				registerOwner(id, response);
 				return ResponseEntity.ok()
 						.contentType(MediaType.TEXT_PLAIN)
 						.body(id);
 			}
+
+			reservation = admission.admit(username);
+			if (uploadLength != null) reservation.reserveChunked(parseLength(uploadLength));
+
+			UploadProcess process = new UploadProcess();
+			process.setReservation(reservation);
+			process.setTtl(ttl);
+			process.setFileChecksum(fileChecksum);
+			process.setChunkAdvisor(new ChunkAdvisor(initialChunkSize, maxChunkSize));
+			String id = process.getId();
+			uploadsMap.put(id, process);
+			registerOwner(id, response);
+			addChunkAdvice(process, response);
+			LOGGER.info("Started chunked Upload with id {}", id);
+			return ResponseEntity.ok()
+					.contentType(MediaType.TEXT_PLAIN)
+					.body(id);
+		} catch (UploadAdmission.UploadRejectedException exception) {
+			if (reservation != null) reservation.release();
+			return exception.createResponse();
 		} catch (IOException exception) {
+			if (reservation != null) reservation.release();
 			LOGGER.warn("Failed to handle upload", exception);
 			return ResponseEntity.internalServerError()
 					.contentType(MediaType.APPLICATION_JSON)
@@ -94,18 +181,43 @@ public class UploadAPIController {
 			consumes = "application/offset+octet-stream"
 	)
 	public ResponseEntity<Object> patch(@RequestParam(name = "patch") @NotNull String id,
-										@RequestBody byte[] data,
 										@NotNull HttpServletRequest request,
 										@NotNull HttpServletResponse response) {
 		ResponseEntity<Object> authResponse = handleRequest(request, response);
 		if (authResponse != null) return authResponse;
 
 		UploadProcess process = uploadsMap.getIfPresent(id);
-		if (process == null) return createInvalidIdResponse();
+		if (process == null) return createInvalidIdResponse(id, response);
+		if (parseLength(request.getHeader("Upload-Length")) < 0) return createInvalidLengthResponse("Upload-Length");
+		if (parseLength(request.getHeader("Upload-Offset")) < 0) return createInvalidLengthResponse("Upload-Offset");
 
+		UploadChecksum checksum;
 		try {
-			process.nextChunk(request, data);
+			checksum = UploadChecksum.parse(request.getHeader(UploadChecksum.CHUNK_HEADER));
+
+			//The digest of the whole file may also be sent with any chunk, e.g. once the client computed it
+			UploadChecksum fileChecksum = UploadChecksum.parse(request.getHeader(UploadChecksum.FILE_HEADER));
+			if (fileChecksum != null && process.getFileChecksum() == null) process.setFileChecksum(fileChecksum);
+		} catch (IllegalArgumentException exception) {
+			return createInvalidChecksumResponse(exception);
+		}
+
+		try {
+			long length = process.nextChunk(request, checksum);
+			ChunkAdvisor advisor = process.getChunkAdvisor();
+			if (advisor != null) advisor.record(length, System.currentTimeMillis(), getMaxParallelism());
+			addChunkAdvice(process, response);
 			return ResponseEntity.ok().build();
+		} catch (UploadAdmission.UploadRejectedException exception) {
+			uploadsMap.invalidate(id);
+			return exception.createResponse();
+		} catch (UploadChecksum.ChunkMismatchException exception) {
+			//The corrupt chunk was not stored, so the client only has to retry this chunk
+			return exception.createResponse();
+		} catch (UploadChecksum.MismatchException exception) {
+			//The combined file is corrupt, so the whole upload has to be repeated
+			uploadsMap.invalidate(id);
+			return exception.createResponse();
 		} catch (IOException exception) {
 			LOGGER.warn("Failed to handle chunk", exception);
 			return ResponseEntity.internalServerError()
@@ -125,9 +237,10 @@ public class UploadAPIController {
 		if (authResponse != null) return authResponse;
 
 		UploadProcess process = uploadsMap.getIfPresent(id);
-		if (process == null) return createInvalidIdResponse();
+		if (process == null) return createInvalidIdResponse(id, response);
 
 		long offset = process.getCurrentOffset();
+		addChunkAdvice(process, response);
 		return ResponseEntity.ok()
 				.header("Upload-Offset", String.valueOf(offset))
 				.build();
@@ -144,9 +257,9 @@ public class UploadAPIController {
 		if (authResponse != null) return authResponse;
 
 		UploadProcess process = uploadsMap.getIfPresent(id);
-		if (process == null) return createInvalidIdResponse();
+		if (process == null) return createInvalidIdResponse(id, response);
 
-		LOGGER.info("Reverting upload with id " + id);
+		LOGGER.info("Reverting upload with id {}", id);
 		if (process.revert()) {
 			uploadsMap.invalidate(id);
 			return ResponseEntity.ok().build();
@@ -169,8 +282,48 @@ public class UploadAPIController {
 		else return AUTHENTICATOR.createUnauthorizedError("Unauthorized");
 	}
 
+	/**
+	 * Tells the client the chunk size and the number of parallel chunks to use for the next chunks
+	 */
+	private void addChunkAdvice(@NotNull UploadProcess process, @NotNull HttpServletResponse response) {
+		ChunkAdvisor advisor = process.getChunkAdvisor();
+		if (advisor == null) return;
+		response.setHeader(ChunkAdvisor.CHUNK_SIZE_HEADER, String.valueOf(advisor.getChunkSize()));
+		response.setHeader(ChunkAdvisor.PARALLELISM_HEADER, String.valueOf(advisor.getParallelism(getMaxParallelism())));
+	}
+
+	private int getMaxParallelism() {
+		return admission.scaleToLoad(maxParallelChunks);
+	}
+
+	/**
+	 * Parses the optional lifetime of an uploaded file
+	 * @return The lifetime in seconds, 0 if the header is missing or -1 if it is invalid
+	 */
+	private long parseTtl(@Nullable String header) {
+		if (header == null) return 0;
+		try {
+			long ttl = Long.parseLong(header);
+			return ttl <= 0 || ttl > FileExpiry.MAX_TTL_SECONDS ? -1 : ttl;
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Records that this node holds the chunks of an upload, as they are only stored on its local disk
+	 */
+	private void registerOwner(@NotNull String id, @NotNull HttpServletResponse response) {
+		SharedState state = SharedState.get();
+		if (state == null) return;
+
+		String nodeId = state.getNodeId();
+		state.getNearCache(OWNER_NAMESPACE).put(id, nodeId, UPLOAD_EXPIRY);
+		state.addStickinessHint(response, nodeId);
+	}
+
 	private boolean isAlreadyUploaded(@NotNull String fileName) {
-		return new File(DownloadController.DOWNLOAD_DIRECTORY, fileName).exists();
+		return TieredStorage.get().exists(fileName);
 	}
 
 	@NotNull
@@ -178,6 +331,33 @@ public class UploadAPIController {
 		return ResponseEntity.badRequest().body(RestError.badRequest("Illegal filename"));
 	}
 
+	/**
+	 * Parses a length or offset header
+	 * @return The value or -1 if the header is missing, not a number or negative
+	 */
+	private static long parseLength(@Nullable String value) {
+		if (value == null) return -1;
+		try {
+			return Math.max(-1, Long.parseLong(value.trim()));
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+	@NotNull
+	private ResponseEntity<Object> createInvalidLengthResponse(@NotNull String header) {
+		return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Invalid " + header + " header"));
+	}
+
+	@NotNull
+	private ResponseEntity<Object> createInvalidChecksumResponse(@NotNull IllegalArgumentException exception) {
+		return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(RestError.badRequest("Invalid checksum header: " + exception.getMessage()));
+	}
+
 	@NotNull
 	private ResponseEntity<Object> createFileExistsResponse() {
 		return ResponseEntity.status(409)
@@ -185,8 +365,21 @@ public class UploadAPIController {
 				.body(new RestError(409, "Conflict", "File already exists"));
 	}
 
+	/**
+	 * Creates the response for an unknown upload id. If another node of the cluster owns the upload
+	 * the client is sent there with 421 Misdirected Request, so it can retry on the right node.
+	 */
 	@NotNull
-	private ResponseEntity<Object> createInvalidIdResponse() {
+	private ResponseEntity<Object> createInvalidIdResponse(@NotNull String id, @NotNull HttpServletResponse response) {
+		SharedState state = SharedState.get();
+		String owner = state == null ? null : state.getNearCache(OWNER_NAMESPACE).get(id);
+		if (owner != null && !owner.equals(state.getNodeId())) {
+			state.addStickinessHint(response, owner);
+			return ResponseEntity.status(421)
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(new RestError(421, "Misdirected Request", "Upload is handled by another node"));
+		}
+
 		return ResponseEntity.status(401)
 				.contentType(MediaType.APPLICATION_JSON)
 				.body(RestError.unauthorized("Invalid upload id"));
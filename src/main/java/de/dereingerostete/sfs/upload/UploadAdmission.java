@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.upload;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.error.RestError;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides whether a new upload may start before any bytes of it are written.
+ * Every admitted upload holds a {@link Reservation} which counts against the global
+ * and per-user session limits and reserves its disk space on the temp, staging and download volumes
+ * until the upload is completed or closed.
+ */
+public class UploadAdmission {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final long RETRY_AFTER_SECONDS = 30;
+	private final int maxSessions;
+	private final int maxSessionsPerUser;
+	private final long maxBytesPerUser;
+	private final long minFreeSpace;
+
+	private final @NotNull FileStore tempStore;
+	private final @NotNull FileStore stagingStore;
+	private final @NotNull FileStore downloadStore;
+	private final @NotNull Map<FileStore, Long> reservedBytes;
+	private final @NotNull Map<String, Usage> usages;
+	private int sessions;
+
+	public UploadAdmission(@NotNull File tempDirectory, @NotNull File stagingDirectory, @NotNull File downloadDirectory,
+						   int maxSessions, int maxSessionsPerUser, long maxBytesPerUser,
+						   long minFreeSpace) throws IOException {
+		this.tempStore = Files.getFileStore(tempDirectory.toPath());
+		this.stagingStore = Files.getFileStore(stagingDirectory.toPath());
+		this.downloadStore = Files.getFileStore(downloadDirectory.toPath());
+		this.maxSessions = maxSessions;
+		this.maxSessionsPerUser = maxSessionsPerUser;
+		this.maxBytesPerUser = maxBytesPerUser;
+		this.minFreeSpace = minFreeSpace;
+		this.reservedBytes = new HashMap<>();
+		this.usages = new HashMap<>();
+	}
+
+	/**
+	 * Admits a new upload session for the given user
+	 * @param user The user starting the upload
+	 * @return The reservation of the session, holding no bytes yet
+	 * @throws UploadRejectedException If the global or per-user session limit is reached
+	 */
+	@NotNull
+	public synchronized Reservation admit(@NotNull String user) throws UploadRejectedException {
+		if (sessions >= maxSessions) {
+			LOGGER.warn("Rejecting upload of user '{}': Global session limit reached", user);
+			throw UploadRejectedException.tooManyUploads("Too many concurrent uploads");
+		}
+
+		Usage usage = usages.computeIfAbsent(user, key -> new Usage());
+		if (usage.sessions >= maxSessionsPerUser) {
+			throw UploadRejectedException.tooManyUploads("Too many concurrent uploads for this user");
+		}
+
+		sessions++;
+		usage.sessions++;
+		return new Reservation(user);
+	}
+
+	/**
+	 * Scales a limit of a single upload down while more uploads are running, so the sum over all
+	 * sessions stays bounded. Every session keeps at least 1.
+	 * @param limit The limit of a single upload on an idle server
+	 */
+	public synchronized int scaleToLoad(int limit) {
+		return Math.max(1, limit * (maxSessions - sessions + 1) / maxSessions);
+	}
+
+	private synchronized void reserve(@NotNull Reservation reservation, long length, long tempBytes,
+									  long stagingBytes) throws UploadRejectedException {
+		if (reservation.released) throw UploadRejectedException.insufficientStorage("Upload is closed");
+		if (length < 0) throw new IllegalArgumentException("Negative upload length");
+
+		Usage usage = usages.get(reservation.user);
+		if (usage.bytes + length > maxBytesPerUser) {
+			throw UploadRejectedException.insufficientStorage("Upload quota exceeded");
+		}
+
+		if (!hasSpace(tempStore, tempBytes) || !hasSpace(stagingStore, stagingBytes)
+				|| !hasSpace(downloadStore, length)) {
+			LOGGER.warn("Rejecting upload of {} bytes: Not enough disk space", length);
+			throw UploadRejectedException.insufficientStorage("Not enough disk space");
+		}
+
+		reservedBytes.merge(tempStore, tempBytes, Long::sum);
+		reservedBytes.merge(stagingStore, stagingBytes, Long::sum);
+		reservedBytes.merge(downloadStore, length, Long::sum);
+		usage.bytes += length;
+		reservation.length = length;
+		reservation.tempBytes = tempBytes;
+		reservation.stagingBytes = stagingBytes;
+	}
+
+	private synchronized void release(@NotNull Reservation reservation) {
+		if (reservation.released) return;
+		reservation.released = true;
+
+		long length = Math.max(0, reservation.length);
+		reservedBytes.merge(tempStore, -reservation.tempBytes, Long::sum);
+		reservedBytes.merge(stagingStore, -reservation.stagingBytes, Long::sum);
+		reservedBytes.merge(downloadStore, -length, Long::sum);
+
+		sessions--;
+		Usage usage = usages.get(reservation.user);
+		usage.sessions--;
+		usage.bytes -= length;
+		if (usage.sessions <= 0) usages.remove(reservation.user);
+	}
+
+	private boolean hasSpace(@NotNull FileStore store, long length) {
+		try {
+			long reserved = reservedBytes.getOrDefault(store, 0L);
+			long available = store.getUsableSpace() - reserved - minFreeSpace;
+			return length <= available;
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to get usable space of file store {}", store.name(), exception);
+			return false;
+		}
+	}
+
+	private static class Usage {
+		private int sessions;
+		private long bytes;
+	}
+
+	public class Reservation {
+		private final @NotNull String user;
+		private long length;
+		private long tempBytes;
+		private long stagingBytes;
+		private boolean released;
+
+		private Reservation(@NotNull String user) {
+			this.user = user;
+			this.length = -1;
+		}
+
+		/**
+		 * Reserves the disk space of a chunked upload. Can only be called once per reservation.
+		 * @param length The total length of the upload in bytes
+		 * @throws UploadRejectedException If there is not enough disk space or the quota of the user is exceeded
+		 */
+		public void reserveChunked(long length) throws UploadRejectedException {
+			if (isReserved()) throw new IllegalStateException("Space is already reserved");
+			//Chunks and the combined file are both stored in the temp directory
+			UploadAdmission.this.reserve(this, length, length * 2, 0);
+		}
+
+		/**
+		 * Reserves the disk space of an upload that is streamed into the staging directory and then published
+		 * into the download directory. Can only be called once per reservation.
+		 * @param length The maximum length of the upload in bytes
+		 * @throws UploadRejectedException If there is not enough disk space or the quota of the user is exceeded
+		 */
+		public void reserveStreamed(long length) throws UploadRejectedException {
+			if (isReserved()) throw new IllegalStateException("Space is already reserved");
+			//A staged file on the download volume is linked into place, otherwise it exists twice while it is copied
+			long stagingBytes = stagingStore.equals(downloadStore) ? 0 : length;
+			UploadAdmission.this.reserve(this, length, 0, stagingBytes);
+		}
+
+		/**
+		 * Releases the session and the reserved space. Calling this more than once has no effect.
+		 */
+		public void release() {
+			UploadAdmission.this.release(this);
+		}
+
+		public boolean isReserved() {
+			return length >= 0;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+	}
+
+	public static class UploadRejectedException extends Exception {
+		private final @NotNull HttpStatus status;
+
+		private UploadRejectedException(@NotNull HttpStatus status, @NotNull String message) {
+			super(message);
+			this.status = status;
+		}
+
+		@NotNull
+		public static UploadRejectedException tooManyUploads(@NotNull String message) {
+			return new UploadRejectedException(HttpStatus.TOO_MANY_REQUESTS, message);
+		}
+
+		@NotNull
+		public static UploadRejectedException insufficientStorage(@NotNull String message) {
+			return new UploadRejectedException(HttpStatus.INSUFFICIENT_STORAGE, message);
+		}
+
+		@NotNull
+		public ResponseEntity<Object> createResponse() {
+			ResponseEntity.BodyBuilder builder = ResponseEntity.status(status)
+					.contentType(MediaType.APPLICATION_JSON);
+			if (status == HttpStatus.TOO_MANY_REQUESTS) {
+				builder.header("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+			}
+
+			String message = getMessage() == null ? "" : getMessage();
+			return builder.body(new RestError(status.value(), status.getReasonPhrase(), message));
+		}
+
+	}
+
+}
@@ -12,13 +12,17 @@ package de.dereingerostete.sfs.upload;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.cluster.NearCache;
+import de.dereingerostete.sfs.cluster.SharedState;
 import de.dereingerostete.sfs.error.RestError;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
 
 import java.security.SecureRandom;
@@ -28,7 +32,9 @@ import java.util.Base64;
 public class UploadAuthenticator {
 	private static final @NotNull String AUTH_COOKIE_NAME = "sessionToken";
 	private static final long COOKIE_MAX_AGE = Duration.ofHours(2).toMillis(); //2Hr
+	private static final @NotNull String SHARED_NAMESPACE = "upload-session";
 	private final @NotNull Cache<String, Long> tokenCache;
+	private final @NotNull Cache<String, String> userCache;
 	private final @NotNull SecureRandom random;
 
 	public UploadAuthenticator() {
@@ -36,26 +42,39 @@ public class UploadAuthenticator {
 		tokenCache = Caffeine.newBuilder()
 				.expireAfterWrite(Duration.ofMillis(COOKIE_MAX_AGE))
 				.build();
+		userCache = Caffeine.newBuilder()
+				.expireAfterWrite(Duration.ofMillis(COOKIE_MAX_AGE))
+				.build();
 	}
 
 	@NotNull
-	public String generateToken() {
+	public String generateToken(@NotNull String username) {
 		byte[] bytes = new byte[32];
 		random.nextBytes(bytes);
 
 		Base64.Encoder encoder = Base64.getEncoder();
 		String token = encoder.encodeToString(bytes);
-		tokenCache.put(token, System.currentTimeMillis());
+		long creationTime = System.currentTimeMillis();
+		NearCache sharedSessions = getSharedSessions();
+		if (sharedSessions != null) {
+			String value = creationTime + ":" + username;
+			sharedSessions.put(token, value, Duration.ofMillis(COOKIE_MAX_AGE));
+		} else {
+			tokenCache.put(token, creationTime);
+			userCache.put(token, username);
+		}
 		return token;
 	}
 
-	public void generateToken(@NotNull HttpServletResponse response) {
-		Cookie cookie = new Cookie(AUTH_COOKIE_NAME, generateToken());
-		cookie.setAttribute("SameSite", "Strict");
-		//cookie.setMaxAge(COOKIE_MAX_AGE); Let only the server handle this
-		cookie.setHttpOnly(true);
-		cookie.setSecure(true); //Disable for debug, enable for production
-		response.addCookie(cookie);
+	public void generateToken(@NotNull HttpServletResponse response, @NotNull String username) {
+		//Written as a header, because Cookie.setAttribute requires Servlet 6.0, which Jetty 11 lacks
+		ResponseCookie cookie = ResponseCookie.from(AUTH_COOKIE_NAME, generateToken(username))
+				.sameSite("Strict")
+				//.maxAge(COOKIE_MAX_AGE) Let only the server handle this
+				.httpOnly(true)
+				.secure(true) //Disable for debug, enable for production
+				.build();
+		response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
 	}
 
 	public void refreshToken(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) {
@@ -63,16 +82,24 @@ public class UploadAuthenticator {
 		if (cookie == null) return;
 
 		String token = cookie.getValue();
-		Long creationTime = tokenCache.getIfPresent(token);
+		Long creationTime = getCreationTime(token);
 		if (creationTime == null || System.currentTimeMillis() < creationTime + (COOKIE_MAX_AGE / 2)) return;
 
+		String username = getUsername(token);
+		if (username == null) return;
+
 		StaticFileServerApplication.getLogger().info("Regenerating old token");
-		tokenCache.invalidate(token);
-		generateToken(response);
+		NearCache sharedSessions = getSharedSessions();
+		if (sharedSessions != null) sharedSessions.remove(token);
+		else {
+			tokenCache.invalidate(token);
+			userCache.invalidate(token);
+		}
+		generateToken(response, username);
 	}
 
 	public boolean isValid(@NotNull String token) {
-		return tokenCache.getIfPresent(token) != null;
+		return getCreationTime(token) != null;
 	}
 
 	public boolean isValid(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) {
@@ -86,6 +113,47 @@ public class UploadAuthenticator {
 		return true;
 	}
 
+	/**
+	 * Gets the name of the user the session of the request belongs to
+	 * @param request The request to get the session cookie from
+	 * @return The username or null if the request has no valid session
+	 */
+	@Nullable
+	public String getUsername(@NotNull HttpServletRequest request) {
+		Cookie sessionCookie = getSessionCookie(request);
+		if (sessionCookie == null) return null;
+		return getUsername(sessionCookie.getValue());
+	}
+
+	@Nullable
+	private Long getCreationTime(@NotNull String token) {
+		NearCache sharedSessions = getSharedSessions();
+		if (sharedSessions == null) return tokenCache.getIfPresent(token);
+
+		String value = sharedSessions.get(token);
+		if (value == null) return null;
+		return Long.parseLong(value.substring(0, value.indexOf(':')));
+	}
+
+	@Nullable
+	private String getUsername(@NotNull String token) {
+		NearCache sharedSessions = getSharedSessions();
+		if (sharedSessions == null) return userCache.getIfPresent(token);
+
+		String value = sharedSessions.get(token);
+		return value == null ? null : value.substring(value.indexOf(':') + 1);
+	}
+
+	/**
+	 * Gets the sessions shared with the other nodes, so a user stays logged in on every node
+	 * @return The sessions or null if clustering is disabled
+	 */
+	@Nullable
+	private static NearCache getSharedSessions() {
+		SharedState state = SharedState.get();
+		return state == null ? null : state.getNearCache(SHARED_NAMESPACE);
+	}
+
 	@NotNull
 	public ResponseEntity<Object> createUnauthorizedError(@NotNull String message) {
 		return ResponseEntity.status(401)
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.upload;
+
+import de.dereingerostete.sfs.error.RestError;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * A checksum announced by the client in the form "algorithm base64-value", which is computed over
+ * the data as it is received. Used for single chunks ({@link #CHUNK_HEADER}) and whole files ({@link #FILE_HEADER}).
+ * Supported algorithms are crc32c, sha1 and sha256.
+ */
+public class UploadChecksum {
+	public static final @NotNull String CHUNK_HEADER = "Upload-Checksum";
+	public static final @NotNull String FILE_HEADER = "Upload-Digest";
+	public static final int MISMATCH_STATUS = 460;
+	private final @NotNull String algorithm;
+	private final byte[] expected;
+	private final @Nullable CRC32C crc;
+	private final @Nullable MessageDigest digest;
+
+	private UploadChecksum(@NotNull String algorithm, byte[] expected, @Nullable CRC32C crc,
+						   @Nullable MessageDigest digest) {
+		this.algorithm = algorithm;
+		this.expected = expected;
+		this.crc = crc;
+		this.digest = digest;
+	}
+
+	/**
+	 * Parses a checksum header
+	 * @param header The value of the header
+	 * @return The checksum or null if the header is missing
+	 * @throws IllegalArgumentException If the algorithm is not supported or the value is invalid
+	 */
+	@Nullable
+	public static UploadChecksum parse(@Nullable String header) {
+		if (header == null) return null;
+		int separator = header.indexOf(' ');
+		if (separator == -1) throw new IllegalArgumentException("Checksum must be of the form \"algorithm value\"");
+
+		String algorithm = header.substring(0, separator).toLowerCase(Locale.ROOT);
+		byte[] expected = Base64.getDecoder().decode(header.substring(separator + 1).trim());
+		try {
+			UploadChecksum checksum = switch (algorithm) {
+				case "crc32c" -> new UploadChecksum(algorithm, expected, new CRC32C(), null);
+				case "sha1" -> new UploadChecksum(algorithm, expected, null, MessageDigest.getInstance("SHA-1"));
+				case "sha256" -> new UploadChecksum(algorithm, expected, null, MessageDigest.getInstance("SHA-256"));
+				default -> throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm);
+			};
+
+			int length = checksum.crc == null ? checksum.digest.getDigestLength() : Integer.BYTES;
+			if (expected.length != length) throw new IllegalArgumentException("Invalid " + algorithm + " checksum");
+			return checksum;
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IllegalStateException("Missing digest algorithm", exception);
+		}
+	}
+
+	public void update(byte[] data, int offset, int length) {
+		if (crc != null) crc.update(data, offset, length);
+		else if (digest != null) digest.update(data, offset, length);
+	}
+
+	/**
+	 * Discards the data passed so far, e.g. to digest a file again after a failed attempt
+	 */
+	public void reset() {
+		if (crc != null) crc.reset();
+		else if (digest != null) digest.reset();
+	}
+
+	/**
+	 * Checks the data passed so far against the announced checksum. Can only be called once.
+	 */
+	public boolean matches() {
+		byte[] actual;
+		if (crc != null) actual = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array();
+		else actual = digest.digest();
+		return MessageDigest.isEqual(actual, expected);
+	}
+
+	@NotNull
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	@NotNull
+	public static ResponseEntity<Object> createMismatchResponse(@NotNull String message) {
+		return ResponseEntity.status(MISMATCH_STATUS)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(new RestError(MISMATCH_STATUS, "Checksum Mismatch", message));
+	}
+
+	/**
+	 * Thrown if a finished file does not match its announced digest
+	 */
+	public static class MismatchException extends Exception {
+
+		public MismatchException(@NotNull String message) {
+			super(message);
+		}
+
+		@NotNull
+		public ResponseEntity<Object> createResponse() {
+			return createMismatchResponse(getMessage());
+		}
+
+	}
+
+	/**
+	 * Thrown if a single chunk does not match its checksum, only this chunk has to be sent again
+	 */
+	public static class ChunkMismatchException extends MismatchException {
+
+		public ChunkMismatchException(@NotNull String message) {
+			super(message);
+		}
+
+	}
+
+}
@@ -10,31 +10,34 @@
 package de.dereingerostete.sfs.upload;
 
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.compression.BlockCompressor;
 import de.dereingerostete.sfs.controller.DownloadController;
+import de.dereingerostete.sfs.expiry.FileExpiry;
+import de.dereingerostete.sfs.jfr.UploadChunkEvent;
+import de.dereingerostete.sfs.jfr.UploadCombineEvent;
+import de.dereingerostete.sfs.preview.ThumbnailCache;
 import de.dereingerostete.sfs.util.FileDetailsUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.Data;
 import org.apache.commons.io.FileUtils;
-import org.apache.tomcat.util.security.MD5Encoder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
+import java.io.*;
+import java.nio.file.*;
+import java.util.HexFormat;
 import java.util.Map;
-import java.util.OptionalLong;
 import java.util.Random;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 @Data
 public class UploadProcess {
 	private static final @NotNull ScheduledExecutorService SERVICE;
+	private static final @NotNull File STAGING_DIRECTORY = new File("staging");
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
 	private static final @NotNull File TEMP_ROOT;
 	private static final @NotNull Random RANDOM;
 	private static final @NotNull Logger LOGGER;
@@ -42,8 +45,15 @@ public class UploadProcess {
 	private final @NotNull File tempDir;
 
 	private final @NotNull Map<Long, File> chunks;
+	private final @NotNull Map<Long, Long> chunkLengths;
 	private @Nullable File resultFile;
+	private @Nullable UploadAdmission.Reservation reservation;
 	private long totalLength;
+	private long ttl; //Seconds until the uploaded file expires, 0 if it is kept
+	private @Nullable UploadChecksum fileChecksum; //Digest of the whole file announced by the client
+	private @Nullable ChunkAdvisor chunkAdvisor; //Only set for chunked uploads
+	private boolean combining; //Set while the chunks of a complete upload are combined
+	private boolean completed;
 	private boolean closed;
 
 	static {
@@ -56,64 +66,215 @@ public class UploadProcess {
 			if (!TEMP_ROOT.exists() && !TEMP_ROOT.mkdir())
 				throw new IllegalStateException("Failed to create temp directory");
 		} else TEMP_ROOT = new File(tempPath);
+
+		if (!STAGING_DIRECTORY.exists() && !STAGING_DIRECTORY.mkdir())
+			throw new IllegalStateException("Failed to create staging directory");
 	}
 
 	public UploadProcess() {
 		byte[] bytes = new byte[16];
 		RANDOM.nextBytes(bytes);
-		this.id = MD5Encoder.encode(bytes);
+		this.id = HexFormat.of().formatHex(bytes);
 		this.tempDir = new File(TEMP_ROOT, id);
-		this.chunks = new HashMap<>();
+		this.chunks = new TreeMap<>();
+		this.chunkLengths = new TreeMap<>();
 
 		this.totalLength = -1;
 		this.resultFile = null;
 	}
 
-	public void handleSingle(@NotNull MultipartFile file) throws IOException {
+	/**
+	 * Writes a whole file from a stream. The data is written to a staging file next to the
+	 * download directory which is then renamed to the result file.
+	 * @param inputStream The stream of the file content
+	 * @throws IOException If the file could not be written or already exists
+	 * @throws UploadAdmission.UploadRejectedException If the file is larger than the reserved space
+	 * @throws UploadChecksum.MismatchException If the file does not match the announced digest
+	 */
+	public void handleStream(@NotNull InputStream inputStream)
+			throws IOException, UploadAdmission.UploadRejectedException, UploadChecksum.MismatchException {
 		if (closed) throw new IOException("Upload is closed");
 		if (resultFile == null) throw new IOException("Result file is not set");
-		InputStream inputStream = file.getInputStream();
-		FileUtils.copyInputStreamToFile(inputStream, resultFile);
+		long limit = reservation == null ? Long.MAX_VALUE : reservation.getLength();
+
+		File stagingFile = new File(STAGING_DIRECTORY, id);
+		try (OutputStream outputStream = new FileOutputStream(stagingFile)) {
+			byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+			long written = 0;
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				written += read;
+				if (written > limit) {
+					throw UploadAdmission.UploadRejectedException.insufficientStorage("Upload exceeds the reserved space");
+				}
+				outputStream.write(buffer, 0, read);
+				if (fileChecksum != null) fileChecksum.update(buffer, 0, read);
+			}
+			totalLength = written;
+			verifyFileChecksum();
+		} catch (IOException | UploadAdmission.UploadRejectedException | UploadChecksum.MismatchException exception) {
+			FileUtils.deleteQuietly(stagingFile);
+			throw exception;
+		}
+
+		try {
+			publishFile(stagingFile.toPath(), resultFile.toPath());
+		} finally {
+			FileUtils.deleteQuietly(stagingFile);
+			releaseReservation();
+		}
+		DownloadController.KNOWN_FILES.add(resultFile.getName());
+		applyTtl();
+		ThumbnailCache.get().schedule(resultFile);
+		BlockCompressor.get().schedule(resultFile);
 	}
 
-	public void nextChunk(@NotNull HttpServletRequest request, byte[] data) throws IOException {
-		if (closed) throw new IOException("Upload is closed");
-		if (totalLength == -1) totalLength = Long.parseLong(request.getHeader("Upload-Length"));
-		if (resultFile == null) {
-			String fileName = request.getHeader("Upload-Name");
-			if (FileDetailsUtils.isIllegalFile(fileName)) {
-				LOGGER.warn("Next upload chunk contains a illegal file name '" + fileName + "'");
-				close();
-				throw new IOException("Illegal filename");
+	/**
+	 * Stores a chunk and publishes the file once all chunks arrived. Chunks may arrive
+	 * in any order and in parallel, only the bookkeeping is done while holding the lock,
+	 * the chunks are combined after the request of the last one claimed the completion.
+	 * The body of the request is streamed into the chunk file without being buffered in memory.
+	 * @param request The request carrying the chunk
+	 * @param checksum The announced checksum of the chunk, computed while the chunk is written
+	 * @return The length of the chunk
+	 * @throws UploadChecksum.ChunkMismatchException If the chunk does not match its checksum, it is not stored then
+	 * @throws UploadChecksum.MismatchException If the combined file does not match the announced digest
+	 */
+	public long nextChunk(@NotNull HttpServletRequest request, @Nullable UploadChecksum checksum)
+			throws IOException, UploadAdmission.UploadRejectedException, UploadChecksum.MismatchException {
+		long offset;
+		long limit;
+		synchronized (this) {
+			if (closed) throw new IOException("Upload is closed");
+			if (completed || combining) return 0; //A retried chunk of a finished upload
+			if (totalLength == -1) {
+				totalLength = Long.parseLong(request.getHeader("Upload-Length"));
+				if (reservation != null && !reservation.isReserved()) reservation.reserveChunked(totalLength);
+			}
+			if (resultFile == null) {
+				String fileName = request.getHeader("Upload-Name");
+				if (FileDetailsUtils.isIllegalFile(fileName)) {
+					LOGGER.warn("Next upload chunk contains a illegal file name '{}'", fileName);
+					close();
+					throw new IOException("Illegal filename");
+				}
+
+				resultFile = new File(DownloadController.DOWNLOAD_DIRECTORY, fileName);
+				LOGGER.info("Set filename of chunked upload with id '{}' to '{}'", id, fileName);
+			}
+
+			offset = Long.parseLong(request.getHeader("Upload-Offset"));
+			limit = reservation == null ? Long.MAX_VALUE : reservation.getLength() - offset;
+		}
+
+		UploadChunkEvent event = new UploadChunkEvent();
+		event.begin();
+		File file = new File(tempDir, "chunk-" + offset + "-" + System.nanoTime());
+		long length = 0;
+		try (InputStream inputStream = request.getInputStream();
+			 OutputStream outputStream = FileUtils.openOutputStream(file)) {
+			byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				length += read;
+				if (length > limit) {
+					throw UploadAdmission.UploadRejectedException.insufficientStorage("Chunk exceeds the announced upload length");
+				}
+				outputStream.write(buffer, 0, read);
+				if (checksum != null) checksum.update(buffer, 0, read);
 			}
+		} catch (IOException | UploadAdmission.UploadRejectedException exception) {
+			FileUtils.deleteQuietly(file);
+			throw exception;
+		}
+
+		//A corrupt chunk is not stored, so the client only has to retry this chunk
+		if (checksum != null && !checksum.matches()) {
+			FileUtils.deleteQuietly(file);
+			throw new UploadChecksum.ChunkMismatchException("Chunk does not match the "
+					+ checksum.getAlgorithm() + " checksum");
+		}
 
-			resultFile = new File(DownloadController.DOWNLOAD_DIRECTORY, fileName);
-			LOGGER.info("Set filename of chunked upload with id '" + id + "' to '" + fileName + "'");
+		event.end();
+		if (event.shouldCommit()) {
+			event.uploadId = id;
+			event.offset = offset;
+			event.bytes = length;
+			event.commit();
 		}
 
-		long offset = Long.parseLong(request.getHeader("Upload-Offset"));
-		long chunkSize = request.getContentLengthLong();
+		synchronized (this) {
+			if (closed || completed || combining) {
+				FileUtils.deleteQuietly(file);
+				if (closed) throw new IOException("Upload is closed");
+				return length;
+			}
 
-		File file = new File(tempDir, "chunk-" + offset + "-" + System.currentTimeMillis());
-		FileUtils.writeByteArrayToFile(file, data, false);
-		chunks.put(offset, file);
+			File previous = chunks.put(offset, file);
+			chunkLengths.put(offset, length);
+			if (previous != null) FileUtils.deleteQuietly(previous);
+			if (getCurrentOffset() < totalLength) return length;
 
-		if (offset + chunkSize >= totalLength) {
-			LOGGER.info("Chunked upload completed");
+			//Claims the completion, so the chunks stay unchanged and the lock is free while they are combined
+			combining = true;
+		}
+
+		LOGGER.info("Chunked upload completed");
+		try {
 			File combinedFile = combineChunks();
 			FileUtils.moveFile(combinedFile, resultFile);
-			deleteTempDirectory();
+		} catch (IOException | UploadChecksum.MismatchException | RuntimeException exception) {
+			//A retried chunk combines them again
+			FileUtils.deleteQuietly(new File(tempDir, "combined"));
+			synchronized (this) {
+				combining = false;
+			}
+			throw exception;
+		}
+
+		synchronized (this) {
+			completed = true;
+			combining = false;
+		}
+		deleteTempDirectory();
+		releaseReservation();
+		DownloadController.KNOWN_FILES.add(resultFile.getName());
+		applyTtl();
+		ThumbnailCache.get().schedule(resultFile);
+		BlockCompressor.get().schedule(resultFile);
+		return length;
+	}
+
+	private void verifyFileChecksum() throws UploadChecksum.MismatchException {
+		if (fileChecksum != null && !fileChecksum.matches()) {
+			LOGGER.warn("Upload with id '{}' does not match its {} digest", id, fileChecksum.getAlgorithm());
+			throw new UploadChecksum.MismatchException("File does not match the announced digest");
 		}
 	}
 
+	private void applyTtl() {
+		if (resultFile == null) return;
+		//A file deleted by hand may have left its expiry behind, which must not apply to the new file
+		if (ttl > 0) FileExpiry.get().setExpiry(resultFile.getName(), System.currentTimeMillis() + ttl * 1000);
+		else FileExpiry.get().removeExpiry(resultFile.getName());
+	}
+
+	/**
+	 * Writes the chunks in the order of their offsets into one file and checks the announced digest
+	 * @throws UploadChecksum.MismatchException If the combined file does not match the digest
+	 */
 	@NotNull
-	public File combineChunks() throws IOException {
+	public File combineChunks() throws IOException, UploadChecksum.MismatchException {
 		if (closed) throw new IOException("Upload is closed");
-		LOGGER.info("Combining " + chunks.size() + " chunks");
+		if (LOGGER.isInfoEnabled()) LOGGER.info("Combining {} chunks", chunks.size());
 		long startTime = System.currentTimeMillis();
+		UploadCombineEvent event = new UploadCombineEvent();
+		event.begin();
 
 		File combinedFile = new File(tempDir, "combined");
+		if (fileChecksum != null) fileChecksum.reset();
 		RandomAccessFile randomAccessFile = new RandomAccessFile(combinedFile, "rw");
+		long position = 0;
 		for (Map.Entry<Long, File> entry : chunks.entrySet()) {
 			File file = entry.getValue();
 			byte[] chunkData = FileUtils.readFileToByteArray(file);
@@ -121,41 +282,122 @@ public class UploadProcess {
 			long offset = entry.getKey();
 			randomAccessFile.seek(offset);
 			randomAccessFile.write(chunkData);
+
+			//Retried chunks may overlap with their neighbours, the overlap is only digested once
+			if (fileChecksum != null && offset <= position && offset + chunkData.length > position) {
+				int skip = (int) (position - offset);
+				fileChecksum.update(chunkData, skip, chunkData.length - skip);
+			}
+			if (offset <= position) position = Math.max(position, offset + chunkData.length);
 		}
 		randomAccessFile.close();
 
-		long took = System.currentTimeMillis() - startTime;
-		LOGGER.info("Combining took " + (took / 1000.0) + "s");
+		if (position != totalLength)
+			LOGGER.warn("Chunks of upload with id '{}' cover {} of {} bytes", id, position, totalLength);
+		try {
+			verifyFileChecksum();
+		} catch (UploadChecksum.MismatchException exception) {
+			FileUtils.deleteQuietly(combinedFile);
+			throw exception;
+		}
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.uploadId = id;
+			event.fileName = resultFile == null ? null : resultFile.getName();
+			event.chunks = chunks.size();
+			event.bytes = position;
+			event.commit();
+		}
+
+		if (LOGGER.isInfoEnabled()) {
+			long took = System.currentTimeMillis() - startTime;
+			LOGGER.info("Combining took {}s", took / 1000.0);
+		}
 		return combinedFile;
 	}
 
 	public boolean revert() {
 		if (closed) return false;
 		if (resultFile != null) {
-			LOGGER.info("Deleting file: " + resultFile.getName());
+			LOGGER.info("Deleting file: {}", resultFile.getName());
+			ThumbnailCache.get().invalidate(resultFile);
 			return !resultFile.exists() || FileUtils.deleteQuietly(resultFile);
 		} else return false;
 	}
 
-	public long getCurrentOffset() {
-		OptionalLong maxOffset = chunks.keySet().stream()
-				.mapToLong(Long::longValue).max();
-		return maxOffset.orElse(0L);
+	/**
+	 * Gets the number of bytes from the start of the file that are covered by chunks without a gap,
+	 * which is where an interrupted upload has to be resumed
+	 */
+	public synchronized long getCurrentOffset() {
+		long position = 0;
+		for (Map.Entry<Long, Long> entry : chunkLengths.entrySet()) {
+			if (entry.getKey() > position) break;
+			position = Math.max(position, entry.getKey() + entry.getValue());
+		}
+		return position;
 	}
 
 	public void close() {
 		String fileName = resultFile == null ? "null" : resultFile.getName();
-		LOGGER.info("Closing upload process with id '" + id + "' and filename '" + fileName + "'");
+		LOGGER.info("Closing upload process with id '{}' and filename '{}'", id, fileName);
 		deleteTempDirectory();
+		releaseReservation();
 		closed = true;
 	}
 
+	private void releaseReservation() {
+		if (reservation != null) reservation.release();
+	}
+
+	/**
+	 * Moves a finished file into place without overwriting an existing file.
+	 * A hard link fails atomically if the target exists, whereas a rename would replace it.
+	 * If the staging directory is on another file system than the target, the file is copied next to
+	 * the target first, under a name no upload can have, so the target never appears partially written.
+	 */
+	private static void publishFile(@NotNull Path source, @NotNull Path target) throws IOException {
+		try {
+			Files.createLink(target, source);
+			Files.delete(source);
+			return;
+		} catch (FileAlreadyExistsException exception) {
+			throw exception;
+		} catch (UnsupportedOperationException | FileSystemException exception) {
+			LOGGER.debug("Could not link {} into place, copying it", target.getFileName(), exception);
+		}
+
+		Path copy = target.resolveSibling("." + target.getFileName() + "..upload");
+		try {
+			Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+			try {
+				Files.createLink(target, copy);
+			} catch (UnsupportedOperationException exception) {
+				if (Files.exists(target)) throw new FileAlreadyExistsException(target.toString());
+				Files.move(copy, target, StandardCopyOption.ATOMIC_MOVE);
+			}
+		} finally {
+			Files.deleteIfExists(copy);
+		}
+	}
+
+	@NotNull
+	static File getStagingDirectory() {
+		return STAGING_DIRECTORY;
+	}
+
+	@NotNull
+	static File getTempRoot() {
+		return TEMP_ROOT;
+	}
+
 	private void deleteTempDirectory() {
 		SERVICE.submit(() -> {
 			try {
 				if (tempDir.exists()) FileUtils.deleteDirectory(tempDir);
 			} catch (IOException exception) {
-				LOGGER.warn("Failed to delete temporary directory: " + tempDir.getAbsolutePath(), exception);
+				LOGGER.warn("Failed to delete temporary directory: {}", tempDir.getAbsolutePath(), exception);
 			}
 		});
 	}
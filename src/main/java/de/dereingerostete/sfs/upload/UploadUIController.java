@@ -10,6 +10,7 @@
 package de.dereingerostete.sfs.upload;
 
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.logging.LogSampler;
 import de.dereingerostete.sfs.util.RateLimiter;
 import de.dereingerostete.sfs.util.RefreshingConfig;
 import jakarta.servlet.http.HttpServletRequest;
@@ -59,7 +60,7 @@ public class UploadUIController {
 		String username = form.getUsername();
 		String enteredPassword = form.getPassword();
 		if (username == null || enteredPassword == null) {
-			LOGGER.info("Upload: Username or password null");
+			LogSampler.AUTH_FAILURES.info(LOGGER, "Upload: Username or password null ({})", address);
 			model.addAttribute("form", new UploadLoginForm());
 			model.addAttribute("failed", true);
 			return "upload-login";
@@ -68,13 +69,13 @@ public class UploadUIController {
 		RefreshingConfig config = StaticFileServerApplication.getUserConfig();
 		String password = config.getString(username, null);
 		if (password == null || !password.equals(enteredPassword)) {
-			LOGGER.info("Upload: Password invalid or no user found");
+			LogSampler.AUTH_FAILURES.info(LOGGER, "Upload: Password invalid or no user found for '{}' ({})", username, address);
 			model.addAttribute("form", new UploadLoginForm());
 			model.addAttribute("failed", true);
 			return "upload-login";
 		}
 
-		AUTHENTICATOR.generateToken(response);
+		AUTHENTICATOR.generateToken(response, username);
 		return "upload";
 	}
 
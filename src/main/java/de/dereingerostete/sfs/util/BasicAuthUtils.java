@@ -12,7 +12,9 @@ package de.dereingerostete.sfs.util;
 import de.dereingerostete.sfs.StaticFileServerApplication;
 import de.dereingerostete.sfs.api.v1.FileRequest;
 import de.dereingerostete.sfs.controller.DownloadController;
+import de.dereingerostete.sfs.error.ErrorResponses;
 import de.dereingerostete.sfs.error.RestError;
+import de.dereingerostete.sfs.logging.LogSampler;
 import jakarta.servlet.http.HttpServletRequest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -43,7 +45,10 @@ public class BasicAuthUtils {
 		}
 
 		String authentication = servletRequest.getHeader("Authorization");
-		if (authentication == null) return createUnauthorizedError("No authentication was specified");
+		if (authentication == null) {
+			LogSampler.AUTH_FAILURES.info(LOGGER, "User ({}) sent no authentication", address);
+			return ErrorResponses.NO_AUTHENTICATION.toResponse();
+		}
 
 		String decoded;
 		try {
@@ -52,13 +57,18 @@ public class BasicAuthUtils {
 			decoded = new String(decoder.decode(credentials), StandardCharsets.UTF_8);
 
 			String[] parts = decoded.split(":", 2);
-			if (parts.length != 2) return createUnauthorizedError("Invalid authentication");
+			if (parts.length != 2) {
+				LogSampler.AUTH_FAILURES.info(LOGGER, "User ({}) sent invalid authentication", address);
+				return ErrorResponses.INVALID_AUTHENTICATION.toResponse();
+			}
 
 			String password = USER_CONFIG.getString(parts[0], null);
-			if (password == null || !password.equals(parts[1])) return createUnauthorizedError("Invalid Username or Password");
-			else if (fileRequest == null) return null;
+			if (password == null || !password.equals(parts[1])) {
+				LogSampler.AUTH_FAILURES.info(LOGGER, "User ({}) used invalid credentials for '{}'", address, parts[0]);
+				return ErrorResponses.INVALID_CREDENTIALS.toResponse();
+			} else if (fileRequest == null) return null;
 		} catch (RuntimeException exception) {
-			LOGGER.info("User (" + address + ") used illegal authentication: " + exception.getMessage());
+			LogSampler.AUTH_FAILURES.info(LOGGER, "User ({}) used illegal authentication: {}", address, exception.getMessage());
 			return ResponseEntity.badRequest()
 					.contentType(MediaType.APPLICATION_JSON)
 					.body(RestError.badRequest("Invalid authentication"));
@@ -71,12 +81,4 @@ public class BasicAuthUtils {
 		} else return null;
 	}
 
-	@NotNull
-	private static ResponseEntity<Object> createUnauthorizedError(@NotNull String message) {
-		return ResponseEntity.status(401)
-				.header("WWW-Authenticate", "Basic realm=\"API V1\", charset=\"UTF-8\"")
-				.contentType(MediaType.APPLICATION_JSON)
-				.body(RestError.unauthorized(message));
-	}
-
 }
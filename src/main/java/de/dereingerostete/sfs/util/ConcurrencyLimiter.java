@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how many requests a remote address can have in progress at the same time
+ */
+public class ConcurrencyLimiter {
+	private final @NotNull Map<String, Integer> active = new ConcurrentHashMap<>();
+	private final int maxConcurrent;
+
+	public ConcurrencyLimiter(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * Tries to start a request of a remote address
+	 * @param address The remote address
+	 * @return A permit which has to be released when the request ends or null if the limit is reached
+	 */
+	@Nullable
+	public Permit tryAcquire(@NotNull String address) {
+		AtomicBoolean acquired = new AtomicBoolean();
+		active.compute(address, (key, count) -> {
+			int current = count == null ? 0 : count;
+			if (current >= maxConcurrent) return count;
+			acquired.set(true);
+			return current + 1;
+		});
+		return acquired.get() ? new Permit(address) : null;
+	}
+
+	public int getActive(@NotNull String address) {
+		return active.getOrDefault(address, 0);
+	}
+
+	public class Permit {
+		private final @NotNull String address;
+		private final @NotNull AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(@NotNull String address) {
+			this.address = address;
+		}
+
+		/**
+		 * Releases the permit, can be called multiple times
+		 */
+		public void release() {
+			if (!released.compareAndSet(false, true)) return;
+			active.computeIfPresent(address, (key, count) -> count <= 1 ? null : count - 1);
+		}
+
+	}
+
+}
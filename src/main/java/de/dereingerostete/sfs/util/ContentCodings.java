@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.HttpHeaders;
+
+import java.util.Enumeration;
+
+public class ContentCodings {
+
+	/**
+	 * Checks whether a client accepts a content coding, i.e. whether its Accept-Encoding
+	 * header names the coding, or "*" if the coding is not named, without a quality of 0
+	 * @param request The request of the client
+	 * @param coding The coding, for example "gzip" or "br"
+	 * @return Whether the response may be sent with the coding
+	 */
+	public static boolean accepts(@NotNull HttpServletRequest request, @NotNull String coding) {
+		Boolean wildcard = null;
+		Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+		while (headers != null && headers.hasMoreElements()) {
+			for (String value : headers.nextElement().split(",")) {
+				String[] parts = value.split(";");
+				String name = parts[0].trim();
+				if (name.equalsIgnoreCase(coding)) return !isRejected(parts);
+				if (name.equals("*")) wildcard = !isRejected(parts);
+			}
+		}
+		return wildcard != null && wildcard;
+	}
+
+	/**
+	 * Checks whether the parameters of a coding contain a quality of 0
+	 */
+	private static boolean isRejected(@NotNull String[] parts) {
+		for (int i = 1; i < parts.length; i++) {
+			String[] parameter = parts[i].split("=", 2);
+			if (parameter.length == 2 && parameter[0].trim().equalsIgnoreCase("q")
+					&& parameter[1].trim().matches("0(\\.0*)?")) return true;
+		}
+		return false;
+	}
+
+}
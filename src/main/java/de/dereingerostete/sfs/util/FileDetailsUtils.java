@@ -10,6 +10,7 @@
 package de.dereingerostete.sfs.util;
 
 import de.dereingerostete.sfs.StaticFileServerApplication;
+import de.dereingerostete.sfs.compression.StoredFile;
 import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -44,7 +45,7 @@ public class FileDetailsUtils {
 
 	@NotNull
 	public static String getFormattedFileSize(@NotNull File file) {
-		long byteCount = file.length();
+		long byteCount = StoredFile.getLength(file);
 		return FileUtils.byteCountToDisplaySize(byteCount);
 	}
 
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.jetbrains.annotations.NotNull;
+
+public class FileNameValidator {
+
+	/**
+	 * Checks a requested file name in a single pass without allocating.
+	 * A name is invalid if it contains characters outside of ISO-8859-1, control characters
+	 * or "..", or if it is a single character other than a letter, digit, '_', '.' or '-'.
+	 * @param fileName The name to check
+	 * @return Whether the name is invalid
+	 */
+	public static boolean isInvalid(@NotNull String fileName) {
+		int length = fileName.length();
+		if (length == 1 && !isSafeCharacter(fileName.charAt(0))) return true;
+
+		char previous = 0;
+		for (int i = 0; i < length; i++) {
+			char c = fileName.charAt(i);
+			if (c > 0xFF || c < 32 || c == 127) return true;
+			else if (c == '.' && previous == '.') return true;
+			previous = c;
+		}
+		return false;
+	}
+
+	private static boolean isSafeCharacter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '_' || c == '.' || c == '-';
+	}
+
+}
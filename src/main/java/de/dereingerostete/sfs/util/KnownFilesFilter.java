@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import de.dereingerostete.sfs.StaticFileServerApplication;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the names of all files in one or more directories. Names the filter has never seen
+ * can be answered with a 404 without touching the file system. The filter learns new files
+ * from uploads and a directory watcher, and is rebuilt periodically to forget deleted files.
+ * The first build is done by the warm-up, until then every name might exist.
+ */
+public class KnownFilesFilter implements Closeable {
+	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
+	private static final long REBUILD_INTERVAL_MINUTES = 30;
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+	private static final int MIN_CAPACITY = 1024;
+	private final @NotNull List<File> directories;
+	private volatile @Nullable BloomFilter filter;
+	private volatile @Nullable BloomFilter building;
+	private volatile @Nullable Set<String> pending; //Names added while the directories are listed
+	private final @NotNull ScheduledExecutorService service;
+	private final @Nullable WatchService watchService;
+
+	public KnownFilesFilter(@NotNull File directory) {
+		this.directories = new CopyOnWriteArrayList<>();
+		this.directories.add(directory);
+
+		this.service = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "KnownFilesFilter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleWithFixedDelay(this::rebuild, REBUILD_INTERVAL_MINUTES, REBUILD_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+		//One watcher thread serves all directories
+		this.watchService = createWatchService();
+		if (watchService != null) {
+			Thread thread = new Thread(() -> watch(watchService), "KnownFilesWatcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		register(directory);
+	}
+
+	/**
+	 * Adds another directory whose files may exist, for example a storage tier.
+	 * Its files become known with the next rebuild.
+	 */
+	public void addDirectory(@NotNull File directory) {
+		directories.add(directory);
+		register(directory);
+	}
+
+	/**
+	 * Checks whether a file might exist
+	 * @param fileName The name of the file
+	 * @return False if the file definitely does not exist, true if it may exist or the filter is not built yet
+	 */
+	public boolean mightExist(@NotNull String fileName) {
+		BloomFilter current = filter;
+		return current == null || current.mightContain(fileName);
+	}
+
+	public void add(@NotNull String fileName) {
+		Set<String> added = pending;
+		if (added != null) added.add(fileName);
+
+		BloomFilter current = filter;
+		if (current != null) current.add(fileName);
+		BloomFilter pending = building;
+		if (pending != null) pending.add(fileName);
+
+		//The filter was replaced concurrently
+		BloomFilter latest = filter;
+		if (latest != null && latest != current) latest.add(fileName);
+	}
+
+	public synchronized void rebuild() {
+		//Files created after a directory was listed are missing from the listing, so they are collected
+		Set<String> added = ConcurrentHashMap.newKeySet();
+		pending = added;
+		try {
+			List<String> fileNames = new ArrayList<>();
+			for (File directory : directories) {
+				String[] names = directory.list();
+				if (names == null) {
+					LOGGER.warn("Could not list files of {} for the known files filter", directory.getName());
+					return;
+				}
+				fileNames.addAll(Arrays.asList(names));
+			}
+			int count = fileNames.size();
+
+			//Leave room for new uploads until the next rebuild
+			BloomFilter newFilter = new BloomFilter(Math.max(MIN_CAPACITY, count * 2), FALSE_POSITIVE_RATE);
+			building = newFilter;
+			for (String fileName : fileNames) newFilter.add(fileName);
+			for (String fileName : added) newFilter.add(fileName);
+			filter = newFilter;
+		} finally {
+			building = null;
+			pending = null;
+		}
+	}
+
+	/**
+	 * Stops the rebuilds and the directory watcher
+	 */
+	@Override
+	public void close() throws IOException {
+		service.shutdownNow();
+		if (watchService != null) watchService.close();
+	}
+
+	@Nullable
+	private static WatchService createWatchService() {
+		try {
+			return FileSystems.getDefault().newWatchService();
+		} catch (IOException exception) {
+			LOGGER.warn("Failed to create a watch service for new files", exception);
+			return null;
+		}
+	}
+
+	private void register(@NotNull File directory) {
+		if (watchService == null) return;
+		try {
+			directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.OVERFLOW);
+		} catch (IOException | ClosedWatchServiceException exception) {
+			LOGGER.warn("Failed to watch {} for new files", directory.getName(), exception);
+		}
+	}
+
+	/**
+	 * Adds files that are created in the directories by other means than an upload
+	 */
+	private void watch(@NotNull WatchService watchService) {
+		try {
+			WatchKey key;
+			while ((key = watchService.take()) != null) {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) rebuild();
+					else if (event.context() instanceof Path path) add(path.getFileName().toString());
+				}
+				key.reset();
+			}
+		} catch (ClosedWatchServiceException exception) {
+			//The filter was closed
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class BloomFilter {
+		private final @NotNull AtomicLongArray bits;
+		private final long bitCount;
+		private final int hashCount;
+
+		private BloomFilter(int expectedEntries, double falsePositiveRate) {
+			long optimalBits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+			int words = (int) Math.max(1, (optimalBits + 63) / 64);
+			this.bits = new AtomicLongArray(words);
+			this.bitCount = words * 64L;
+			this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedEntries * Math.log(2)));
+		}
+
+		private void add(@NotNull String value) {
+			long hash = hash(value);
+			int first = (int) hash;
+			int second = (int) (hash >>> 32);
+			for (int i = 0; i < hashCount; i++) {
+				long index = Integer.toUnsignedLong(first + i * second) % bitCount;
+				int word = (int) (index >>> 6);
+				long mask = 1L << index;
+
+				long current;
+				do {
+					current = bits.get(word);
+					if ((current & mask) != 0) break;
+				} while (!bits.compareAndSet(word, current, current | mask));
+			}
+		}
+
+		private boolean mightContain(@NotNull String value) {
+			long hash = hash(value);
+			int first = (int) hash;
+			int second = (int) (hash >>> 32);
+			for (int i = 0; i < hashCount; i++) {
+				long index = Integer.toUnsignedLong(first + i * second) % bitCount;
+				if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * 64-bit FNV-1a over the characters, followed by a final mix to spread the bits
+		 */
+		private static long hash(@NotNull String value) {
+			long hash = 0xCBF29CE484222325L;
+			for (int i = 0; i < value.length(); i++) {
+				hash ^= value.charAt(i);
+				hash *= 0x100000001B3L;
+			}
+
+			hash ^= hash >>> 33;
+			hash *= 0xFF51AFD7ED558CCDL;
+			hash ^= hash >>> 33;
+			return hash;
+		}
+
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.MediaType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming parser for multipart/form-data request bodies.
+ * Parts are read one after another directly from the request stream, using a fixed size buffer,
+ * so the body is never spooled to memory or disk.
+ */
+public class MultipartStreamParser {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_HEADER_SIZE = 16 * 1024;
+	private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+	private final @NotNull InputStream inputStream;
+	private final byte[] delimiter;
+	private final byte[] buffer;
+	private int head;
+	private int tail;
+	private boolean finished;
+	private @Nullable PartInputStream currentStream;
+
+	public MultipartStreamParser(@NotNull InputStream inputStream, @NotNull String boundary) {
+		this.inputStream = inputStream;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+		//The first boundary is not preceded by a line break
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		tail = 2;
+	}
+
+	/**
+	 * Gets the boundary of a multipart content type
+	 * @param contentType The content type header of the request
+	 * @return The boundary or null if the content type is not multipart or has no boundary
+	 */
+	@Nullable
+	public static String getBoundary(@Nullable String contentType) {
+		if (contentType == null) return null;
+		try {
+			MediaType mediaType = MediaType.parseMediaType(contentType);
+			if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType)) return null;
+			return mediaType.getParameter("boundary");
+		} catch (RuntimeException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Advances to the next part. The content of the previous part is skipped if it was not fully read.
+	 * @return The next part or null if there are no more parts
+	 * @throws IOException If the stream could not be read or is malformed
+	 */
+	@Nullable
+	public Part next() throws IOException {
+		if (finished) return null;
+		PartInputStream previous = currentStream;
+		if (previous == null) previous = new PartInputStream();
+		previous.skipRemaining();
+
+		//Skip the delimiter and check whether it is the closing one
+		head += delimiter.length;
+		ensureAvailable(2);
+		if (buffer[head] == '-' && buffer[head + 1] == '-') {
+			finished = true;
+			return null;
+		}
+
+		String headers = readHeaders();
+		String disposition = null;
+		String contentType = null;
+		for (String line : headers.split("\r\n")) {
+			int separator = line.indexOf(':');
+			if (separator == -1) continue;
+
+			String name = line.substring(0, separator).trim();
+			String value = line.substring(separator + 1).trim();
+			if (name.equalsIgnoreCase("Content-Disposition")) disposition = value;
+			else if (name.equalsIgnoreCase("Content-Type")) contentType = value;
+		}
+
+		if (disposition == null) throw new IOException("Multipart part is missing a Content-Disposition");
+		ContentDisposition contentDisposition;
+		try {
+			contentDisposition = ContentDisposition.parse(disposition);
+		} catch (IllegalArgumentException exception) {
+			throw new IOException("Invalid Content-Disposition", exception);
+		}
+
+		currentStream = new PartInputStream();
+		return new Part(contentDisposition.getName(), contentDisposition.getFilename(), contentType, currentStream);
+	}
+
+	@NotNull
+	private String readHeaders() throws IOException {
+		//Skip the line break after the boundary (transport padding is not supported)
+		ensureAvailable(2);
+		if (buffer[head] != '\r' || buffer[head + 1] != '\n') throw new IOException("Malformed multipart boundary");
+		head += 2;
+
+		//A part without any headers
+		ensureAvailable(2);
+		if (buffer[head] == '\r' && buffer[head + 1] == '\n') {
+			head += 2;
+			return "";
+		}
+
+		while (true) {
+			int index = indexOf(HEADER_END, head);
+			if (index != -1) {
+				String headers = new String(buffer, head, index - head, StandardCharsets.UTF_8);
+				head = index + HEADER_END.length;
+				return headers;
+			}
+
+			if (tail - head >= MAX_HEADER_SIZE) throw new IOException("Multipart headers are too large");
+			if (!fill()) throw new EOFException("Unexpected end of multipart headers");
+		}
+	}
+
+	private void ensureAvailable(int count) throws IOException {
+		while (tail - head < count) {
+			if (!fill()) throw new EOFException("Unexpected end of multipart stream");
+		}
+	}
+
+	/**
+	 * Reads more bytes into the buffer, moving the unread bytes to the front if necessary
+	 * @return Whether any bytes could be read
+	 */
+	private boolean fill() throws IOException {
+		if (tail == buffer.length) compact();
+		if (tail == buffer.length) return false;
+
+		int read = inputStream.read(buffer, tail, buffer.length - tail);
+		if (read == -1) return false;
+		tail += read;
+		return true;
+	}
+
+	private void compact() {
+		if (head == 0) return;
+		System.arraycopy(buffer, head, buffer, 0, tail - head);
+		tail -= head;
+		head = 0;
+	}
+
+	private int indexOf(byte[] pattern, int from) {
+		int last = tail - pattern.length;
+		outer:
+		for (int i = from; i <= last; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (buffer[i + j] != pattern[j]) continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	public class PartInputStream extends InputStream {
+		private boolean done;
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read == -1 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (done) return -1;
+			if (length == 0) return 0;
+
+			while (true) {
+				int available = readable();
+				if (available > 0) {
+					int count = Math.min(available, length);
+					System.arraycopy(buffer, head, bytes, offset, count);
+					head += count;
+					return count;
+				} else if (available == -1) {
+					done = true;
+					return -1;
+				}
+
+				if (!fill()) throw new EOFException("Unexpected end of multipart stream");
+			}
+		}
+
+		@Override
+		public int available() {
+			return Math.max(0, readable());
+		}
+
+		/**
+		 * Gets the number of bytes of this part that are already buffered
+		 * @return The number of bytes, 0 if more data is needed or -1 if the part is finished
+		 */
+		private int readable() {
+			if (done) return -1;
+			int index = indexOf(delimiter, head);
+			if (index == head) return -1;
+			else if (index != -1) return index - head;
+
+			//A delimiter could start within the last bytes of the buffer
+			return Math.max(0, tail - head - delimiter.length + 1);
+		}
+
+		private void skipRemaining() throws IOException {
+			byte[] skipBuffer = new byte[4096];
+			int read;
+			do {
+				read = read(skipBuffer, 0, skipBuffer.length);
+			} while (read != -1);
+		}
+
+	}
+
+	@Getter
+	public static class Part {
+		private final @Nullable String name;
+		private final @Nullable String fileName;
+		private final @Nullable String contentType;
+		private final @NotNull InputStream inputStream;
+
+		private Part(@Nullable String name, @Nullable String fileName, @Nullable String contentType,
+					 @NotNull InputStream inputStream) {
+			this.name = name;
+			this.fileName = fileName;
+			this.contentType = contentType;
+			this.inputStream = inputStream;
+		}
+
+		public boolean isFile() {
+			return fileName != null;
+		}
+
+	}
+
+}
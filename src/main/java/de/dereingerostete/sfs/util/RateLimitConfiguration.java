@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RateLimitConfiguration {
+
+	public RateLimitConfiguration(@Value("${sfs.rate-limit:1000}") int maxRequests) {
+		if (maxRequests <= 0) throw new IllegalStateException("sfs.rate-limit must be positive");
+		RateLimiter.get().setMaxRequests(maxRequests);
+	}
+
+}
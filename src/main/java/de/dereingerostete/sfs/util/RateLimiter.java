@@ -12,10 +12,12 @@ package de.dereingerostete.sfs.util;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Policy;
-import de.dereingerostete.sfs.error.RestError;
+import de.dereingerostete.sfs.cluster.CounterSync;
+import de.dereingerostete.sfs.cluster.SharedState;
+import de.dereingerostete.sfs.error.ErrorResponses;
+import de.dereingerostete.sfs.jfr.RateLimitEvent;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.http.ResponseEntity;
 
 import java.time.Duration;
@@ -26,9 +28,16 @@ import java.util.concurrent.TimeUnit;
 public class RateLimiter {
     private static final @NotNull Duration EXPIRE_DURATION = Duration.ofMinutes(10);
     private static final RateLimiter INSTANCE = new RateLimiter();
-    private static final int MAX_REQUESTS = 1000;
     protected final Cache<String, Integer> cache = Caffeine.newBuilder()
             .expireAfterWrite(EXPIRE_DURATION).build();
+    private volatile int maxRequests = 1000;
+
+    /**
+     * Sets the number of requests an address may send within the expire duration
+     */
+    void setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
 
     /**
      * Check if a remote access can access the APIs
@@ -36,6 +45,14 @@ public class RateLimiter {
      * @return Whether the address can access the APIs
      */
     public boolean cannotAccess(@NotNull String address) {
+        CounterSync counters = getSharedCounters();
+        if (counters != null) {
+            long count = counters.get(address);
+            if (count >= maxRequests) return reject(address, count, true);
+            counters.increment(address);
+            return false;
+        }
+
         Integer accesses = cache.getIfPresent(address);
         if (accesses == null) {
             accesses = 0;
@@ -44,17 +61,34 @@ public class RateLimiter {
         }
 
         accesses++;
-        if (accesses >= MAX_REQUESTS) return true;
+        if (accesses >= maxRequests) return reject(address, accesses, false);
         cache.put(address, accesses);
         return false;
     }
 
+    private boolean reject(@NotNull String address, long requests, boolean shared) {
+        RateLimitEvent event = new RateLimitEvent();
+        if (event.shouldCommit()) {
+            event.address = address;
+            event.requests = requests;
+            event.shared = shared;
+            event.commit();
+        }
+        return true;
+    }
+
     /**
      * Gets the time left the remote address needs to wait to get access back
      * @param address The remote address to check
      * @return The time left or -1 if the address isn't blocked
      */
     public long getTimeLeft(@NotNull String address) {
+        CounterSync counters = getSharedCounters();
+        if (counters != null) {
+            if (counters.get(address) < maxRequests) return -1;
+            return TimeUnit.MILLISECONDS.toSeconds(counters.getTimeLeft(address));
+        }
+
         Optional<Policy.FixedExpiration<String, Integer>> optional = cache.policy().expireAfterWrite();
         Policy.FixedExpiration<String, Integer> policy = optional.orElse(null);
         if (policy == null) return -1;
@@ -64,6 +98,16 @@ public class RateLimiter {
         else return EXPIRE_DURATION.toSeconds() - optionalLong.getAsLong();
     }
 
+    /**
+     * Gets the counters shared with the other nodes
+     * @return The counters or null if clustering is disabled
+     */
+    @Nullable
+    private CounterSync getSharedCounters() {
+        SharedState state = SharedState.get();
+        return state == null ? null : state.getCounters("rate-limit", EXPIRE_DURATION);
+    }
+
     @NotNull
     public static RateLimiter get() {
         return INSTANCE;
@@ -71,10 +115,7 @@ public class RateLimiter {
 
     @NotNull
 	public ResponseEntity<Object> createResponse(long timeLeft) {
-        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
-                .contentType(MediaType.APPLICATION_JSON)
-                .header("Retry-After", String.valueOf(timeLeft))
-                .body(RestError.tooManyRequests(timeLeft));
+        return ErrorResponses.TOO_MANY_REQUESTS.toResponse(timeLeft);
     }
 
 }
\ No newline at end of file
@@ -10,7 +10,7 @@
 package de.dereingerostete.sfs.util;
 
 import de.dereingerostete.sfs.StaticFileServerApplication;
-import lombok.Getter;
+import de.dereingerostete.sfs.jfr.ConfigEvent;
 import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -20,30 +20,34 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
+/**
+ * JSON config which is reloaded when its file changes. The file is read lazily on the first access
+ * or by the warm-up, so creating a config does not delay the startup.
+ */
 public class RefreshingConfig {
 	private static final @NotNull Logger LOGGER = StaticFileServerApplication.getLogger();
 	private final @NotNull File file;
 	private final @NotNull WatchService service;
 	private final @NotNull WatchKey registerWatchKey;
-	private @NotNull @Getter JSONObject rootObject;
+	private volatile @Nullable JSONObject rootObject;
 
 	public RefreshingConfig(@NotNull File file) throws IOException {
 		this.file = file;
 
-		String fileContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
-		rootObject = new JSONObject(fileContent);
-
 		service = FileSystems.getDefault().newWatchService();
 		Path directory = file.getAbsoluteFile().getParentFile().toPath();
 		registerWatchKey = directory.register(service, StandardWatchEventKinds.ENTRY_MODIFY);
-		LOGGER.info("Registered file watcher for file '" + file.getName() + "' in path '" + directory + "'");
+		LOGGER.info("Registered file watcher for file '{}' in path '{}'", file.getName(), directory);
 
 		ExecutorService executorService = Executors.newFixedThreadPool(1);
 		executorService.submit(() -> {
@@ -57,7 +61,7 @@ public class RefreshingConfig {
 
 						try {
 							if (StandardWatchEventKinds.ENTRY_MODIFY.equals(kind)) {
-								LOGGER.info("Refreshing config (" + file.getName() + ") after file change");
+								LOGGER.info("Refreshing config ({}) after file change", file.getName());
 								refresh();
 								break;
 							}
@@ -68,40 +72,69 @@ public class RefreshingConfig {
 					key.reset();
 				}
 			} catch (InterruptedException exception) {
-				LOGGER.warn("Failed to watch for file event in config '" + file.getName() + "'", exception);
+				LOGGER.warn("Failed to watch for file event in config '{}'", file.getName(), exception);
 			}
 		});
 	}
 
+	/**
+	 * Gets the content of the config and reads the file if it was not loaded yet
+	 * @throws UncheckedIOException If the file could not be read
+	 */
+	@NotNull
+	public JSONObject getRootObject() {
+		JSONObject object = rootObject;
+		if (object != null) return object;
+
+		synchronized (this) {
+			if (rootObject == null) {
+				try {
+					refresh();
+				} catch (IOException exception) {
+					throw new UncheckedIOException("Failed to load config " + file.getName(), exception);
+				}
+			}
+			return Objects.requireNonNull(rootObject);
+		}
+	}
+
 	@Nullable
 	public Set<String> getTokens(@NotNull String key) {
-		JSONArray array = rootObject.optJSONArray(key);
+		return getTokens(getRootObject(), key);
+	}
+
+	@Nullable
+	public static Set<String> getTokens(@NotNull JSONObject object, @NotNull String key) {
+		JSONArray array = object.optJSONArray(key);
 		if (array == null) return null;
 
 		Set<String> list = new HashSet<>();
-		array.forEach(object -> {
-			if (object instanceof String string) list.add(string);
+		array.forEach(element -> {
+			if (element instanceof String string) list.add(string);
 		});
 		return list;
 	}
 
 	@Nullable
 	public String getString(@NotNull String key, @Nullable String defaultValue) {
-		return rootObject.optString(key, defaultValue);
+		return getRootObject().optString(key, defaultValue);
 	}
 
 	public void put(@NotNull String key, @NotNull Object object) {
-		rootObject.put(key, object);
+		getRootObject().put(key, object);
 	}
 
 	@Nullable
 	public Object remove(@NotNull String key) {
-		return rootObject.remove(key);
+		return getRootObject().remove(key);
 	}
 
 	public void refresh() throws IOException {
+		ConfigEvent event = new ConfigEvent();
+		event.begin();
 		String fileContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
 		rootObject = new JSONObject(fileContent);
+		commitEvent(event, "refresh", fileContent.length());
 	}
 
 	public void close() throws IOException {
@@ -110,8 +143,39 @@ public class RefreshingConfig {
 	}
 
 	public void save() throws IOException {
-		String jsonString = rootObject.toString(4);
+		save(getRootObject());
+	}
+
+	/**
+	 * Applies multiple changes at once and saves the config a single time.
+	 * The changes are made on a copy, which replaces the current content only after it was saved,
+	 * so readers never see a partially applied modification and nothing changes if saving fails.
+	 * @param modifier The function modifying the copy of the root object
+	 * @throws IOException If the config could not be saved
+	 */
+	public synchronized void modify(@NotNull Consumer<JSONObject> modifier) throws IOException {
+		JSONObject current = getRootObject();
+		JSONObject copy = current.isEmpty() ? new JSONObject() : new JSONObject(current, JSONObject.getNames(current));
+		modifier.accept(copy);
+		save(copy);
+		rootObject = copy;
+	}
+
+	private void save(@NotNull JSONObject object) throws IOException {
+		ConfigEvent event = new ConfigEvent();
+		event.begin();
+		String jsonString = object.toString(4);
 		FileUtils.write(file, jsonString, StandardCharsets.UTF_8, false);
+		commitEvent(event, "save", jsonString.length());
+	}
+
+	private void commitEvent(@NotNull ConfigEvent event, @NotNull String operation, long length) {
+		event.end();
+		if (!event.shouldCommit()) return;
+		event.config = file.getName();
+		event.operation = operation;
+		event.bytes = length;
+		event.commit();
 	}
 
 }
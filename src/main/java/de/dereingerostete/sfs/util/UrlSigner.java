@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+
+/**
+ * Signs and verifies download URLs with HMAC-SHA256, so that expiring links can be
+ * checked without looking up any tokens. The key is stored in a file next to the configs.
+ */
+public class UrlSigner {
+	public static final @NotNull String SCOPE_ALL = "*";
+	private static final @NotNull String ALGORITHM = "HmacSHA256";
+	private static final @NotNull File KEY_FILE = new File("url-signing.key");
+	private static final @NotNull UrlSigner INSTANCE = new UrlSigner();
+	private final @NotNull ThreadLocal<Mac> macs;
+
+	private UrlSigner() {
+		SecretKeySpec key = new SecretKeySpec(loadKey(), ALGORITHM);
+		macs = ThreadLocal.withInitial(() -> {
+			try {
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				return mac;
+			} catch (GeneralSecurityException exception) {
+				throw new IllegalStateException("Failed to initialize " + ALGORITHM, exception);
+			}
+		});
+	}
+
+	private static byte[] loadKey() {
+		try {
+			if (KEY_FILE.exists()) {
+				String content = FileUtils.readFileToString(KEY_FILE, StandardCharsets.UTF_8).trim();
+				return Base64.getDecoder().decode(content);
+			}
+
+			byte[] key = new byte[32];
+			new SecureRandom().nextBytes(key);
+			createKeyFile();
+			FileUtils.write(KEY_FILE, Base64.getEncoder().encodeToString(key), StandardCharsets.UTF_8);
+			return key;
+		} catch (IOException | IllegalArgumentException exception) {
+			throw new IllegalStateException("Failed to load url signing key", exception);
+		}
+	}
+
+	/**
+	 * Creates the key file readable only by its owner where the file system supports it
+	 */
+	private static void createKeyFile() throws IOException {
+		Path path = KEY_FILE.toPath();
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-------");
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(permissions));
+		} else Files.createFile(path);
+	}
+
+	/**
+	 * Creates the signature of a download URL
+	 * @param fileName The name of the file
+	 * @param expires The expiry as epoch seconds
+	 * @param scope The endpoint the URL is valid for or {@link #SCOPE_ALL}
+	 * @param recipient An optional label of the recipient, so every recipient gets a distinct URL
+	 * @return The URL-safe signature
+	 */
+	@NotNull
+	public String sign(@NotNull String fileName, long expires, @NotNull String scope, @Nullable String recipient) {
+		byte[] signature = computeSignature(fileName, expires, scope, recipient);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+	}
+
+	/**
+	 * Checks the signature of a download URL in constant time
+	 * @param fileName The name of the requested file
+	 * @param expires The expiry of the URL as epoch seconds
+	 * @param scope The scope of the URL
+	 * @param recipient The recipient of the URL
+	 * @param signature The signature of the URL
+	 * @return Whether the signature matches
+	 */
+	public boolean verify(@NotNull String fileName, long expires, @NotNull String scope,
+						  @Nullable String recipient, @NotNull String signature) {
+		byte[] provided;
+		try {
+			provided = Base64.getUrlDecoder().decode(signature);
+		} catch (IllegalArgumentException exception) {
+			return false;
+		}
+
+		byte[] expected = computeSignature(fileName, expires, scope, recipient);
+		return MessageDigest.isEqual(expected, provided);
+	}
+
+	private byte[] computeSignature(@NotNull String fileName, long expires, @NotNull String scope,
+									@Nullable String recipient) {
+		//File names and recipients cannot contain line breaks, so the fields are unambiguous
+		String payload = fileName + '\n' + expires + '\n' + scope + '\n' + (recipient == null ? "" : recipient);
+		Mac mac = macs.get();
+		return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@NotNull
+	public static UrlSigner get() {
+		return INSTANCE;
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import de.dereingerostete.sfs.compression.StoredFile;
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes files as a ZIP archive directly into a stream without temporary files.
+ * Already compressed formats are stored, everything else is deflated.
+ * ZIP64 extensions are written automatically for large files and archives.
+ */
+public class ZipArchiveWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final @NotNull Set<String> COMPRESSED_EXTENSIONS = Set.of(
+			"zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar", "jar", "war",
+			"jpg", "jpeg", "png", "gif", "webp", "avif", "heic",
+			"mp3", "aac", "ogg", "opus", "flac", "m4a",
+			"mp4", "m4v", "mkv", "webm", "mov", "avi",
+			"pdf", "docx", "xlsx", "pptx", "odt", "ods", "epub", "apk"
+	);
+
+	public static void write(@NotNull List<File> files, @NotNull OutputStream outputStream) throws IOException {
+		ZipOutputStream zipStream = new ZipOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (File file : files) {
+			ZipEntry entry = new ZipEntry(file.getName());
+			entry.setTime(file.lastModified());
+			if (isCompressed(file)) {
+				//Stored entries need their size and checksum before the data is written
+				long length;
+				try (StoredFile storedFile = StoredFile.open(file)) {
+					length = storedFile.getLength();
+				}
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(length);
+				entry.setCompressedSize(length);
+				entry.setCrc(computeCrc(file, buffer));
+			} else entry.setMethod(ZipEntry.DEFLATED);
+
+			zipStream.putNextEntry(entry);
+			try (InputStream inputStream = openStream(file)) {
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					zipStream.write(buffer, 0, read);
+				}
+			}
+			zipStream.closeEntry();
+		}
+		zipStream.finish();
+		zipStream.flush();
+	}
+
+	private static long computeCrc(@NotNull File file, byte[] buffer) throws IOException {
+		CRC32 crc = new CRC32();
+		try (InputStream inputStream = openStream(file)) {
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Opens the original content of a file, which may be block compressed at rest
+	 */
+	@NotNull
+	private static InputStream openStream(@NotNull File file) throws IOException {
+		StoredFile storedFile = StoredFile.open(file);
+		return storedFile.openStream(0, storedFile.getLength());
+	}
+
+	public static boolean isCompressed(@NotNull File file) {
+		String extension = FilenameUtils.getExtension(file.getName()).toLowerCase(Locale.ROOT);
+		return COMPRESSED_EXTENSIONS.contains(extension);
+	}
+
+}
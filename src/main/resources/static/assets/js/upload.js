@@ -1,3 +1,6 @@
+const WHOLE_FILE_LIMIT = 48000000; // Smaller files are sent in a single request
+const MAX_CHUNK_RETRIES = 3;
+
 $(document).ready(function() {
     let filepondObject = $('.pond');
 
@@ -23,41 +26,165 @@ $(document).ready(function() {
         allowRevert: true,
         maxParallelUploads: 3,
         instantUpload: false,
-        chunkUploads: true,
-        chunkForce: false,
-        chunkSize: 48000000,
         server: {
-            process: {
-                url: './api/filepond/process',
-                method: 'POST'
-            },
+            process: processFile,
             revert: {
                 url: './api/filepond/revert',
                 method: 'POST'
             },
-            patch: {
-                url: './api/filepond/patch?patch=',
-                method: 'PATCH',
-                timeout: 600000 // <--- For really big files (over 5GB increase this to allow combination of chunks)
-            },
             restore: null,
             load: null,
             fetch: null,
             remove: null
         }
     });
+});
+
+// Uploads small files in one request and large files in chunks. The server recommends the chunk size
+// and the number of parallel chunks with every response, so the upload adapts while it runs
+function processFile(fieldName, file, metadata, load, error, progress, abort) {
+    const requests = new Set();
+    let aborted = false;
 
-    //document.addEventListener('FilePond:processfile', (event) => {});
-    document.addEventListener('FilePond:error', (event) => {
-        let statusCode = event.detail.error.code;
-        if (statusCode === 409) {
+    const send = (method, url, headers, body, onProgress) => new Promise((resolve, reject) => {
+        const request = new XMLHttpRequest();
+        request.open(method, url);
+        for (const [name, value] of Object.entries(headers)) request.setRequestHeader(name, value);
+        if (onProgress) request.upload.onprogress = (event) => onProgress(event.loaded);
+        request.onload = () => {
+            requests.delete(request);
+            resolve(request);
+        };
+        request.onerror = () => {
+            requests.delete(request);
+            reject(request);
+        };
+        requests.add(request);
+        request.send(body);
+    });
+
+    const fail = (request) => {
+        if (aborted) return;
+        if (request.status === 409) {
             Notiflix.Report.failure('Upload failed',
                 'A file with the same name already exists.',
                 'Okay'
             );
         }
+        error(request.statusText || 'Upload failed');
+    };
+
+    if (file.size <= WHOLE_FILE_LIMIT) {
+        const formData = new FormData();
+        formData.append(fieldName, file, file.name);
+        send('POST', './api/filepond/process', {}, formData, (loaded) => progress(true, loaded, file.size))
+            .then((request) => request.status === 200 ? load(request.responseText) : fail(request))
+            .catch(fail);
+    } else {
+        uploadChunked(fieldName, file, metadata, send, progress, () => aborted)
+            .then(load)
+            .catch(fail);
+    }
+
+    return {
+        abort: () => {
+            aborted = true;
+            requests.forEach((request) => request.abort());
+            abort();
+        }
+    };
+}
+
+async function uploadChunked(fieldName, file, metadata, send, progress, isAborted) {
+    const formData = new FormData();
+    formData.append(fieldName, JSON.stringify(metadata));
+    const start = await send('POST', './api/filepond/process', {'Upload-Length': file.size}, formData);
+    if (start.status !== 200) throw start;
+
+    const id = start.responseText;
+    let advice = readAdvice(start, {chunkSize: 8 * 1024 * 1024, parallelism: 1});
+    const sending = new Map(); // Bytes sent of the running chunks by offset
+    let completed = 0;
+    const reportProgress = () => {
+        let loaded = completed;
+        sending.forEach((bytes) => loaded += bytes);
+        progress(true, loaded, file.size);
+    };
+
+    const sendChunk = async (offset, chunk) => {
+        const headers = {
+            'Content-Type': 'application/offset+octet-stream',
+            'Upload-Offset': offset,
+            'Upload-Length': file.size,
+            'Upload-Name': file.name
+        };
+        const checksum = await computeChecksum(chunk);
+        if (checksum) headers['Upload-Checksum'] = checksum;
+
+        for (let attempt = 0; ; attempt++) {
+            let request;
+            try {
+                request = await send('PATCH', './api/filepond/patch?patch=' + id, headers, chunk, (bytes) => {
+                    sending.set(offset, bytes);
+                    reportProgress();
+                });
+            } catch (failed) {
+                request = failed;
+            }
+            sending.delete(offset);
+            if (request.status === 200) return request;
+
+            // Corrupted chunks (460) and network errors are retried, everything else ends the upload
+            if ((request.status !== 460 && request.status !== 0) || attempt >= MAX_CHUNK_RETRIES || isAborted()) throw request;
+            await new Promise((resolve) => setTimeout(resolve, 1000 * 2 ** attempt));
+        }
+    };
+
+    // Starts chunks until the recommended number is running, the recommendation may change with every response
+    await new Promise((resolve, reject) => {
+        let nextOffset = 0;
+        let running = 0;
+        let failed = false;
+        const fill = () => {
+            if (failed) return;
+            if (nextOffset >= file.size && running === 0) return resolve();
+            while (running < advice.parallelism && nextOffset < file.size) {
+                const offset = nextOffset;
+                const end = Math.min(file.size, offset + advice.chunkSize);
+                nextOffset = end;
+                running++;
+                sendChunk(offset, file.slice(offset, end)).then((request) => {
+                    running--;
+                    completed += end - offset;
+                    advice = readAdvice(request, advice);
+                    reportProgress();
+                    fill();
+                }).catch((request) => {
+                    failed = true;
+                    reject(request);
+                });
+            }
+        };
+        fill();
     });
-});
+    return id;
+}
+
+function readAdvice(request, previous) {
+    const chunkSize = parseInt(request.getResponseHeader('Upload-Chunk-Size'));
+    const parallelism = parseInt(request.getResponseHeader('Upload-Parallelism'));
+    return {
+        chunkSize: chunkSize > 0 ? chunkSize : previous.chunkSize,
+        parallelism: parallelism > 0 ? parallelism : previous.parallelism
+    };
+}
+
+// The digest API is only available in secure contexts, otherwise chunks are sent without a checksum
+async function computeChecksum(chunk) {
+    if (!window.crypto || !window.crypto.subtle) return null;
+    const digest = await window.crypto.subtle.digest('SHA-256', await chunk.arrayBuffer());
+    return 'sha256 ' + btoa(String.fromCharCode(...new Uint8Array(digest)));
+}
 
 function isAllowedFile(file) {
     let filename = file.filename;
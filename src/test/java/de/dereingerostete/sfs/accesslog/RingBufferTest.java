@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.accesslog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+	@Test
+	void keepsOrder() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(8);
+		for (int i = 0; i < 5; i++) assertTrue(buffer.offer(i));
+		for (int i = 0; i < 5; i++) assertEquals(i, buffer.poll());
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	void rejectsWhenFull() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(4);
+		for (int i = 0; i < 4; i++) assertTrue(buffer.offer(i));
+		assertFalse(buffer.offer(4));
+
+		assertEquals(0, buffer.poll());
+		assertTrue(buffer.offer(4));
+		assertFalse(buffer.offer(5));
+	}
+
+	@Test
+	void roundsCapacityUpToPowerOfTwo() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(5);
+		int accepted = 0;
+		while (buffer.offer(accepted)) accepted++;
+		assertEquals(8, accepted);
+	}
+
+	@Test
+	void wrapsAround() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(4);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(buffer.offer(i));
+			assertTrue(buffer.offer(-i));
+			assertEquals(i, buffer.poll());
+			assertEquals(-i, buffer.poll());
+		}
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	void deliversEveryAcceptedElementOfConcurrentProducers() throws InterruptedException {
+		RingBuffer<Integer> buffer = new RingBuffer<>(1024);
+		AtomicInteger accepted = new AtomicInteger();
+		List<Thread> producers = new ArrayList<>();
+		for (int producer = 0; producer < 4; producer++) {
+			int base = producer * 100_000;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 50_000; i++) {
+					if (buffer.offer(base + i)) accepted.incrementAndGet();
+				}
+			});
+			producers.add(thread);
+			thread.start();
+		}
+
+		Set<Integer> received = new HashSet<>();
+		while (producers.stream().anyMatch(Thread::isAlive)) {
+			Integer element = buffer.poll();
+			if (element != null) assertTrue(received.add(element));
+		}
+		for (Thread producer : producers) producer.join();
+
+		Integer element;
+		while ((element = buffer.poll()) != null) assertTrue(received.add(element));
+		assertEquals(accepted.get(), received.size());
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddedStateStoreTest {
+	private final EmbeddedStateStore store = new EmbeddedStateStore();
+
+	@AfterEach
+	void close() {
+		store.close();
+	}
+
+	@Test
+	void testValues() {
+		assertNull(store.get("sessions", "key"));
+		store.put("sessions", "key", "value", Duration.ofMinutes(1));
+		assertEquals("value", store.get("sessions", "key"));
+
+		store.put("sessions", "key", "other", Duration.ofMinutes(1));
+		assertEquals("other", store.get("sessions", "key"));
+
+		store.remove("sessions", "key");
+		assertNull(store.get("sessions", "key"));
+	}
+
+	@Test
+	void testNamespaces() {
+		store.put("sessions", "key", "session", Duration.ofMinutes(1));
+		store.put("owners", "key", "owner", Duration.ofMinutes(1));
+		assertEquals("session", store.get("sessions", "key"));
+		assertEquals("owner", store.get("owners", "key"));
+
+		store.remove("owners", "key");
+		assertEquals("session", store.get("sessions", "key"));
+	}
+
+	@Test
+	void testValueExpiry() throws InterruptedException {
+		store.put("sessions", "key", "value", Duration.ofMillis(50));
+		Thread.sleep(100);
+		assertNull(store.get("sessions", "key"));
+	}
+
+	@Test
+	void testCounters() {
+		Duration window = Duration.ofMinutes(1);
+		Map<String, Counter> first = store.addAndGet("requests", Map.of("a", 2L, "b", 1L), window);
+		assertEquals(2, first.get("a").getValue());
+		assertEquals(1, first.get("b").getValue());
+
+		Map<String, Counter> second = store.addAndGet("requests", Map.of("a", 3L), window);
+		assertEquals(5, second.get("a").getValue());
+		assertFalse(second.containsKey("b"));
+		//The window starts with the first increment
+		assertEquals(first.get("a").getExpiresAt(), second.get("a").getExpiresAt());
+
+		assertEquals(3, store.addAndGet("other", Map.of("a", 3L), window).get("a").getValue());
+	}
+
+	@Test
+	void testCounterWindow() throws InterruptedException {
+		store.addAndGet("requests", Map.of("a", 5L), Duration.ofMillis(50));
+		Thread.sleep(100);
+		assertEquals(1, store.addAndGet("requests", Map.of("a", 1L), Duration.ofMillis(50)).get("a").getValue());
+	}
+
+}
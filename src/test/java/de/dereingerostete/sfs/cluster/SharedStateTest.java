@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.cluster;
+
+import de.dereingerostete.sfs.upload.UploadAPIController;
+import de.dereingerostete.sfs.upload.UploadAuthenticator;
+import de.dereingerostete.sfs.upload.UploadUIController;
+import jakarta.servlet.http.Cookie;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs two nodes on one embedded store. The shared state of a node is activated before acting as that node.
+ */
+class SharedStateTest {
+	private static final Duration NEAR_CACHE_TTL = Duration.ofMillis(200);
+	private static final Duration WINDOW = Duration.ofMinutes(1);
+	private final EmbeddedStateStore store = new EmbeddedStateStore();
+	private final SharedState nodeA = new SharedState(store, "node-a", NEAR_CACHE_TTL);
+	private final SharedState nodeB = new SharedState(store, "node-b", NEAR_CACHE_TTL);
+
+	@AfterEach
+	void close() {
+		SharedState.reset();
+		nodeA.close();
+		nodeB.close();
+		store.close();
+	}
+
+	@Test
+	void testNearCache() throws InterruptedException {
+		NearCache cacheA = nodeA.getNearCache("sessions");
+		NearCache cacheB = nodeB.getNearCache("sessions");
+		assertSame(cacheA, nodeA.getNearCache("sessions"));
+		assertNull(cacheB.get("key"));
+
+		cacheA.put("key", "value", WINDOW);
+		assertEquals("value", cacheB.get("key"));
+
+		//The other node may serve its near-cached copy until it expires
+		cacheA.remove("key");
+		assertNull(cacheA.get("key"));
+		assertEquals("value", cacheB.get("key"));
+		Thread.sleep(NEAR_CACHE_TTL.toMillis() * 2);
+		assertNull(cacheB.get("key"));
+	}
+
+	@Test
+	void testCounterSync() throws InterruptedException {
+		CounterSync countersA = new CounterSync(store, "requests", WINDOW, Duration.ofMillis(20));
+		CounterSync countersB = new CounterSync(store, "requests", WINDOW, Duration.ofMillis(20));
+		try {
+			for (int i = 0; i < 3; i++) countersA.increment("address");
+			for (int i = 0; i < 2; i++) countersB.increment("address");
+			//Local increments count before they are synced
+			assertTrue(countersA.get("address") >= 3);
+
+			waitFor(() -> store.addAndGet("requests", Map.of("address", 0L), WINDOW).get("address").getValue() == 5);
+
+			//A node learns the increments of the others when it syncs the key again
+			countersA.increment("address");
+			waitFor(() -> countersA.get("address") == 6);
+			countersB.increment("address");
+			waitFor(() -> countersB.get("address") == 7);
+			assertEquals(6, countersA.get("address"));
+			assertTrue(countersA.getTimeLeft("address") <= WINDOW.toMillis());
+			assertEquals(WINDOW.toMillis(), countersA.getTimeLeft("unknown"));
+		} finally {
+			countersA.close();
+			countersB.close();
+		}
+	}
+
+	@Test
+	void testCloseFlushesCounters() {
+		SharedState.configure(nodeA);
+		CounterSync counters = nodeA.getCounters("requests", WINDOW);
+		assertSame(counters, nodeA.getCounters("requests", WINDOW));
+		counters.increment("address");
+		counters.increment("address");
+
+		//Resetting stops the sync of the active node after sending the pending increments
+		SharedState.reset();
+		assertNull(SharedState.get());
+		assertEquals(2, store.addAndGet("requests", Map.of("address", 0L), WINDOW).get("address").getValue());
+	}
+
+	@Test
+	void testSharedUploadSessions() {
+		SharedState.configure(nodeA);
+		String token = new UploadAuthenticator().generateToken("alice");
+
+		SharedState.configure(nodeB);
+		UploadAuthenticator authenticator = new UploadAuthenticator();
+		assertTrue(authenticator.isValid(token));
+		assertEquals("alice", authenticator.getUsername(createRequest("HEAD", token)));
+		assertFalse(authenticator.isValid("unknown"));
+	}
+
+	@Test
+	void testMisdirectedUpload() throws IOException {
+		UploadAPIController controllerA = createController();
+		UploadAPIController controllerB = createController();
+
+		SharedState.configure(nodeA);
+		String token = UploadUIController.getAuthenticator().generateToken("alice");
+		MockHttpServletRequest uploadRequest = createRequest("POST", token);
+		uploadRequest.setContentType("multipart/form-data; boundary=boundary");
+		uploadRequest.setContent("--boundary--\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		uploadRequest.addHeader("Upload-Length", "10");
+		MockHttpServletResponse uploadResponse = new MockHttpServletResponse();
+		ResponseEntity<Object> started = controllerA.upload(uploadRequest, uploadResponse);
+		assertEquals(200, started.getStatusCode().value());
+		assertEquals("node-a", uploadResponse.getHeader(SharedState.NODE_HEADER));
+		String id = (String) started.getBody();
+		assertNotNull(id);
+
+		//The chunks are only on node A, so node B sends the client there
+		SharedState.configure(nodeB);
+		MockHttpServletResponse misdirected = new MockHttpServletResponse();
+		assertEquals(421, controllerB.restartChunked(id, createRequest("HEAD", token), misdirected)
+				.getStatusCode().value());
+		assertEquals("node-a", misdirected.getHeader(SharedState.NODE_HEADER));
+		String cookie = misdirected.getHeader(HttpHeaders.SET_COOKIE);
+		assertNotNull(cookie);
+		assertTrue(cookie.startsWith(SharedState.NODE_COOKIE_NAME + "=node-a"));
+
+		assertEquals(401, controllerB.restartChunked("unknown", createRequest("HEAD", token),
+				new MockHttpServletResponse()).getStatusCode().value());
+
+		SharedState.configure(nodeA);
+		MockHttpServletResponse resumed = new MockHttpServletResponse();
+		ResponseEntity<Object> response = controllerA.restartChunked(id, createRequest("HEAD", token), resumed);
+		assertEquals(200, response.getStatusCode().value());
+		assertEquals("0", response.getHeaders().getFirst("Upload-Offset"));
+		controllerA.revert(id, createRequest("DELETE", token), new MockHttpServletResponse());
+	}
+
+	private static void waitFor(@NotNull BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) fail("Condition not met within 5s");
+			Thread.sleep(10);
+		}
+	}
+
+	@NotNull
+	private static UploadAPIController createController() throws IOException {
+		return new UploadAPIController(64, 8, DataSize.ofGigabytes(100), DataSize.ofBytes(0),
+				DataSize.ofMegabytes(8), DataSize.ofMegabytes(64), 4);
+	}
+
+	@NotNull
+	private static MockHttpServletRequest createRequest(@NotNull String method, @NotNull String token) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/filepond/");
+		request.setCookies(new Cookie("sessionToken", token));
+		return request;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.compression;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoredFileTest {
+	private static final int BLOCK_SIZE = 4096;
+	private @TempDir File directory;
+	private byte[] content;
+	private File source;
+	private File compressed;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		//Compressible content that is not a multiple of the block size
+		Random random = new Random(42);
+		content = new byte[BLOCK_SIZE * 5 + 123];
+		for (int i = 0; i < content.length; i++) content[i] = (byte) ('a' + random.nextInt(4));
+
+		source = new File(directory, "source.txt");
+		compressed = new File(directory, "compressed.txt");
+		Files.write(source.toPath(), content);
+		BlockCompressor.write(source, compressed, content.length, BLOCK_SIZE, 6);
+	}
+
+	@Test
+	void testRoundTrip() throws IOException {
+		StoredFile storedFile = StoredFile.open(compressed, true);
+		assertTrue(storedFile.isCompressed());
+		assertEquals(content.length, storedFile.getLength());
+		assertTrue(compressed.length() < content.length);
+		try (InputStream inputStream = storedFile.openStream(0, content.length)) {
+			assertArrayEquals(content, inputStream.readAllBytes());
+		}
+	}
+
+	@Test
+	void testRanges() throws IOException {
+		long[][] ranges = {{0, 1}, {BLOCK_SIZE - 1, 2}, {BLOCK_SIZE, BLOCK_SIZE}, {100, BLOCK_SIZE * 3},
+				{content.length - 123, 123}, {content.length - 1, 1}, {10, 0}};
+		for (long[] range : ranges) {
+			int offset = (int) range[0];
+			int count = (int) range[1];
+			try (InputStream inputStream = StoredFile.open(compressed, true).openStream(offset, count)) {
+				byte[] expected = Arrays.copyOfRange(content, offset, offset + count);
+				assertArrayEquals(expected, inputStream.readAllBytes(), "Range " + offset + "+" + count);
+			}
+		}
+	}
+
+	@Test
+	void testRangeOutOfBounds() throws IOException {
+		try (StoredFile storedFile = StoredFile.open(compressed, true)) {
+			assertThrows(IllegalArgumentException.class, () -> storedFile.openStream(content.length - 1, 2));
+			assertThrows(IllegalArgumentException.class, () -> storedFile.openStream(-1, 1));
+		}
+	}
+
+	@Test
+	void testEncodedStreamIsGzip() throws IOException {
+		StoredFile storedFile = StoredFile.open(compressed, true);
+		long encodedLength = storedFile.getEncodedLength();
+		try (InputStream inputStream = new GZIPInputStream(storedFile.openEncodedStream())) {
+			assertArrayEquals(content, inputStream.readAllBytes());
+		}
+		assertEquals(compressed.length() - StoredFile.HEADER_SIZE - (content.length / BLOCK_SIZE + 2) * 8L,
+				encodedLength);
+	}
+
+	@Test
+	void testUnrecordedFileIsRaw() throws IOException {
+		//A compressed file that is not recorded, e.g. an upload of one, is served as it is
+		try (StoredFile storedFile = StoredFile.open(compressed)) {
+			assertFalse(storedFile.isCompressed());
+			assertEquals(compressed.length(), storedFile.getLength());
+		}
+	}
+
+	@Test
+	void testRawFileWithMagic() throws IOException {
+		byte[] raw = Arrays.copyOf(StoredFile.MAGIC, 64);
+		File file = new File(directory, "magic.bin");
+		Files.write(file.toPath(), raw);
+		try (StoredFile storedFile = StoredFile.open(file)) {
+			assertFalse(storedFile.isCompressed());
+			assertEquals(raw.length, storedFile.getLength());
+			assertArrayEquals(raw, storedFile.openStream(0, raw.length).readAllBytes());
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static de.dereingerostete.sfs.controller.DownloadController.UNSATISFIABLE_RANGE;
+import static de.dereingerostete.sfs.controller.DownloadController.matchesIfRange;
+import static de.dereingerostete.sfs.controller.DownloadController.parseRange;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadControllerTest {
+	private static final String E_TAG = "\"64-18a\"";
+	private static final long LAST_MODIFIED = 1_700_000_000_123L;
+
+	@Test
+	void testParseRange() {
+		assertArrayEquals(new long[]{0, 0}, parseRange("bytes=0-0", 100));
+		assertArrayEquals(new long[]{10, 19}, parseRange("bytes=10-19", 100));
+		assertArrayEquals(new long[]{10, 99}, parseRange("bytes=10-", 100));
+		assertArrayEquals(new long[]{10, 99}, parseRange("bytes=10-500", 100));
+		assertArrayEquals(new long[]{90, 99}, parseRange("bytes=-10", 100));
+		assertArrayEquals(new long[]{0, 99}, parseRange("bytes=-500", 100));
+	}
+
+	@Test
+	void testUnsatisfiableRange() {
+		assertSame(UNSATISFIABLE_RANGE, parseRange("bytes=100-", 100));
+		assertSame(UNSATISFIABLE_RANGE, parseRange("bytes=100-200", 100));
+		assertSame(UNSATISFIABLE_RANGE, parseRange("bytes=-0", 100));
+		assertSame(UNSATISFIABLE_RANGE, parseRange("bytes=-10", 0));
+	}
+
+	@Test
+	void testIgnoredRange() {
+		assertNull(parseRange("items=0-10", 100));
+		assertNull(parseRange("bytes=0-10,20-30", 100));
+		assertNull(parseRange("bytes=10", 100));
+		assertNull(parseRange("bytes=20-10", 100));
+		assertNull(parseRange("bytes=a-10", 100));
+		assertNull(parseRange("bytes=-", 100));
+	}
+
+	@Test
+	void testIfRangeMissing() {
+		assertTrue(matchesIfRange(new MockHttpServletRequest(), E_TAG, LAST_MODIFIED));
+	}
+
+	@Test
+	void testIfRangeEntityTag() {
+		assertTrue(matchesIfRange(createRequest(E_TAG), E_TAG, LAST_MODIFIED));
+		assertFalse(matchesIfRange(createRequest("\"64-18b\""), E_TAG, LAST_MODIFIED));
+		//Weak tags never match, as ranges need a strong comparison
+		assertFalse(matchesIfRange(createRequest("W/" + E_TAG), E_TAG, LAST_MODIFIED));
+	}
+
+	@Test
+	void testIfRangeDate() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setDate(HttpHeaders.IF_RANGE, LAST_MODIFIED);
+		String date = headers.getFirst(HttpHeaders.IF_RANGE);
+		assertNotNull(date);
+
+		//Dates have a precision of seconds
+		assertTrue(matchesIfRange(createRequest(date), E_TAG, LAST_MODIFIED));
+		assertFalse(matchesIfRange(createRequest(date), E_TAG, LAST_MODIFIED + 1000));
+		assertFalse(matchesIfRange(createRequest("not a date"), E_TAG, LAST_MODIFIED));
+	}
+
+	private static MockHttpServletRequest createRequest(String ifRange) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+		return request;
+	}
+
+}
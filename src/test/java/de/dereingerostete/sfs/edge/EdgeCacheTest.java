@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.edge;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the edge cache against a minimal local origin, which answers like the download endpoint
+ * of a StaticFileServer and can hold back the second half of a body
+ */
+class EdgeCacheTest {
+	private static final Duration REVALIDATE_AFTER = Duration.ofMinutes(1);
+	private static final Duration BODY_IDLE_TIMEOUT = Duration.ofSeconds(30);
+	private final Map<String, OriginFile> originFiles = new ConcurrentHashMap<>();
+	private final AtomicInteger originRequests = new AtomicInteger();
+	private final List<String> conditionalRequests = new CopyOnWriteArrayList<>();
+	private final CountDownLatch bodyGate = new CountDownLatch(1);
+	private volatile boolean holdBodies;
+	private HttpServer origin;
+	private ExecutorService originExecutor;
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void startOrigin() throws IOException {
+		origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		originExecutor = Executors.newCachedThreadPool();
+		origin.setExecutor(originExecutor);
+		origin.createContext("/download", this::handle);
+		origin.start();
+	}
+
+	@AfterEach
+	void stopOrigin() {
+		bodyGate.countDown();
+		origin.stop(0);
+		originExecutor.shutdownNow();
+	}
+
+	@Test
+	void testCoalescedMisses() throws Exception {
+		byte[] content = putOriginFile("coalesced.bin", 64 * 1024, "\"1\"");
+		holdBodies = true;
+		EdgeCache cache = createCache(Long.MAX_VALUE, REVALIDATE_AFTER, BODY_IDLE_TIMEOUT);
+
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) results.add(clients.submit(() -> cache.resolve("coalesced.bin")));
+
+			Object first = results.get(0).get(10, TimeUnit.SECONDS);
+			assertInstanceOf(EdgeFetch.class, first);
+			for (Future<Object> result : results) assertSame(first, result.get(10, TimeUnit.SECONDS));
+			assertEquals(1, originRequests.get());
+
+			bodyGate.countDown();
+			File file = ((EdgeFetch) first).awaitFile();
+			assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	void testStreamingWhileWritten() throws IOException {
+		byte[] content = putOriginFile("streamed.bin", 256 * 1024, "\"1\"");
+		holdBodies = true;
+		EdgeCache cache = createCache(Long.MAX_VALUE, REVALIDATE_AFTER, BODY_IDLE_TIMEOUT);
+
+		EdgeFetch fetch = assertInstanceOf(EdgeFetch.class, cache.resolve("streamed.bin"));
+		assertEquals(content.length, fetch.getLength());
+		try (InputStream inputStream = fetch.openStream()) {
+			//The first half is readable while the origin still holds back the rest
+			int half = content.length / 2;
+			byte[] firstHalf = inputStream.readNBytes(half);
+			assertArrayEquals(copy(content, 0, half), firstHalf);
+			assertFalse(fetch.getFile().exists());
+
+			bodyGate.countDown();
+			assertArrayEquals(copy(content, half, content.length), inputStream.readAllBytes());
+		}
+		assertArrayEquals(content, Files.readAllBytes(fetch.awaitFile().toPath()));
+	}
+
+	@Test
+	void testRevalidation() throws IOException, InterruptedException {
+		putOriginFile("revalidated.bin", 1024, "\"1\"");
+		EdgeCache cache = createCache(Long.MAX_VALUE, Duration.ZERO, BODY_IDLE_TIMEOUT);
+
+		EdgeFetch fetch = assertInstanceOf(EdgeFetch.class, cache.resolve("revalidated.bin"));
+		File file = fetch.awaitFile();
+
+		//The origin confirms the cached copy without sending it again
+		int requests = originRequests.get();
+		assertEquals(file, awaitResolved(cache, "revalidated.bin", result -> result != fetch));
+		assertEquals(requests + 1, originRequests.get());
+		assertTrue(conditionalRequests.contains("\"1\""));
+
+		byte[] changed = putOriginFile("revalidated.bin", 2048, "\"2\"");
+		//The finished revalidation may still answer requests until it is removed
+		EdgeFetch refetch = (EdgeFetch) awaitResolved(cache, "revalidated.bin", EdgeFetch.class::isInstance);
+		assertArrayEquals(changed, Files.readAllBytes(refetch.awaitFile().toPath()));
+
+		originFiles.remove("revalidated.bin");
+		assertNull(awaitResolved(cache, "revalidated.bin", result -> result != refetch));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	void testEviction() throws IOException, InterruptedException {
+		putOriginFile("first.bin", 100, "\"1\"");
+		putOriginFile("second.bin", 100, "\"2\"");
+		EdgeCache cache = createCache(150, REVALIDATE_AFTER, BODY_IDLE_TIMEOUT);
+
+		File first = assertInstanceOf(EdgeFetch.class, cache.resolve("first.bin")).awaitFile();
+		awaitResolved(cache, "first.bin", first::equals);
+		Thread.sleep(10);
+		File second = assertInstanceOf(EdgeFetch.class, cache.resolve("second.bin")).awaitFile();
+
+		//The least recently used file makes room for the new one
+		waitFor(() -> !first.exists());
+		assertTrue(second.exists());
+
+		//Files cached before a restart are kept and revalidated by their modification time
+		int requests = originRequests.get();
+		EdgeCache restarted = createCache(150, REVALIDATE_AFTER, BODY_IDLE_TIMEOUT);
+		assertEquals(second, restarted.resolve("second.bin"));
+		assertEquals(requests + 1, originRequests.get());
+	}
+
+	@Test
+	void testBodyIdleTimeout() throws IOException, InterruptedException {
+		putOriginFile("stalled.bin", 64 * 1024, "\"1\"");
+		holdBodies = true;
+		EdgeCache cache = createCache(Long.MAX_VALUE, REVALIDATE_AFTER, Duration.ofMillis(200));
+
+		EdgeFetch fetch = assertInstanceOf(EdgeFetch.class, cache.resolve("stalled.bin"));
+		assertThrows(IOException.class, fetch::awaitFile);
+
+		//The failed fetch is not reused, once it is removed the next request starts a new one
+		waitFor(() -> {
+			try {
+				return cache.resolve("stalled.bin") != fetch;
+			} catch (IOException exception) {
+				return false;
+			}
+		});
+		assertTrue(originRequests.get() >= 2);
+	}
+
+	@NotNull
+	private EdgeCache createCache(long maxSize, @NotNull Duration revalidateAfter, @NotNull Duration bodyIdleTimeout) {
+		String url = "http://127.0.0.1:" + origin.getAddress().getPort();
+		return new EdgeCache(url, maxSize, revalidateAfter, EvictionPolicy.LRU, directory.toFile(), bodyIdleTimeout);
+	}
+
+	@NotNull
+	private byte[] putOriginFile(@NotNull String name, int length, @NotNull String eTag) {
+		byte[] content = new byte[length];
+		ThreadLocalRandom.current().nextBytes(content);
+		originFiles.put(name, new OriginFile(content, eTag, System.currentTimeMillis() / 1000 * 1000));
+		return content;
+	}
+
+	private void handle(@NotNull HttpExchange exchange) throws IOException {
+		originRequests.incrementAndGet();
+		String query = exchange.getRequestURI().getRawQuery();
+		String name = null;
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith("fileName="))
+				name = URLDecoder.decode(parameter.substring(9), StandardCharsets.UTF_8);
+		}
+
+		OriginFile file = name == null ? null : originFiles.get(name);
+		if (file == null) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+		if (ifNoneMatch != null) conditionalRequests.add(ifNoneMatch);
+		boolean notModified = ifNoneMatch != null ? ifNoneMatch.equals(file.eTag) : ifModifiedSince != null
+				&& file.lastModified <= parseDate(ifModifiedSince);
+		if (notModified) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		exchange.getResponseHeaders().set("ETag", file.eTag);
+		exchange.getResponseHeaders().set("Last-Modified", formatDate(file.lastModified));
+		exchange.sendResponseHeaders(200, file.content.length);
+		try (OutputStream outputStream = exchange.getResponseBody()) {
+			int half = file.content.length / 2;
+			outputStream.write(file.content, 0, half);
+			outputStream.flush();
+			if (holdBodies) bodyGate.await();
+			outputStream.write(file.content, half, file.content.length - half);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@NotNull
+	private static String formatDate(long millis) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+	}
+
+	private static long parseDate(@NotNull String value) {
+		return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value)).toEpochMilli();
+	}
+
+	@NotNull
+	private static byte[] copy(byte[] content, int from, int to) {
+		byte[] part = new byte[to - from];
+		System.arraycopy(content, from, part, 0, part.length);
+		return part;
+	}
+
+	/**
+	 * Resolves a file until the result matches, as the cache records a fetched file just after it is complete
+	 */
+	@Nullable
+	private static Object awaitResolved(@NotNull EdgeCache cache, @NotNull String fileName,
+										@NotNull Predicate<Object> condition) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true) {
+			Object result = cache.resolve(fileName);
+			if (condition.test(result)) return result;
+			if (System.currentTimeMillis() > deadline) fail("Unexpected result " + result);
+			Thread.sleep(10);
+		}
+	}
+
+	private static void waitFor(@NotNull BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) fail("Condition not met within 5s");
+			Thread.sleep(10);
+		}
+	}
+
+	private record OriginFile(byte[] content, @NotNull String eTag, long lastModified) {}
+
+}
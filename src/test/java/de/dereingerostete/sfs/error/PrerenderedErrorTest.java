@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.error;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrerenderedErrorTest {
+	private final @NotNull ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	void loadsErrorResponses() {
+		assertEquals(404, ErrorResponses.NOT_FOUND.toResponse().getStatusCode().value());
+		assertEquals(500, ErrorResponses.UNKNOWN.toResponse(500).getStatusCode().value());
+		assertThrows(IllegalStateException.class, ErrorResponses.UNKNOWN::toResponse);
+	}
+
+	@Test
+	void matchesJacksonSerialization() throws Exception {
+		RestError error = RestError.unauthorized("The specified token is \"invalid\"");
+		ResponseEntity<Object> response = PrerenderedError.of(error).toResponse();
+
+		assertEquals(401, response.getStatusCode().value());
+		assertJsonEquals(error, (byte[]) response.getBody());
+		assertEquals(((byte[]) response.getBody()).length, response.getHeaders().getContentLength());
+	}
+
+	@Test
+	void matchesJacksonSerializationWithRetryAfter() throws Exception {
+		ResponseEntity<Object> response = ErrorResponses.TOO_MANY_REQUESTS.toResponse(42L);
+
+		assertEquals(429, response.getStatusCode().value());
+		assertEquals("42", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+		assertJsonEquals(RestError.tooManyRequests(42), (byte[]) response.getBody());
+	}
+
+	@Test
+	void keepsFieldOrder() throws Exception {
+		RestError error = RestError.notFoundError();
+		String expected = mapper.writeValueAsString(error).replaceFirst("\"timestamp\":\\d+", "");
+		String actual = new String((byte[]) ErrorResponses.NOT_FOUND.toResponse().getBody())
+				.replaceFirst("\"timestamp\":\\d+", "");
+		assertEquals(expected, actual);
+	}
+
+	private void assertJsonEquals(@NotNull RestError expected, byte[] actual) throws Exception {
+		JsonNode expectedNode = mapper.readTree(mapper.writeValueAsBytes(expected));
+		JsonNode actualNode = mapper.readTree(actual);
+		assertTrue(actualNode.get("timestamp").isIntegralNumber());
+
+		((ObjectNode) expectedNode).remove("timestamp");
+		((ObjectNode) actualNode).remove("timestamp");
+		assertEquals(expectedNode, actualNode);
+	}
+
+}
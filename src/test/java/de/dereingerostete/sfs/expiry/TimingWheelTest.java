@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.expiry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+	private static final long TICK = 1000;
+	private static final long START = 1_700_000_000_000L;
+
+	@Test
+	void firesAtDeadline() {
+		TimingWheel wheel = new TimingWheel(TICK, START);
+		wheel.schedule("a", START + 5 * TICK);
+		assertEquals(1, wheel.size());
+
+		List<String> fired = new ArrayList<>();
+		wheel.advance(START + 4 * TICK, (key, deadline) -> fired.add(key));
+		assertTrue(fired.isEmpty());
+
+		wheel.advance(START + 5 * TICK, (key, deadline) -> fired.add(key));
+		assertEquals(List.of("a"), fired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void neverFiresEarly() {
+		TimingWheel wheel = new TimingWheel(TICK, START);
+		wheel.schedule("a", START + 1500);
+
+		List<String> fired = new ArrayList<>();
+		wheel.advance(START + 1999, (key, deadline) -> fired.add(key));
+		assertTrue(fired.isEmpty());
+		wheel.advance(START + 2000, (key, deadline) -> fired.add(key));
+		assertEquals(List.of("a"), fired);
+	}
+
+	@Test
+	void firesPastDeadlinesOnNextTick() {
+		TimingWheel wheel = new TimingWheel(TICK, START);
+		wheel.schedule("a", START - 10 * TICK);
+
+		Map<String, Long> fired = new HashMap<>();
+		wheel.advance(START + TICK, fired::put);
+		assertEquals(Map.of("a", START - 10 * TICK), fired);
+	}
+
+	@Test
+	void cascadesThroughAllLevels() {
+		TimingWheel wheel = new TimingWheel(TICK, START);
+		//One timer per level: 64 ticks, 64^2 ticks and 64^3 ticks ahead
+		long[] offsets = {10, 100, 5_000, 300_000};
+		for (long offset : offsets) wheel.schedule("t" + offset, START + offset * TICK);
+
+		Map<String, Long> fired = new LinkedHashMap<>();
+		for (long offset : offsets) {
+			String key = "t" + offset;
+			wheel.advance(START + (offset - 1) * TICK, (firedKey, deadline) -> fired.put(firedKey, deadline));
+			assertFalse(fired.containsKey(key), key + " fired early");
+
+			wheel.advance(START + offset * TICK, (firedKey, deadline) -> fired.put(firedKey, deadline));
+			assertEquals(START + offset * TICK, fired.get(key), key + " did not fire");
+		}
+		assertEquals(offsets.length, fired.size());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void keepsTimersBeyondTheWheelInOverflow() {
+		TimingWheel wheel = new TimingWheel(TICK, START);
+		long levels = 64L * 64 * 64 * 64;
+		long deadline = START + (levels + 100) * TICK;
+		wheel.schedule("far", deadline);
+
+		List<String> fired = new ArrayList<>();
+		wheel.advance(deadline - TICK, (key, ignored) -> fired.add(key));
+		assertTrue(fired.isEmpty());
+		wheel.advance(deadline, (key, ignored) -> fired.add(key));
+		assertEquals(List.of("far"), fired);
+	}
+
+	@Test
+	void firesManyRandomTimersInOrderOfTicks() {
+		TimingWheel wheel = new TimingWheel(TICK, START);
+		Random random = new Random(7);
+		Map<String, Long> deadlines = new HashMap<>();
+		for (int i = 0; i < 2000; i++) {
+			long deadline = START + 1 + (long) (random.nextDouble() * 20_000 * TICK);
+			deadlines.put("t" + i, deadline);
+			wheel.schedule("t" + i, deadline);
+		}
+
+		Map<String, Long> fired = new HashMap<>();
+		for (long now = START; now <= START + 20_001 * TICK; now += 7 * TICK) {
+			long current = now;
+			wheel.advance(now, (key, deadline) -> {
+				assertTrue(deadline <= current, "Fired before its deadline");
+				assertTrue(deadline > current - 8 * TICK, "Fired late");
+				fired.put(key, deadline);
+			});
+		}
+		assertEquals(deadlines, fired);
+	}
+
+}
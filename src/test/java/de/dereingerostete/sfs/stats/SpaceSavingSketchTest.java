@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingSketchTest {
+
+	@Test
+	void countsExactlyBelowCapacity() {
+		SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+		sketch.add("a", 3);
+		sketch.add("b", 1);
+		sketch.add("a", 2);
+		sketch.add("c", 0); //Ignored
+
+		Map<String, Long> counts = new HashMap<>();
+		sketch.addTo(counts);
+		assertEquals(Map.of("a", 5L, "b", 1L), counts);
+	}
+
+	@Test
+	void replacesSmallestKeyAndInheritsItsCount() {
+		SpaceSavingSketch sketch = new SpaceSavingSketch(2);
+		sketch.add("a", 10);
+		sketch.add("b", 3);
+		sketch.add("c", 1);
+
+		Map<String, Long> counts = new HashMap<>();
+		sketch.addTo(counts);
+		assertEquals(Map.of("a", 10L, "c", 4L), counts);
+	}
+
+	@Test
+	void keepsHeavyHitters() {
+		SpaceSavingSketch sketch = new SpaceSavingSketch(10);
+		Random random = new Random(42);
+		long total = 0;
+		for (int i = 0; i < 100_000; i++) {
+			//Two keys get a third of the requests each, the rest is spread over many keys
+			int value = random.nextInt(3);
+			String key = value == 0 ? "hot-1" : value == 1 ? "hot-2" : "cold-" + random.nextInt(10_000);
+			sketch.add(key, 1);
+			total++;
+		}
+
+		Map<String, Long> counts = new HashMap<>();
+		sketch.addTo(counts);
+		assertEquals(10, counts.size());
+		assertTrue(counts.containsKey("hot-1"));
+		assertTrue(counts.containsKey("hot-2"));
+
+		//Estimates never underestimate and overestimate by at most total / capacity
+		long sum = counts.values().stream().mapToLong(Long::longValue).sum();
+		assertEquals(total, sum);
+		assertTrue(counts.get("hot-1") >= total / 3 - 1000);
+		assertTrue(counts.get("hot-1") <= total / 3 + 1000 + total / 10);
+	}
+
+	@Test
+	void addsToExistingCounts() {
+		SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+		sketch.add("a", 2);
+
+		Map<String, Long> counts = new HashMap<>(Map.of("a", 3L, "b", 1L));
+		sketch.addTo(counts);
+		assertEquals(Map.of("a", 5L, "b", 1L), counts);
+	}
+
+}
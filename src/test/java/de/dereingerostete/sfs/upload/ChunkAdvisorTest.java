@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.upload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkAdvisorTest {
+	private static final long MB = 1024 * 1024;
+	private static final long WINDOW_MILLIS = 4000;
+	private ChunkAdvisor advisor;
+	private long now;
+
+	@BeforeEach
+	void setUp() {
+		advisor = new ChunkAdvisor(8 * MB, 64 * MB);
+		now = 0;
+		advisor.record(8 * MB, now, 8);
+	}
+
+	@Test
+	void testInitialAdvice() {
+		assertEquals(8 * MB, advisor.getChunkSize());
+		assertEquals(1, advisor.getParallelism(8));
+		assertEquals(MB, new ChunkAdvisor(1, 64 * MB).getChunkSize());
+		assertEquals(64 * MB, new ChunkAdvisor(128 * MB, 64 * MB).getChunkSize());
+	}
+
+	@Test
+	void testClimbsToSaturation() {
+		//Every stream adds throughput until three streams saturate the link
+		IntToDoubleFunction link = parallelism -> Math.min(parallelism, 3) * 1000.0;
+		for (int i = 0; i < 10; i++) sendWindow(link, 8);
+		assertEquals(3, advisor.getParallelism(8));
+	}
+
+	@Test
+	void testStaysSettled() {
+		IntToDoubleFunction link = parallelism -> Math.min(parallelism, 3) * 1000.0;
+		for (int i = 0; i < 10; i++) sendWindow(link, 8);
+
+		//Small changes of the throughput do not start a new search
+		IntToDoubleFunction noisyLink = parallelism -> Math.min(parallelism, 3) * 1100.0;
+		for (int i = 0; i < 10; i++) {
+			sendWindow(noisyLink, 8);
+			assertEquals(3, advisor.getParallelism(8));
+		}
+	}
+
+	@Test
+	void testSearchesAgainAfterChange() {
+		IntToDoubleFunction link = parallelism -> Math.min(parallelism, 3) * 1000.0;
+		for (int i = 0; i < 10; i++) sendWindow(link, 8);
+		assertEquals(3, advisor.getParallelism(8));
+
+		IntToDoubleFunction fasterLink = parallelism -> Math.min(parallelism, 5) * 2000.0;
+		for (int i = 0; i < 10; i++) sendWindow(fasterLink, 8);
+		assertEquals(5, advisor.getParallelism(8));
+	}
+
+	@Test
+	void testRespectsMaxParallelism() {
+		IntToDoubleFunction link = parallelism -> parallelism * 1000.0;
+		for (int i = 0; i < 10; i++) sendWindow(link, 2);
+		assertEquals(2, advisor.getParallelism(8));
+
+		//The server allows fewer streams once more uploads are running
+		sendWindow(link, 1);
+		assertEquals(1, advisor.getParallelism(8));
+		assertEquals(1, advisor.getParallelism(1));
+	}
+
+	@Test
+	void testChunkSizeFollowsThroughput() {
+		//Chunks take about five seconds, rounded down to whole megabytes
+		IntToDoubleFunction link = parallelism -> MB / 1000.0;
+		for (int i = 0; i < 10; i++) sendWindow(link, 1);
+		assertEquals(5 * MB, advisor.getChunkSize());
+
+		IntToDoubleFunction slowLink = parallelism -> 10.0;
+		for (int i = 0; i < 10; i++) sendWindow(slowLink, 1);
+		assertEquals(MB, advisor.getChunkSize());
+
+		IntToDoubleFunction fastLink = parallelism -> 100 * MB / 1000.0;
+		for (int i = 0; i < 10; i++) sendWindow(fastLink, 1);
+		assertEquals(64 * MB, advisor.getChunkSize());
+	}
+
+	/**
+	 * Sends one measurement window of chunks at the advised parallelism
+	 * @param link The throughput in bytes per millisecond of a parallelism
+	 */
+	private void sendWindow(IntToDoubleFunction link, int maxParallelism) {
+		int parallelism = advisor.getParallelism(maxParallelism);
+		long bytes = (long) (link.applyAsDouble(parallelism) * WINDOW_MILLIS / parallelism);
+		for (int i = 1; i <= parallelism; i++) {
+			advisor.record(bytes, now + WINDOW_MILLIS * i / parallelism, maxParallelism);
+		}
+		now += WINDOW_MILLIS;
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.upload;
+
+import de.dereingerostete.sfs.controller.DownloadController;
+import jakarta.servlet.http.Cookie;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadAPIControllerTest {
+	private final File resultFile = new File(DownloadController.DOWNLOAD_DIRECTORY, "chunked-" + System.nanoTime() + ".txt");
+
+	@AfterEach
+	void deleteResult() {
+		FileUtils.deleteQuietly(resultFile);
+	}
+
+	@Test
+	void testChunkChecksum() throws IOException {
+		UploadAPIController controller = new UploadAPIController(64, 8, DataSize.ofGigabytes(100), DataSize.ofBytes(0),
+				DataSize.ofMegabytes(8), DataSize.ofMegabytes(64), 4);
+		String token = UploadUIController.getAuthenticator().generateToken("alice");
+
+		MockHttpServletRequest uploadRequest = createRequest("POST", token);
+		uploadRequest.setContentType("multipart/form-data; boundary=boundary");
+		uploadRequest.setContent("--boundary--\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		uploadRequest.addHeader("Upload-Length", "8");
+		ResponseEntity<Object> started = controller.upload(uploadRequest, new MockHttpServletResponse());
+		assertEquals(200, started.getStatusCode().value());
+		String id = (String) started.getBody();
+		assertNotNull(id);
+
+		//A corrupt chunk is rejected and not stored
+		byte[] first = "abcd".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(UploadChecksum.MISMATCH_STATUS, patch(controller, id, token, 0, first,
+				"crc32c " + crc32c("abce".getBytes(StandardCharsets.US_ASCII))).getStatusCode().value());
+		assertEquals("0", getOffset(controller, id, token));
+
+		assertEquals(200, patch(controller, id, token, 0, first, "crc32c " + crc32c(first)).getStatusCode().value());
+		assertEquals("4", getOffset(controller, id, token));
+
+		byte[] second = "efgh".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(200, patch(controller, id, token, 4, second, "crc32c " + crc32c(second)).getStatusCode().value());
+		assertEquals("abcdefgh", FileUtils.readFileToString(resultFile, StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	void testChunkExceedsLength() throws IOException {
+		UploadAPIController controller = new UploadAPIController(64, 8, DataSize.ofGigabytes(100), DataSize.ofBytes(0),
+				DataSize.ofMegabytes(8), DataSize.ofMegabytes(64), 4);
+		String token = UploadUIController.getAuthenticator().generateToken("bob");
+
+		MockHttpServletRequest uploadRequest = createRequest("POST", token);
+		uploadRequest.setContentType("multipart/form-data; boundary=boundary");
+		uploadRequest.setContent("--boundary--\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		uploadRequest.addHeader("Upload-Length", "4");
+		String id = (String) controller.upload(uploadRequest, new MockHttpServletResponse()).getBody();
+		assertNotNull(id);
+
+		byte[] chunk = "abcdefgh".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(507, patch(controller, id, token, 0, chunk, null).getStatusCode().value());
+		assertFalse(resultFile.exists());
+	}
+
+	@NotNull
+	private ResponseEntity<Object> patch(@NotNull UploadAPIController controller, @NotNull String id,
+										 @NotNull String token, long offset, byte[] data, String checksum) {
+		MockHttpServletRequest request = createRequest("PATCH", token);
+		request.setContentType("application/offset+octet-stream");
+		request.setContent(data);
+		request.addHeader("Upload-Length", "8");
+		request.addHeader("Upload-Offset", String.valueOf(offset));
+		request.addHeader("Upload-Name", resultFile.getName());
+		if (checksum != null) request.addHeader(UploadChecksum.CHUNK_HEADER, checksum);
+		return controller.patch(id, request, new MockHttpServletResponse());
+	}
+
+	@NotNull
+	private static String getOffset(@NotNull UploadAPIController controller, @NotNull String id, @NotNull String token) {
+		ResponseEntity<Object> response = controller.restartChunked(id, createRequest("HEAD", token),
+				new MockHttpServletResponse());
+		assertEquals(200, response.getStatusCode().value());
+		return response.getHeaders().getFirst("Upload-Offset");
+	}
+
+	@NotNull
+	private static String crc32c(byte[] data) {
+		CRC32C crc = new CRC32C();
+		crc.update(data);
+		return Base64.getEncoder().encodeToString(ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array());
+	}
+
+	@NotNull
+	private static MockHttpServletRequest createRequest(@NotNull String method, @NotNull String token) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/filepond/");
+		request.setCookies(new Cookie("sessionToken", token));
+		return request;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.upload;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadChecksumTest {
+	private static final byte[] DATA = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	void testMissingHeader() {
+		assertNull(UploadChecksum.parse(null));
+	}
+
+	@Test
+	void testMatchingChecksums() throws NoSuchAlgorithmException {
+		CRC32C crc = new CRC32C();
+		crc.update(DATA);
+		byte[] crcValue = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array();
+		assertMatches("crc32c " + encode(crcValue));
+		assertMatches("sha1 " + encode(MessageDigest.getInstance("SHA-1").digest(DATA)));
+		assertMatches("sha256 " + encode(MessageDigest.getInstance("SHA-256").digest(DATA)));
+
+		//The algorithm is case-insensitive and the value may be followed by whitespace
+		assertMatches("SHA256 " + encode(MessageDigest.getInstance("SHA-256").digest(DATA)) + " ");
+	}
+
+	@Test
+	void testMismatch() throws NoSuchAlgorithmException {
+		String header = "sha256 " + encode(MessageDigest.getInstance("SHA-256").digest(DATA));
+		UploadChecksum checksum = UploadChecksum.parse(header);
+		assertNotNull(checksum);
+		checksum.update(DATA, 0, DATA.length - 1);
+		assertFalse(checksum.matches());
+	}
+
+	@Test
+	void testPartialUpdates() throws NoSuchAlgorithmException {
+		UploadChecksum checksum = UploadChecksum.parse("sha1 " + encode(MessageDigest.getInstance("SHA-1").digest(DATA)));
+		assertNotNull(checksum);
+		checksum.update(DATA, 0, 10);
+		checksum.update(DATA, 10, DATA.length - 10);
+		assertTrue(checksum.matches());
+	}
+
+	@Test
+	void testReset() throws NoSuchAlgorithmException {
+		UploadChecksum checksum = UploadChecksum.parse("sha1 " + encode(MessageDigest.getInstance("SHA-1").digest(DATA)));
+		assertNotNull(checksum);
+		checksum.update(DATA, 0, DATA.length);
+		checksum.reset();
+		checksum.update(DATA, 0, DATA.length);
+		assertTrue(checksum.matches());
+	}
+
+	@Test
+	void testInvalidHeaders() {
+		assertThrows(IllegalArgumentException.class, () -> UploadChecksum.parse("sha256"));
+		assertThrows(IllegalArgumentException.class, () -> UploadChecksum.parse("md5 " + encode(new byte[16])));
+		assertThrows(IllegalArgumentException.class, () -> UploadChecksum.parse("sha256 not-base64!"));
+		//Values must have the length of the algorithm
+		assertThrows(IllegalArgumentException.class, () -> UploadChecksum.parse("sha256 " + encode(new byte[20])));
+		assertThrows(IllegalArgumentException.class, () -> UploadChecksum.parse("crc32c " + encode(new byte[8])));
+	}
+
+	private static void assertMatches(String header) {
+		UploadChecksum checksum = UploadChecksum.parse(header);
+		assertNotNull(checksum);
+		checksum.update(DATA, 0, DATA.length);
+		assertTrue(checksum.matches(), header);
+	}
+
+	private static String encode(byte[] value) {
+		return Base64.getEncoder().encodeToString(value);
+	}
+
+}
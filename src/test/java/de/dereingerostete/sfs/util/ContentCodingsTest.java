@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentCodingsTest {
+
+	@Test
+	void testMissingHeader() {
+		assertFalse(ContentCodings.accepts(new MockHttpServletRequest(), "gzip"));
+		assertFalse(accepts("", "gzip"));
+	}
+
+	@Test
+	void testNamedCoding() {
+		assertTrue(accepts("gzip", "gzip"));
+		assertTrue(accepts("deflate, GZIP, br", "gzip"));
+		assertFalse(accepts("deflate, br", "gzip"));
+		assertFalse(accepts("gzipped", "gzip"));
+	}
+
+	@Test
+	void testQualityValues() {
+		assertTrue(accepts("gzip;q=1", "gzip"));
+		assertTrue(accepts("gzip;q=0.5", "gzip"));
+		assertTrue(accepts("gzip;q=0.001", "gzip"));
+		assertTrue(accepts("gzip ; q=1.0, br;q=0", "gzip"));
+		assertFalse(accepts("gzip;q=0", "gzip"));
+		assertFalse(accepts("gzip;q=0.0", "gzip"));
+		assertFalse(accepts("gzip;q=0.000", "gzip"));
+		assertFalse(accepts("br, gzip; Q = 0", "gzip"));
+	}
+
+	@Test
+	void testWildcard() {
+		assertTrue(accepts("*", "gzip"));
+		assertTrue(accepts("br, *;q=0.1", "gzip"));
+		assertFalse(accepts("*;q=0", "gzip"));
+		//A named coding takes precedence over the wildcard
+		assertTrue(accepts("*;q=0, gzip", "gzip"));
+		assertFalse(accepts("gzip;q=0, *", "gzip"));
+	}
+
+	@Test
+	void testMultipleHeaders() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(HttpHeaders.ACCEPT_ENCODING, "br");
+		request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		assertTrue(ContentCodings.accepts(request, "gzip"));
+	}
+
+	private static boolean accepts(String acceptEncoding, String coding) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+		return ContentCodings.accepts(request, coding);
+	}
+
+}
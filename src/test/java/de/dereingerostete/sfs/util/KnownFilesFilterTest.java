@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnownFilesFilterTest {
+
+	@Test
+	void everyNameMightExistBeforeTheFirstBuild(@TempDir Path directory) throws IOException {
+		try (KnownFilesFilter filter = new KnownFilesFilter(directory.toFile())) {
+			assertTrue(filter.mightExist("missing.txt"));
+		}
+	}
+
+	@Test
+	void containsListedAndAddedFiles(@TempDir Path directory) throws IOException {
+		for (int i = 0; i < 500; i++) Files.createFile(directory.resolve("file-" + i + ".bin"));
+		try (KnownFilesFilter filter = new KnownFilesFilter(directory.toFile())) {
+			filter.rebuild();
+
+			for (int i = 0; i < 500; i++) assertTrue(filter.mightExist("file-" + i + ".bin"));
+			assertFalse(filter.mightExist("file-500.bin") && filter.mightExist("file-501.bin")
+					&& filter.mightExist("file-502.bin"));
+
+			filter.add("uploaded.bin");
+			assertTrue(filter.mightExist("uploaded.bin"));
+		}
+	}
+
+	@Test
+	void keepsFalsePositiveRateLow(@TempDir Path directory) throws IOException {
+		for (int i = 0; i < 2000; i++) Files.createFile(directory.resolve("known-" + i));
+		try (KnownFilesFilter filter = new KnownFilesFilter(directory.toFile())) {
+			filter.rebuild();
+
+			int falsePositives = 0;
+			for (int i = 0; i < 10000; i++) {
+				if (filter.mightExist("unknown-" + i)) falsePositives++;
+			}
+			assertTrue(falsePositives < 300, "False positives: " + falsePositives);
+		}
+	}
+
+	@Test
+	void includesAllDirectories(@TempDir Path first, @TempDir Path second) throws IOException {
+		Files.createFile(first.resolve("hot.bin"));
+		Files.createFile(second.resolve("cold.bin"));
+		try (KnownFilesFilter filter = new KnownFilesFilter(first.toFile())) {
+			filter.addDirectory(second.toFile());
+			filter.rebuild();
+
+			assertTrue(filter.mightExist("hot.bin"));
+			assertTrue(filter.mightExist("cold.bin"));
+		}
+	}
+
+	@Test
+	void keepsFilesUploadedDuringRebuild(@TempDir Path directory) throws Exception {
+		for (int i = 0; i < 20000; i++) Files.createFile(directory.resolve("existing-" + i));
+		try (KnownFilesFilter filter = new KnownFilesFilter(directory.toFile())) {
+			filter.rebuild();
+
+			//Uploads create the file first and add it to the filter afterwards
+			Thread uploader = new Thread(() -> {
+				try {
+					for (int i = 0; i < 500; i++) {
+						Files.createFile(directory.resolve("uploaded-" + i));
+						filter.add("uploaded-" + i);
+					}
+				} catch (IOException exception) {
+					throw new UncheckedIOException(exception);
+				}
+			});
+			uploader.start();
+			for (int i = 0; i < 5; i++) filter.rebuild();
+			uploader.join();
+
+			for (int i = 0; i < 500; i++) assertTrue(filter.mightExist("uploaded-" + i), "uploaded-" + i);
+		}
+	}
+
+}
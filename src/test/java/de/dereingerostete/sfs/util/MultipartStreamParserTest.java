@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2023 - DerEingerostete
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package de.dereingerostete.sfs.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultipartStreamParserTest {
+	private static final String BOUNDARY = "----sfs-boundary";
+
+	@Test
+	void testParts() throws IOException {
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"field\"\r\n\r\n"
+				+ "value\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"filepond\"; filename=\"test.txt\"\r\n"
+				+ "Content-Type: text/plain\r\n\r\n"
+				+ "file content\r\n"
+				+ "--" + BOUNDARY + "--\r\n";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, Integer.MAX_VALUE), BOUNDARY);
+
+		MultipartStreamParser.Part field = parser.next();
+		assertNotNull(field);
+		assertEquals("field", field.getName());
+		assertFalse(field.isFile());
+		assertEquals("value", read(field));
+
+		MultipartStreamParser.Part file = parser.next();
+		assertNotNull(file);
+		assertEquals("filepond", file.getName());
+		assertEquals("test.txt", file.getFileName());
+		assertEquals("text/plain", file.getContentType());
+		assertEquals("file content", read(file));
+		assertNull(parser.next());
+		assertNull(parser.next());
+	}
+
+	@Test
+	void testBoundarySplitAcrossReads() throws IOException {
+		//Content that almost looks like the delimiter must be returned as it is
+		String content = "line\r\n--" + BOUNDARY.substring(0, 8) + "x\r\n-".repeat(3000);
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"filepond\"; filename=\"split.bin\"\r\n\r\n"
+				+ content + "\r\n"
+				+ "--" + BOUNDARY + "--\r\n";
+
+		for (int chunkSize : new int[] {1, 3, 7, 4096}) {
+			MultipartStreamParser parser = new MultipartStreamParser(stream(body, chunkSize), BOUNDARY);
+			MultipartStreamParser.Part part = parser.next();
+			assertNotNull(part);
+			assertEquals(content, read(part), "Chunk size " + chunkSize);
+			assertNull(parser.next());
+		}
+	}
+
+	@Test
+	void testPreamble() throws IOException {
+		String body = "This is the preamble\r\nwhich is ignored\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"field\"\r\n\r\n"
+				+ "value\r\n"
+				+ "--" + BOUNDARY + "--\r\n"
+				+ "This is the epilogue";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, 5), BOUNDARY);
+
+		MultipartStreamParser.Part part = parser.next();
+		assertNotNull(part);
+		assertEquals("value", read(part));
+		assertNull(parser.next());
+	}
+
+	@Test
+	void testUnreadPartIsSkipped() throws IOException {
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"first\"\r\n\r\n"
+				+ "skipped\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"second\"\r\n\r\n"
+				+ "read\r\n"
+				+ "--" + BOUNDARY + "--\r\n";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, 2), BOUNDARY);
+
+		assertNotNull(parser.next());
+		MultipartStreamParser.Part part = parser.next();
+		assertNotNull(part);
+		assertEquals("second", part.getName());
+		assertEquals("read", read(part));
+	}
+
+	@Test
+	void testMissingContentDisposition() {
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Type: text/plain\r\n\r\n"
+				+ "value\r\n"
+				+ "--" + BOUNDARY + "--\r\n";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, Integer.MAX_VALUE), BOUNDARY);
+		assertThrows(IOException.class, parser::next);
+	}
+
+	@Test
+	void testOversizedHeaders() {
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"field\"\r\n"
+				+ "X-Padding: " + "a".repeat(32 * 1024) + "\r\n\r\n"
+				+ "value\r\n"
+				+ "--" + BOUNDARY + "--\r\n";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, 1024), BOUNDARY);
+		IOException exception = assertThrows(IOException.class, parser::next);
+		assertFalse(exception instanceof EOFException);
+	}
+
+	@Test
+	void testTruncatedBody() throws IOException {
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"filepond\"; filename=\"cut.bin\"\r\n\r\n"
+				+ "the upload was interrupted";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, 4), BOUNDARY);
+
+		MultipartStreamParser.Part part = parser.next();
+		assertNotNull(part);
+		assertThrows(EOFException.class, () -> read(part));
+	}
+
+	@Test
+	void testTruncatedHeaders() {
+		String body = "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"field\"\r\n";
+		MultipartStreamParser parser = new MultipartStreamParser(stream(body, Integer.MAX_VALUE), BOUNDARY);
+		assertThrows(EOFException.class, parser::next);
+	}
+
+	@Test
+	void testGetBoundary() {
+		assertEquals(BOUNDARY, MultipartStreamParser.getBoundary("multipart/form-data; boundary=" + BOUNDARY));
+		assertNull(MultipartStreamParser.getBoundary("multipart/form-data"));
+		assertNull(MultipartStreamParser.getBoundary("application/json"));
+		assertNull(MultipartStreamParser.getBoundary("not a content type"));
+		assertNull(MultipartStreamParser.getBoundary(null));
+	}
+
+	@NotNull
+	private static String read(@NotNull MultipartStreamParser.Part part) throws IOException {
+		return new String(part.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Creates a stream which returns at most the given number of bytes per read
+	 */
+	@NotNull
+	private static InputStream stream(@NotNull String body, int chunkSize) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)) {
+
+			@Override
+			public synchronized int read(byte[] bytes, int offset, int length) {
+				return super.read(bytes, offset, Math.min(length, chunkSize));
+			}
+
+		};
+	}
+
+}